@@ -33,21 +33,32 @@ public class ChannelUtil {
       SeismicDataSource source) {
     final String formattedScnl = ch.getFormattedSCNL();
     if (!channels.contains(formattedScnl)) {
-      Metadata md = SwarmConfig.getInstance().getMetadata(formattedScnl, true);
-      md.updateLongitude(ch.getLongitude());
-      md.updateLatitude(ch.getLatitude());
-      for (String g : ch.getGroups()) {
-        md.addGroup(g);
-      }
-      if (ch.getSiteName() != null && !ch.getSiteName().equals(ch.getStation())) {
-        md.updateAlias(ch.getSiteName());
-      }
+      Metadata md = updateMetadata(ch);
       md.source = source;
       channels.add(formattedScnl);
     }
     return formattedScnl;
   }
 
+  /**
+   * Update the metadata of a channel with its location, groups and site name.
+   * 
+   * @param ch the channel information.
+   * @return the metadata.
+   */
+  public static Metadata updateMetadata(IChannelInfo ch) {
+    Metadata md = SwarmConfig.getInstance().getMetadata(ch.getFormattedSCNL(), true);
+    md.updateLongitude(ch.getLongitude());
+    md.updateLatitude(ch.getLatitude());
+    for (String g : ch.getGroups()) {
+      md.addGroup(g);
+    }
+    if (ch.getSiteName() != null && !ch.getSiteName().equals(ch.getStation())) {
+      md.updateAlias(ch.getSiteName());
+    }
+    return md;
+  }
+
   /**
    * Assign the channels.
    * 
@@ -0,0 +1,163 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm;
+
+import gov.usgs.volcanoes.swarm.data.DataSourceMetrics;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Map;
+
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import javax.swing.text.DefaultCaret;
+
+/**
+ * A dialog showing the cache and data source metrics, refreshed every second while open. The
+ * same numbers are published over JMX by {@link DataSourceMetrics}.
+ */
+public class DiagnosticsDialog extends JDialog {
+  private static final long serialVersionUID = 1L;
+  private static final JFrame applicationFrame = Swarm.getApplicationFrame();
+
+  private static final int WIDTH = 560;
+  private static final int HEIGHT = 480;
+  private static final int REFRESH_MS = 1000;
+
+  private final JTextArea text;
+  private final Timer timer;
+
+  /** re-use the number format safely on the Event Dispatch Thread. */
+  private final NumberFormat nf = new DecimalFormat("#.##");
+
+  /**
+   * Construct a diagnostics dialog.
+   */
+  public DiagnosticsDialog() {
+    super(applicationFrame, "Diagnostics", false);
+    setSize(WIDTH, HEIGHT);
+
+    text = new JTextArea();
+    text.setEditable(false);
+    text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+    // keep the scroll position as the text is refreshed
+    ((DefaultCaret) text.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+
+    final JButton resetButton = new JButton("Reset");
+    resetButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        DataSourceMetrics.getInstance().reset();
+        update();
+      }
+    });
+
+    final JButton closeButton = new JButton("Close");
+    closeButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        setVisible(false);
+      }
+    });
+
+    final JPanel buttonPanel = new JPanel();
+    buttonPanel.add(resetButton);
+    buttonPanel.add(closeButton);
+
+    final JPanel mainPanel = new JPanel(new BorderLayout());
+    mainPanel.add(new JScrollPane(text), BorderLayout.CENTER);
+    mainPanel.add(buttonPanel, BorderLayout.SOUTH);
+    setContentPane(mainPanel);
+
+    timer = new Timer(REFRESH_MS, new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        update();
+      }
+    });
+  }
+
+  /**
+   * @see java.awt.Dialog#setVisible(boolean)
+   */
+  public void setVisible(boolean v) {
+    if (v) {
+      setLocation();
+      update();
+      timer.start();
+    } else {
+      timer.stop();
+    }
+    super.setVisible(v);
+  }
+
+  private void setLocation() {
+    Dimension parentSize = applicationFrame.getSize();
+    Point parentLoc = applicationFrame.getLocation();
+    this.setLocation(parentLoc.x + (parentSize.width / 2 - WIDTH / 2),
+        parentLoc.y + (parentSize.height / 2 - HEIGHT / 2));
+  }
+
+  /**
+   * Refresh the metrics shown. This should only be called on the Event Dispatch Thread.
+   */
+  private void update() {
+    final DataSourceMetrics metrics = DataSourceMetrics.getInstance();
+    final StringBuilder sb = new StringBuilder();
+
+    sb.append(String.format("Cache: %s of %s%n", toByteString(metrics.getCacheSize()),
+        toByteString(metrics.getCacheMaxSize())));
+
+    sb.append(String.format("%nCache requests%n%-12s %10s %10s%n", "", "hits", "misses"));
+    final Map<String, Long> misses = metrics.getMisses();
+    for (final Map.Entry<String, Long> entry : metrics.getHits().entrySet())
+      sb.append(String.format("%-12s %10d %10d%n", entry.getKey(), entry.getValue(),
+          misses.get(entry.getKey())));
+
+    sb.append(String.format("%nEvictions%n"));
+    final Map<String, Long> evictedBytes = metrics.getEvictedBytes();
+    for (final Map.Entry<String, Long> entry : metrics.getEvictions().entrySet())
+      sb.append(String.format("%-20s %10d %12s%n", entry.getKey(), entry.getValue(),
+          toByteString(evictedBytes.get(entry.getKey()))));
+
+    sb.append(String.format("%nSource requests (ms)%n%-30s %8s %8s %8s %8s%n", "", "count",
+        "mean", "95%", "max"));
+    final Map<String, Double> mean = metrics.getMeanLatency();
+    final Map<String, Double> p95 = metrics.getLatency95();
+    final Map<String, Double> max = metrics.getMaxLatency();
+    for (final Map.Entry<String, Long> entry : metrics.getRequests().entrySet()) {
+      final String key = entry.getKey();
+      if (!max.containsKey(key))
+        continue; // reset while we were reading
+
+      sb.append(String.format("%-30s %8d %8s %8s %8s%n", key, entry.getValue(),
+          nf.format(mean.get(key)), nf.format(p95.get(key)), nf.format(max.get(key))));
+    }
+
+    sb.append(String.format("%nResident by channel%n"));
+    for (final Map.Entry<String, Long> entry : metrics.getResidentBytes().entrySet())
+      sb.append(String.format("%-30s %12s%n", entry.getKey().replace('$', ' '),
+          toByteString(entry.getValue())));
+
+    text.setText(sb.toString());
+  }
+
+  /**
+   * Formats a long as a number of bytes.
+   */
+  private String toByteString(Long bytes) {
+    return nf.format((bytes == null ? 0 : bytes) / 1000000.0) + " MB";
+  }
+}
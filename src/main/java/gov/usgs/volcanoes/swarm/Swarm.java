@@ -11,7 +11,13 @@ import gov.usgs.volcanoes.core.ui.GlobalKeyManager;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+import gov.usgs.volcanoes.swarm.data.DirectWWSSource;
+import gov.usgs.volcanoes.swarm.data.DiskCache;
+import gov.usgs.volcanoes.swarm.data.GulpTuner;
+import gov.usgs.volcanoes.swarm.data.GulperScheduler;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
+import gov.usgs.volcanoes.swarm.data.WaveServerSource;
+import gov.usgs.volcanoes.swarm.data.WWSSource;
 import gov.usgs.volcanoes.swarm.event.EventFrame;
 import gov.usgs.volcanoes.swarm.heli.HelicorderViewerFrame;
 import gov.usgs.volcanoes.swarm.internalFrame.InternalFrameListener;
@@ -34,6 +40,7 @@ import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.util.ArrayList;
 
 import javax.swing.AbstractAction;
@@ -100,6 +107,20 @@ public class Swarm extends JFrame implements InternalFrameListener {
     config.createConfig(args);
 
     cache = CachedDataSource.getInstance();
+    cache.setCompressWaves(config.compressCache);
+    cache.setRetention(config.cacheRetention);
+    if (config.diskCacheSize > 0) {
+      cache.setDiskCache(
+          new DiskCache(new File(config.diskCachePath), config.diskCacheSize * 1024L * 1024L));
+    }
+    GulperScheduler.INSTANCE.setLimits(config.gulperThreads, config.gulperSourceLimit);
+    GulpTuner.INSTANCE.setEnabled(config.adaptiveGulp);
+    GulpTuner.INSTANCE.setBounds(config.gulpSizeMin, config.gulpSizeMax, config.gulpDelayMin,
+        config.gulpDelayMax);
+    GulpTuner.INSTANCE.load(new File(config.gulpHistoryPath));
+    WWSSource.setPoolLimits(config.wwsMaxConnections, config.wwsIdleTimeout);
+    WaveServerSource.setPoolLimits(config.waveServerMaxConnections, config.waveServerIdleTimeout);
+    DirectWWSSource.setPoolLimits(config.directWwsMaxConnections, config.directWwsIdleTimeout);
 
     SwarmInternalFrames.addInternalFrameListener(this);
     checkJavaVersion();
@@ -511,6 +532,9 @@ public class Swarm extends JFrame implements InternalFrameListener {
       configFile.writeToFile(config.configFilename);
     }
 
+    cache.persist();
+    GulpTuner.INSTANCE.save(new File(config.gulpHistoryPath));
+
     waveClipboard.removeWaves();
     try {
       for (final JInternalFrame frame : SwarmInternalFrames.getFrames()) {
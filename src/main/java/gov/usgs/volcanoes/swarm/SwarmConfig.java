@@ -3,7 +3,10 @@ package gov.usgs.volcanoes.swarm;
 import gov.usgs.plot.map.WMSGeoImageSet;
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.swarm.data.ConnectionPool;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
+import gov.usgs.volcanoes.swarm.data.GulpTuner;
+import gov.usgs.volcanoes.swarm.data.GulperScheduler;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.map.NationalMapLayer;
 import gov.usgs.volcanoes.swarm.map.hypocenters.HypocenterSource;
@@ -122,11 +125,35 @@ public class SwarmConfig {
 
   public String fdsnDataselectURL;
   public String fdsnStationURL;
+
+  public boolean compressCache;
+  public double cacheRetention;
+  public int gulperThreads;
+  public int gulperSourceLimit;
+  public boolean adaptiveGulp;
+  public int gulpSizeMin;
+  public int gulpSizeMax;
+  public int gulpDelayMin;
+  public int gulpDelayMax;
+  public String gulpHistoryPath;
+  public int wwsMaxConnections;
+  public int wwsIdleTimeout;
+  public int waveServerMaxConnections;
+  public int waveServerIdleTimeout;
+  public int directWwsMaxConnections;
+  public int directWwsIdleTimeout;
+  public String seedLinkStatePath;
+  public String fdsnStationCachePath;
+  public int diskCacheSize;
+  public String diskCachePath;
   
   public String user;
 
   private SwarmConfig() {
     listeners = new ArrayList<ConfigListener>();
+    // replaced by createConfig, but usable without a configuration, as in tests
+    metadata = Collections.synchronizedMap(new HashMap<String, Metadata>());
+    defaultMetadata = new HashMap<String, Metadata>();
   }
 
   public void addListener(ConfigListener configListener) {
@@ -403,6 +430,43 @@ public class SwarmConfig {
     fdsnStationURL = StringUtils.stringToString(config.getString("fdsnStationURL"),
         "http://service.iris.edu/fdsnws/station/1/query");
 
+    compressCache = StringUtils.stringToBoolean(config.getString("compressCache"), false);
+    cacheRetention = StringUtils.stringToDouble(config.getString("cacheRetention"), 0);
+    gulperThreads = StringUtils.stringToInt(config.getString("gulperThreads"),
+        GulperScheduler.DEFAULT_THREADS);
+    gulperSourceLimit = StringUtils.stringToInt(config.getString("gulperSourceLimit"),
+        GulperScheduler.DEFAULT_SOURCE_LIMIT);
+    adaptiveGulp = StringUtils.stringToBoolean(config.getString("adaptiveGulp"), true);
+    gulpSizeMin =
+        StringUtils.stringToInt(config.getString("gulpSizeMin"), GulpTuner.DEFAULT_MIN_SIZE);
+    gulpSizeMax =
+        StringUtils.stringToInt(config.getString("gulpSizeMax"), GulpTuner.DEFAULT_MAX_SIZE);
+    gulpDelayMin =
+        StringUtils.stringToInt(config.getString("gulpDelayMin"), GulpTuner.DEFAULT_MIN_DELAY);
+    gulpDelayMax =
+        StringUtils.stringToInt(config.getString("gulpDelayMax"), GulpTuner.DEFAULT_MAX_DELAY);
+    gulpHistoryPath = StringUtils.stringToString(config.getString("gulpHistoryPath"),
+        new File(getConfigDir(), "gulp.properties").getPath());
+    wwsMaxConnections = StringUtils.stringToInt(config.getString("wwsMaxConnections"),
+        ConnectionPool.DEFAULT_MAX_CONNECTIONS);
+    wwsIdleTimeout = StringUtils.stringToInt(config.getString("wwsIdleTimeout"),
+        ConnectionPool.DEFAULT_IDLE_TIMEOUT);
+    waveServerMaxConnections = StringUtils.stringToInt(
+        config.getString("waveServerMaxConnections"), ConnectionPool.DEFAULT_MAX_CONNECTIONS);
+    waveServerIdleTimeout = StringUtils.stringToInt(config.getString("waveServerIdleTimeout"),
+        ConnectionPool.DEFAULT_IDLE_TIMEOUT);
+    directWwsMaxConnections = StringUtils.stringToInt(
+        config.getString("directWwsMaxConnections"), ConnectionPool.DEFAULT_MAX_CONNECTIONS);
+    directWwsIdleTimeout = StringUtils.stringToInt(config.getString("directWwsIdleTimeout"),
+        ConnectionPool.DEFAULT_IDLE_TIMEOUT);
+    seedLinkStatePath = StringUtils.stringToString(config.getString("seedLinkStatePath"),
+        new File(getConfigDir(), "seedlink").getPath());
+    fdsnStationCachePath = StringUtils.stringToString(config.getString("fdsnStationCachePath"),
+        new File(getConfigDir(), "fdsnStation").getPath());
+    diskCacheSize = StringUtils.stringToInt(config.getString("diskCacheSize"), 0);
+    diskCachePath =
+        StringUtils.stringToString(config.getString("diskCachePath"), getDefaultDiskCachePath());
+
     sources = new HashMap<String, SeismicDataSource>();
     final List<String> servers = config.getList("server");
     if (servers != null && servers.size() > 0) {
@@ -451,6 +515,31 @@ public class SwarmConfig {
     }
   }
   
+  /**
+   * Get the default location of the disk cache, a directory next to the config file.
+   * 
+   * @return disk cache path
+   */
+  private String getDefaultDiskCachePath() {
+    return new File(getConfigDir(), "cache").getPath();
+  }
+
+  /**
+   * Get the directory holding the config file, or the working directory if unknown.
+   * 
+   * @return config directory
+   */
+  private File getConfigDir() {
+    File configDir = null;
+    if (configFilename != null) {
+      configDir = new File(configFilename).getAbsoluteFile().getParentFile();
+    }
+    if (configDir == null) {
+      configDir = new File(System.getProperty("user.dir"));
+    }
+    return configDir;
+  }
+
   public Map<String, SeismicDataSource> getSources(){
     return sources;
   }
@@ -572,6 +661,27 @@ public class SwarmConfig {
     config.put("fdsnDataselectURL", fdsnDataselectURL);
     config.put("fdsnStationURL", fdsnStationURL);
 
+    config.put("compressCache", Boolean.toString(compressCache));
+    config.put("cacheRetention", Double.toString(cacheRetention));
+    config.put("gulperThreads", Integer.toString(gulperThreads));
+    config.put("gulperSourceLimit", Integer.toString(gulperSourceLimit));
+    config.put("adaptiveGulp", Boolean.toString(adaptiveGulp));
+    config.put("gulpSizeMin", Integer.toString(gulpSizeMin));
+    config.put("gulpSizeMax", Integer.toString(gulpSizeMax));
+    config.put("gulpDelayMin", Integer.toString(gulpDelayMin));
+    config.put("gulpDelayMax", Integer.toString(gulpDelayMax));
+    config.put("gulpHistoryPath", gulpHistoryPath);
+    config.put("wwsMaxConnections", Integer.toString(wwsMaxConnections));
+    config.put("wwsIdleTimeout", Integer.toString(wwsIdleTimeout));
+    config.put("waveServerMaxConnections", Integer.toString(waveServerMaxConnections));
+    config.put("waveServerIdleTimeout", Integer.toString(waveServerIdleTimeout));
+    config.put("directWwsMaxConnections", Integer.toString(directWwsMaxConnections));
+    config.put("directWwsIdleTimeout", Integer.toString(directWwsIdleTimeout));
+    config.put("seedLinkStatePath", seedLinkStatePath);
+    config.put("fdsnStationCachePath", fdsnStationCachePath);
+    config.put("diskCacheSize", Integer.toString(diskCacheSize));
+    config.put("diskCachePath", diskCachePath);
+
     final List<String> servers = new ArrayList<String>();
     for (final SeismicDataSource sds : sources.values()) {
       if (sds.isStoreInUserConfig()) {
@@ -80,8 +80,10 @@ public class SwarmMenu extends JMenuBar implements InternalFrameListener {
 
   private JMenu helpMenu;
   private JMenuItem about;
+  private JMenuItem diagnostics;
 
   private AboutDialog aboutDialog;
+  private DiagnosticsDialog diagnosticsDialog;
 
   private Map<JInternalFrame, InternalFrameMenuItem> windows;
   private Map<SwarmLayout, JMenuItem> layouts;
@@ -439,6 +441,17 @@ public class SwarmMenu extends JMenuBar implements InternalFrameListener {
     });
 
     helpMenu.add(about);
+
+    diagnostics = new JMenuItem("Diagnostics...");
+    diagnostics.setMnemonic('D');
+    diagnosticsDialog = new DiagnosticsDialog();
+    diagnostics.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        diagnosticsDialog.setVisible(true);
+      }
+    });
+
+    helpMenu.add(diagnostics);
     add(helpMenu);
   }
 
@@ -64,6 +64,7 @@ public class EditDataSourceDialog extends SwarmModalDialog {
     // panels.add(new DHIPanel());
     panels.add(new WebServicesPanel());
     panels.add(new SeedLinkPanel());
+    panels.add(new SdsPanel());
   }
 
   protected void createDataSourceUi() {
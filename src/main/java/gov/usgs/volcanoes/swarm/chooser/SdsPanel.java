@@ -0,0 +1,132 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.chooser;
+
+import com.jgoodies.forms.builder.DefaultFormBuilder;
+import com.jgoodies.forms.factories.Borders;
+import com.jgoodies.forms.layout.FormLayout;
+
+import gov.usgs.volcanoes.swarm.data.DataSourceType;
+import gov.usgs.volcanoes.swarm.data.SdsSource;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JTextField;
+
+/**
+ * The SDS panel is a data source panel for a SeisComP Data Structure archive.
+ */
+public class SdsPanel extends DataSourcePanel {
+  /** The SDS source code. */
+  private static final String codeText =
+      ";" + DataSourceType.getShortName(SdsSource.class) + ":";
+
+  /** The archive directory. */
+  private JTextField sdsPath;
+
+  /** Chooses the archive directory. */
+  private JButton browse;
+
+  /**
+   * Create the SDS panel.
+   */
+  public SdsPanel() {
+    super(DataSourceType.getShortName(SdsSource.class), "SDS Archive");
+  }
+
+  /**
+   * Determines if the OK should be allowed.
+   *
+   * @return true if allowed, false otherwise.
+   */
+  public boolean allowOk(boolean edit) {
+    String path = sdsPath.getText().trim();
+    String message = null;
+
+    if (path.length() == 0 || path.indexOf(';') != -1) {
+      message = "There is an error with the " + getName() + " directory.";
+    } else if (!new File(path).isDirectory()) {
+      message = "The " + getName() + " directory does not exist.";
+    }
+
+    if (message != null) {
+      JOptionPane.showMessageDialog(applicationFrame, message, "Error", JOptionPane.ERROR_MESSAGE);
+      return false;
+    } else {
+      return true;
+    }
+  }
+
+  /**
+   * Create fields.
+   */
+  protected void createFields() {
+    sdsPath = new JTextField();
+    browse = new JButton("Browse...");
+    browse.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setDialogTitle("Select SDS archive directory...");
+        if (sdsPath.getText().length() > 0) {
+          chooser.setCurrentDirectory(new File(sdsPath.getText()));
+        }
+        if (chooser.showOpenDialog(applicationFrame) == JFileChooser.APPROVE_OPTION) {
+          sdsPath.setText(chooser.getSelectedFile().getPath());
+        }
+      }
+    });
+    resetSource(source);
+  }
+
+  /**
+   * @see gov.usgs.volcanoes.swarm.chooser.DataSourcePanel#resetSource(java.lang.String)
+   */
+  public void resetSource(String source) {
+    this.source = source;
+    String p = "";
+    int index;
+    if (source != null && (index = source.indexOf(codeText)) != -1) {
+      // the path may itself contain ':'
+      p = source.substring(index + codeText.length());
+    }
+    sdsPath.setText(p);
+  }
+
+  /**
+   * Create panels.
+   */
+  protected void createPanel() {
+    createFields();
+    FormLayout layout = new FormLayout("right:max(20dlu;pref), 3dlu, 126dlu, 3dlu, pref", "");
+
+    DefaultFormBuilder builder = new DefaultFormBuilder(layout).border(Borders.DIALOG);
+    builder.append(new JLabel("Use this data source to read a SeisComP SDS archive."), 5);
+    builder.nextLine();
+    builder.appendSeparator();
+    builder.append("Archive directory:");
+    builder.append(sdsPath);
+    builder.append(browse);
+    builder.nextLine();
+
+    panel = builder.getPanel();
+  }
+
+  /**
+   * Process the OK.
+   */
+  public String wasOk() {
+    String result = String.format(getCode() + ":%s", sdsPath.getText().trim());
+    return result;
+  }
+}
@@ -9,20 +9,29 @@ package gov.usgs.volcanoes.swarm.data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.swing.JFrame;
 
-import cern.colt.matrix.DoubleFactory2D;
 import cern.colt.matrix.DoubleMatrix2D;
 import gov.usgs.plot.data.HelicorderData;
 import gov.usgs.plot.data.RSAMData;
 import gov.usgs.plot.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.Swarm;
+import gov.usgs.volcanoes.swarm.data.DataSourceMetrics.DataType;
 
 /**
  * An implementation of <code>SeismicDataSource</code> which caches data that
@@ -30,6 +39,14 @@ import gov.usgs.volcanoes.swarm.Swarm;
  *
  * Mostly build with Dan's code pulled from CachedDataSource
  *
+ * <p>There is no lock on the cache as a whole. Each channel's {@link CacheIndex} is its own lock,
+ * so readers and writers working on different channels never wait on one another. The total size
+ * is kept in an atomic counter updated as entries come and go, and only one thread at a time
+ * enforces the size limit; others carry on rather than wait for it.
+ *
+ * <p>When the cache is full, entries are evicted one at a time in the order chosen by the
+ * {@link EvictionPolicy} until the cache fits again.
+ *
  * @author Tom Parker
  */
 public abstract class AbstractCachingDataSource extends SeismicDataSource implements RsamSource {
@@ -44,20 +61,52 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   /** microsecond conversion */
   protected static final double FROM_USEC = 1E-6;
 
+  /** shortest helicorder gap worth asking a source for, in seconds. */
+  private static final double HELICORDER_TOLERANCE = 1;
+
+  /** age in seconds before a span a source has nothing for is taken to be empty for good. */
+  private static final double EMPTY_AGE = 10 * 60;
+
   protected long maxSize;
-  protected Map<String, List<CachedHelicorder>> helicorderCache;
-  protected Map<String, List<CachedWave>> waveCache;
-  protected Map<String, List<CachedRsam>> rsamCache;
-  protected CachePurgeAction[] purgeActions;
+  protected ConcurrentMap<String, CacheIndex<CachedHelicorder>> helicorderCache;
+  protected ConcurrentMap<String, CacheIndex<CachedWave>> waveCache;
+  protected ConcurrentMap<String, CacheIndex<CachedRsam>> rsamCache;
+
+  /** coarse summaries of the helicorder cache, by channel. */
+  protected ConcurrentMap<String, HelicorderPyramid> pyramids;
+
+  /** helicorders being built from streaming waves, by channel. */
+  protected ConcurrentMap<String, HelicorderAggregator> aggregators;
+
+  /** spans of the helicorder cache held or known empty, by channel. */
+  protected ConcurrentMap<String, Coverage> helicorderCoverage;
+  protected volatile EvictionPolicy evictionPolicy;
+
+  /** bytes held by all entries in all indexes. */
+  private final AtomicLong cacheSize;
+
+  /** held by the thread evicting entries. */
+  private final ReentrantLock purgeLock;
+
+  /** if true, waves are held as CompressedWaves and counted by their compressed size. */
+  protected volatile boolean compressWaves;
+
+  /** second level cache for evicted entries, null if none. */
+  protected volatile DiskCache diskCache;
   protected static Logger logger;
   protected static final JFrame applicationFrame = Swarm.getApplicationFrame();
 
   public AbstractCachingDataSource() {
-    helicorderCache = new HashMap<String, List<CachedHelicorder>>();
-    waveCache = new HashMap<String, List<CachedWave>>();
-    rsamCache = new HashMap<String, List<CachedRsam>>();
+    helicorderCache = new ConcurrentHashMap<String, CacheIndex<CachedHelicorder>>();
+    waveCache = new ConcurrentHashMap<String, CacheIndex<CachedWave>>();
+    rsamCache = new ConcurrentHashMap<String, CacheIndex<CachedRsam>>();
+    pyramids = new ConcurrentHashMap<String, HelicorderPyramid>();
+    aggregators = new ConcurrentHashMap<String, HelicorderAggregator>();
+    helicorderCoverage = new ConcurrentHashMap<String, Coverage>();
+    cacheSize = new AtomicLong();
+    purgeLock = new ReentrantLock();
     maxSize = Runtime.getRuntime().maxMemory() / 6;
-    createPurgeActions();
+    evictionPolicy = new LruEvictionPolicy();
   }
 
   @Override
@@ -68,6 +117,8 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   public void flush() {
     flushWaves();
     flushHelicorders();
+    if (diskCache != null)
+      diskCache.clear();
     System.gc();
   }
 
@@ -76,91 +127,272 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     return false;
   }
 
-  public synchronized long getSize() {
-    long size = getSize(waveCache);
-    size += getSize(helicorderCache);
-    size += getSize(rsamCache);
-    return size;
+  /**
+   * Choose whether newly cached waves are compressed. Compressed waves take several times less
+   * memory at the cost of decoding on each read. Waves already in the cache are left as they are.
+   * 
+   * @param compress if true, compress waves
+   */
+  public void setCompressWaves(final boolean compress) {
+    compressWaves = compress;
   }
 
-  private synchronized <T extends CacheEntry> long getSize(final Map<String, List<T>> cache) {
-    long size = 0;
-    for (final String key : cache.keySet()) {
-      final List<T> cwl = cache.get(key);
+  public boolean isCompressWaves() {
+    return compressWaves;
+  }
 
-      for (final T ce : cwl)
-        size += ce.getMemorySize();
-    }
-    return size;
+  /**
+   * Choose how entries are evicted. With a retention of zero the least recently used entry goes
+   * first. Otherwise only the newest span of each channel is kept, which suits displays that only
+   * ever show recent data, and the least recently used entry goes first if that is still too much.
+   * 
+   * @param hours span of data to keep for each channel, or 0 to keep everything that fits
+   */
+  public void setRetention(final double hours) {
+    if (hours > 0)
+      setEvictionPolicy(new NewestEvictionPolicy(hours));
+    else
+      setEvictionPolicy(new LruEvictionPolicy());
   }
 
-  public void output() {
-    long size = outputCache("Wave", waveCache);
-    size += outputCache("Helicorder", helicorderCache);
-    System.out.println("Wave Last Access Order:");
-    final List<CacheEntry> wl = getEntriesByLastAccess(waveCache);
-    for (final CacheEntry ce : wl)
-      System.out.println(ce.getInfoString());
+  /**
+   * Replace the eviction policy. Entries already in the cache are handed to the new policy, from
+   * oldest to newest.
+   * 
+   * @param policy new policy
+   */
+  protected void setEvictionPolicy(final EvictionPolicy policy) {
+    evictionPolicy = policy;
+    registerEntries(waveCache, policy);
+    registerEntries(helicorderCache, policy);
+    registerEntries(rsamCache, policy);
+  }
 
-    System.out.println("Helicorder Last Access Order:");
-    final List<CacheEntry> hl = getEntriesByLastAccess(helicorderCache);
-    for (final CacheEntry ce : hl)
-      System.out.println(ce.getInfoString());
+  private <T extends CacheEntry> void registerEntries(final Map<String, CacheIndex<T>> cache,
+      final EvictionPolicy policy) {
+    final List<CacheEntry> entries = new ArrayList<CacheEntry>();
+    for (final CacheIndex<T> index : cache.values())
+      entries.addAll(index.values());
 
-    System.out.println("Total size: " + size + " bytes");
+    Collections.sort(entries);
+    for (final CacheEntry ce : entries)
+      policy.added(ce);
   }
 
-  private synchronized <T extends CacheEntry> List<CacheEntry> getEntriesByLastAccess(
-      final Map<String, List<T>> cache) {
-    final List<CacheEntry> cl = new ArrayList<CacheEntry>();
-    for (final String key : cache.keySet()) {
-      final List<T> cwl = cache.get(key);
-      for (final T ce : cwl)
-        cl.add(ce);
+  /**
+   * Record a read of an entry.
+   * 
+   * @param ce entry read
+   */
+  private void touch(final CacheEntry ce) {
+    ce.lastAccess = System.currentTimeMillis();
+    evictionPolicy.accessed(ce);
+  }
+
+  /**
+   * Attach a second level cache. Waves and helicorders evicted from memory are written to it and
+   * read back when a request can't be satisfied from memory.
+   * 
+   * @param cache disk cache, or null to disable
+   */
+  public void setDiskCache(final DiskCache cache) {
+    diskCache = cache;
+  }
+
+  /**
+   * Write everything held in memory to the disk cache so it survives a restart. Blocks until the
+   * data are written.
+   */
+  public void persist() {
+    final DiskCache disk = diskCache;
+    if (disk == null)
+      return;
+
+    flushAggregators();
+
+    for (final Map.Entry<String, CacheIndex<CachedWave>> entry : waveCache.entrySet()) {
+      final CacheIndex<CachedWave> waves = entry.getValue();
+      synchronized (waves) {
+        for (final CachedWave cw : waves.values())
+          disk.putWave(entry.getKey(), cw.getWave());
+      }
     }
 
-    return cl;
+    for (final Map.Entry<String, CacheIndex<CachedHelicorder>> entry : helicorderCache
+        .entrySet()) {
+      final CacheIndex<CachedHelicorder> helis = entry.getValue();
+      synchronized (helis) {
+        for (final CachedHelicorder ch : helis.values())
+          disk.putHelicorder(entry.getKey(), ch.helicorder);
+      }
+    }
+    disk.close();
   }
 
-  public void createPurgeActions() {
-    purgeActions = new CachePurgeAction[] {
-        // purge anything that hasn't been hit in 5 minutes
-        new TimeLimitWavePurgeAction(waveCache, 5 * 60 * 1000),
-        new TimeLimitHelicorderPurgeAction(helicorderCache, 5 * 60 * 1000),
-        new TimeLimitRsamPurgeAction(rsamCache, 5 * 60 * 1000),
+  /**
+   * Write an entry leaving the memory cache to the disk cache.
+   * 
+   * @param ce evicted entry
+   */
+  private void spill(final CacheEntry ce) {
+    final DiskCache disk = diskCache;
+    if (disk == null)
+      return;
 
-        // cut waves larger than 3 hours in half keeping latest half
-        new HalveLargeWavesPurgeAction(waveCache, 3 * 60 * 60),
+    if (ce instanceof CachedWave)
+      disk.putWave(ce.station, ((CachedWave) ce).getWave());
+    else if (ce instanceof CachedHelicorder)
+      disk.putHelicorder(ce.station, ((CachedHelicorder) ce).helicorder);
+  }
 
-        // cut waves larger than 1 hour in half
-        new HalveLargeWavesPurgeAction(waveCache, 60 * 60),
+  /**
+   * Deal with an entry which has been evicted from memory.
+   * 
+   * @param ce evicted entry
+   */
+  private void evicted(final CacheEntry ce) {
+    spill(ce);
+    if (ce instanceof CachedHelicorder) {
+      final HelicorderPyramid pyramid = pyramids.get(ce.station);
+      if (pyramid != null)
+        pyramid.remove(ce.t1, ce.t2);
+    }
+  }
 
-        // getting to the last resort, purge wave cache
-        new CompleteWavePurgeAction(waveCache),
+  /**
+   * Move any waves held by the disk cache for a time span into memory.
+   */
+  private void loadWavesFromDisk(final String station, final double t1, final double t2) {
+    final DiskCache disk = diskCache;
+    if (disk == null)
+      return;
 
-        // should halve large helis
+    for (final Wave wave : disk.getWaves(station, t1, t2))
+      putWave(station, wave);
+  }
+
+  /**
+   * Move any helicorders held by the disk cache for a time span into memory.
+   */
+  private void loadHelicordersFromDisk(final String station, final double t1, final double t2) {
+    final DiskCache disk = diskCache;
+    if (disk == null)
+      return;
+
+    for (final HelicorderData hd : disk.getHelicorders(station, t1, t2))
+      putHelicorder(station, hd);
+  }
+
+  public long getSize() {
+    return cacheSize.get();
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Get the bytes held in memory for each channel, counting waves, helicorders and RSAM.
+   * 
+   * @return bytes keyed by channel
+   */
+  public Map<String, Long> getChannelSizes() {
+    final Map<String, Long> sizes = new TreeMap<String, Long>();
+    addSizes(sizes, waveCache, false);
+    addSizes(sizes, helicorderCache, false);
+    addSizes(sizes, rsamCache, true);
+    return sizes;
+  }
+
+  private <T extends CacheEntry> void addSizes(final Map<String, Long> sizes,
+      final Map<String, CacheIndex<T>> cache, final boolean rsam) {
+    for (final Map.Entry<String, CacheIndex<T>> entry : cache.entrySet()) {
+      String channel = entry.getKey();
+      if (rsam)
+        channel = channel.substring(0, channel.lastIndexOf('/'));
+
+      final Long size = sizes.get(channel);
+      final long memorySize = entry.getValue().getMemorySize();
+      sizes.put(channel, size == null ? memorySize : size + memorySize);
+    }
+  }
+
+  /**
+   * Get the index for a key, creating it if needed.
+   * 
+   * @param cache cache holding the index
+   * @param key index key
+   * @return the index
+   */
+  private <T extends CacheEntry> CacheIndex<T> getIndex(
+      final ConcurrentMap<String, CacheIndex<T>> cache, final String key) {
+    CacheIndex<T> index = cache.get(key);
+    if (index == null) {
+      final CacheIndex<T> newIndex = new CacheIndex<T>();
+      index = cache.putIfAbsent(key, newIndex);
+      if (index == null)
+        index = newIndex;
+    }
+    return index;
+  }
+
+  /**
+   * Remove every index from a cache.
+   * 
+   * @param cache cache to empty
+   */
+  private <T extends CacheEntry> void clearCache(final Map<String, CacheIndex<T>> cache) {
+    for (final String key : cache.keySet()) {
+      final CacheIndex<T> index = cache.remove(key);
+      if (index != null)
+        index.retire();
+    }
+  }
+
+  public void output() {
+    long size = outputCache("Wave", waveCache);
+    size += outputCache("Helicorder", helicorderCache);
+    size += outputCache("RSAM", rsamCache);
+    System.out.println("Eviction Order:");
+    for (final CacheEntry ce : evictionPolicy.getEntries())
+      System.out.println(ce.getInfoString());
 
-        // nothing left to do, purge helicorder cache
-        new CompleteHelicorderPurgeAction(helicorderCache)};
+    System.out.println("Total size: " + size + " bytes");
   }
 
-  /** TODO: maybe this should be an observer? */
-  private synchronized void enforceSize() {
-    if (purgeActions == null)
+  /**
+   * Bring the cache back under its size limit by evicting entries one at a time. Must not be
+   * called while holding an index lock. If another thread is already evicting this returns
+   * immediately; that thread will see the growth.
+   */
+  private void enforceSize() {
+    if (getSize() <= maxSize)
+      return;
+
+    if (!purgeLock.tryLock())
       return;
 
-    long target = getSize() - maxSize;
-    int i = 0;
-    while (target > 0 && i < purgeActions.length) {
-      final long chunk = purgeActions[i].purge();
-      LOGGER.debug("purged {} bytes from cache", chunk);
-      target -= chunk;
-      i++;
+    try {
+      long freed = 0;
+      while (getSize() > maxSize) {
+        final CacheEntry ce = evictionPolicy.nextVictim();
+        if (ce == null)
+          break;
+
+        if (removeEntryFromCache(ce))
+          freed += ce.accountedSize;
+      }
+      LOGGER.debug("evicted {} bytes from cache", freed);
+    } finally {
+      purgeLock.unlock();
     }
   }
 
-  private synchronized void putWaveInCache(final String channel, final Wave wave,
-      final List<CachedWave> waves) {
+  /**
+   * Add a wave to an index, splitting it if it is too large. Caller must hold the index lock.
+   */
+  private void putWaveInCache(final String channel, final Wave wave,
+      final CacheIndex<CachedWave> waves) {
     if (wave.getMemorySize() > MAX_WAVE_SIZE) {
       final Wave[] splitWaves = wave.split();
       putWaveInCache(channel, splitWaves[0], waves);
@@ -169,42 +401,40 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     }
     final CachedWave cw = new CachedWave();
     cw.station = channel;
-    cw.t1 = wave.getStartTime();
-    cw.t2 = wave.getEndTime();
-    cw.wave = wave;
+    cw.setWave(wave, compressWaves);
     cw.lastAccess = System.currentTimeMillis();
     waves.add(cw);
-    enforceSize();
+  }
+
+  /**
+   * Get the key used to index RSAM of a given period. Entries of different periods can not be
+   * combined, so each period gets its own index.
+   * 
+   * @param station channel name
+   * @param period RSAM period in seconds
+   * @return rsam cache key
+   */
+  private static String getRsamKey(final String station, final int period) {
+    return station + "/" + period;
   }
 
   public void putRsam(final String station, RSAMData rsamData) {
-    List<CachedRsam> rsams = rsamCache.get(station);
-    if (rsams == null) {
-      rsams = new ArrayList<CachedRsam>();
-      final CachedRsam cr = new CachedRsam();
-      cr.station = station;
-      cr.t1 = rsamData.getStartTime();
-      cr.t2 = rsamData.getEndTime();
-      cr.rsamData = rsamData;
-      cr.lastAccess = System.currentTimeMillis();
-      rsams.add(cr);
-      rsamCache.put(station, rsams);
-      enforceSize();
-    } else {
-      boolean add = true;
-      for (int i = 0; i < rsams.size(); i++) {
-        final CachedRsam ch = rsams.get(i);
-        if (ch.rsamData.overlaps(rsamData) && rsamData != ch.rsamData) {
-          rsams.remove(ch);
-          final RSAMData newRsam = ch.rsamData.combine(rsamData);
-          putRsam(station, newRsam);
-          rsamData = newRsam;
-          i = 0;
-          add = false;
+    final String key = getRsamKey(station, rsamData.getPeriod());
+    while (true) {
+      final CacheIndex<CachedRsam> rsams = getIndex(rsamCache, key);
+      synchronized (rsams) {
+        // flushed while we waited, start over with a live index
+        if (rsams.isRetired())
+          continue;
+
+        for (final CachedRsam ch : rsams.getOverlapping(rsamData.getStartTime(),
+            rsamData.getEndTime())) {
+          if (ch.rsamData.overlaps(rsamData) && rsamData != ch.rsamData) {
+            rsams.remove(ch);
+            rsamData = ch.rsamData.combine(rsamData);
+          }
         }
-      }
 
-      if (add) {
         final CachedRsam ch = new CachedRsam();
         ch.station = station;
         ch.t1 = rsamData.getStartTime();
@@ -212,44 +442,30 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
         ch.rsamData = rsamData;
         ch.lastAccess = System.currentTimeMillis();
         rsams.add(ch);
-        enforceSize();
+        break;
       }
     }
+    enforceSize();
   }
 
-  public synchronized void putHelicorder(final String station, HelicorderData helicorder) {
-    List<CachedHelicorder> helis = helicorderCache.get(station);
-    if (helis == null) {
-      helis = new ArrayList<CachedHelicorder>();
-      final CachedHelicorder ch = new CachedHelicorder();
-      ch.station = station;
-      ch.t1 = helicorder.getStartTime();
-      ch.t2 = helicorder.getEndTime();
-      ch.helicorder = helicorder;
-      ch.lastAccess = System.currentTimeMillis();
-      helis.add(ch);
-      helicorderCache.put(station, helis);
-      enforceSize();
-    } else {
-      boolean add = true;
-      for (int i = 0; i < helis.size(); i++) {
-        final CachedHelicorder ch = helis.get(i);
-
-        if (ch.helicorder.overlaps(helicorder)) {
-          final HelicorderData newHeli = ch.helicorder.combine(helicorder);
-          ch.t1 = newHeli.getStartTime();
-          ch.t2 = newHeli.getEndTime();
-          ch.helicorder = newHeli;
-          ch.lastAccess = System.currentTimeMillis();
-
-          helicorder = newHeli;
-          i = 0;
-          add = false;
-          break;
+  public void putHelicorder(final String station, HelicorderData helicorder) {
+    final double t1 = helicorder.getStartTime();
+    final double t2 = helicorder.getEndTime();
+    while (true) {
+      final CacheIndex<CachedHelicorder> helis = getIndex(helicorderCache, station);
+      synchronized (helis) {
+        // flushed while we waited, start over with a live index
+        if (helis.isRetired())
+          continue;
+
+        for (final CachedHelicorder ch : helis.getOverlapping(helicorder.getStartTime(),
+            helicorder.getEndTime())) {
+          if (ch.helicorder.overlaps(helicorder)) {
+            helis.remove(ch);
+            helicorder = ch.helicorder.combine(helicorder);
+          }
         }
-      }
 
-      if (add) {
         final CachedHelicorder ch = new CachedHelicorder();
         ch.station = station;
         ch.t1 = helicorder.getStartTime();
@@ -257,114 +473,257 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
         ch.helicorder = helicorder;
         ch.lastAccess = System.currentTimeMillis();
         helis.add(ch);
-        enforceSize();
+        getCoverage(station).add(ch.t1, ch.t2);
+
+        final double[] span = HelicorderPyramid.getUpdateSpan(t1, t2);
+        final List<HelicorderData> touching = new ArrayList<HelicorderData>();
+        for (final CachedHelicorder c : helis.getOverlapping(span[0], span[1]))
+          touching.add(c.helicorder);
+        getPyramid(station).update(touching, t1, t2);
+        break;
       }
     }
+    enforceSize();
   }
 
-  public synchronized void cacheWaveAsHelicorder(final String station, final Wave wave) {
-    if (inHelicorderCache(station, wave.getStartTime(), wave.getEndTime()))
-      return;
+  private Coverage getCoverage(final String station) {
+    Coverage coverage = helicorderCoverage.get(station);
+    if (coverage == null) {
+      final Coverage newCoverage = new Coverage(HELICORDER_TOLERANCE);
+      coverage = helicorderCoverage.putIfAbsent(station, newCoverage);
+      if (coverage == null)
+        coverage = newCoverage;
+    }
+    return coverage;
+  }
 
-    final int seconds = (int) Math.ceil(wave.numSamples() * wave.getSamplingPeriod());
-    final DoubleMatrix2D data = DoubleFactory2D.dense.make(seconds, 3);
-    for (int i = 0; i < seconds; i++) {
-      data.setQuick(i, 1, Integer.MAX_VALUE);
-      data.setQuick(i, 2, Integer.MIN_VALUE);
+  /**
+   * Forget the span of an entry leaving the memory cache. Called holding the entry's index lock
+   * so a helicorder put at the same time can't be forgotten with it.
+   */
+  private void uncover(final CacheEntry ce) {
+    if (ce instanceof CachedHelicorder) {
+      final Coverage coverage = helicorderCoverage.get(ce.station);
+      if (coverage != null)
+        coverage.remove(ce.t1, ce.t2);
     }
+  }
 
-    final long sPeriod = (long) (wave.getSamplingPeriod() * TO_USEC);
-    final long startTime = (long) (wave.getStartTime() * TO_USEC);
-    for (int sampleIndex = 0; sampleIndex < wave.numSamples(); sampleIndex++) {
-      final long sampleTime = startTime + sampleIndex * sPeriod;
-      final int sample = wave.buffer[sampleIndex];
+  /**
+   * Get the parts of a span missing from the helicorder cache, leaving out spans known to have no
+   * data. Sources should fetch these and nothing else.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return missing intervals as {start, end} pairs in time order, possibly empty
+   */
+  public List<double[]> getMissingHelicorder(final String station, final double t1,
+      final double t2) {
+    drainAggregator(station);
+    loadHelicordersFromDisk(station, t1, t2);
+    return getCoverage(station).getMissing(t1, t2);
+  }
 
-      if (sample != Wave.NO_DATA) {
-        final int secondIndex = (int) ((sampleTime - startTime) / TO_USEC);
-        data.setQuick(secondIndex, 0, sampleTime / TO_USEC);
-        data.setQuick(secondIndex, 1, Math.min(data.getQuick(secondIndex, 1), sample));
-        data.setQuick(secondIndex, 2, Math.max(data.getQuick(secondIndex, 2), sample));
-      }
+  /**
+   * Record that a source has no helicorder data for a span. Recent spans are left alone as their
+   * data may still be on the way.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   */
+  public void putEmptyHelicorder(final String station, final double t1, final double t2) {
+    if (t2 < J2kSec.now() - EMPTY_AGE)
+      getCoverage(station).addEmpty(t1, t2);
+  }
 
+  private HelicorderPyramid getPyramid(final String station) {
+    HelicorderPyramid pyramid = pyramids.get(station);
+    if (pyramid == null) {
+      final HelicorderPyramid newPyramid = new HelicorderPyramid();
+      pyramid = pyramids.putIfAbsent(station, newPyramid);
+      if (pyramid == null)
+        pyramid = newPyramid;
     }
+    return pyramid;
+  }
 
-    for (int i = 0; i < seconds; i++) {
-      final double min = data.getQuick(i, 1);
-      if (min == Integer.MAX_VALUE)
-        data.setQuick(i, 1, wave.mean());
+  @Override
+  public HelicorderData getHelicorderSummary(final String station, final double t1,
+      final double t2, final double resolution) {
+    final int level = HelicorderPyramid.getLevel(resolution);
+    if (level < 0)
+      return null;
 
-      final double max = data.getQuick(i, 2);
-      if (max == Integer.MIN_VALUE)
-        data.setQuick(i, 2, wave.mean());
+    drainAggregator(station);
+    final HelicorderPyramid pyramid = pyramids.get(station);
+    if (pyramid == null)
+      return null;
+
+    return pyramid.getHelicorder(level, t1, t2);
+  }
+
+  /**
+   * Add a wave to the helicorder cache. Waves are summarized into per channel aggregators and
+   * reach the cache in batches, so streaming sources can call this for every packet cheaply.
+   * 
+   * @param station channel name
+   * @param wave wave to add
+   */
+  public void cacheWaveAsHelicorder(final String station, final Wave wave) {
+    final CacheIndex<CachedHelicorder> helis = helicorderCache.get(station);
+    if (helis != null && helis.getContaining(wave.getStartTime(), wave.getEndTime()) != null)
+      return;
+
+    final HelicorderAggregator aggregator = getAggregator(station);
+    aggregator.append(wave);
+    if (aggregator.isDrainDue())
+      drainAggregator(station);
+  }
+
+  private HelicorderAggregator getAggregator(final String station) {
+    HelicorderAggregator aggregator = aggregators.get(station);
+    if (aggregator == null) {
+      final HelicorderAggregator newAggregator = new HelicorderAggregator();
+      aggregator = aggregators.putIfAbsent(station, newAggregator);
+      if (aggregator == null)
+        aggregator = newAggregator;
     }
+    return aggregator;
+  }
 
-    final HelicorderData hd = new HelicorderData();
-    hd.setData(data);
-    putHelicorder(station, hd);
+  /**
+   * Move helicorder data waiting in a channel's aggregator into the cache. Called before reading
+   * helicorders so readers see everything but the current second.
+   */
+  private void drainAggregator(final String station) {
+    final HelicorderAggregator aggregator = aggregators.get(station);
+    if (aggregator == null)
+      return;
+
+    for (final HelicorderData hd : aggregator.drain())
+      putHelicorder(station, hd);
+  }
+
+  /**
+   * Move everything waiting in a channel's aggregator into the cache, the latest second too.
+   * Called once all of a channel's data are in, such as at the end of a file, as data shorter than
+   * a batch would otherwise never reach the cache or the channel list.
+   * 
+   * @param station channel name
+   */
+  protected void flushAggregator(final String station) {
+    final HelicorderAggregator aggregator = aggregators.get(station);
+    if (aggregator == null)
+      return;
+
+    for (final HelicorderData hd : aggregator.drainAll())
+      putHelicorder(station, hd);
+  }
+
+  /**
+   * Move everything waiting in every aggregator into the cache.
+   */
+  public void flushAggregators() {
+    for (final String station : aggregators.keySet())
+      flushAggregator(station);
   }
 
   public boolean isEmpty() {
     return helicorderCache.size() + waveCache.size() == 0;
   }
 
-  public synchronized boolean inHelicorderCache(final String station, final double t1,
+  public boolean inHelicorderCache(final String station, final double t1,
       final double t2) {
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
+    drainAggregator(station);
+    loadHelicordersFromDisk(station, t1, t2);
+    final CacheIndex<CachedHelicorder> helis = helicorderCache.get(station);
     if (helis == null)
       return false;
 
-    for (final CachedHelicorder ch : helis) {
-      if (t1 >= ch.t1 && t2 <= ch.t2)
-        return true;
-    }
-
-    return false;
+    return helis.getContaining(t1, t2) != null;
   }
 
   public RSAMData getRsam(final String channel, final double t1, final double t2,
       final int period) {
-    final List<CachedRsam> rsam = rsamCache.get(channel);
-    if (rsam == null)
+    final CacheIndex<CachedRsam> rsam = rsamCache.get(getRsamKey(channel, period));
+    final CachedRsam cr = rsam == null ? null : rsam.getContaining(t1, t2);
+    if (cr == null) {
+      DataSourceMetrics.getInstance().miss(DataType.RSAM);
       return null;
-    else {
+    }
 
-      for (final CachedRsam cr : rsam) {
-        if (cr.rsamData.getPeriod() != period)
-          continue;
+    DataSourceMetrics.getInstance().hit(DataType.RSAM);
+    touch(cr);
+    return cr.slice(t1, t2);
+  }
 
-        if (t1 >= cr.t1 && t2 <= cr.t2) {
-          return cr.slice(t1, t2);
-        }
+  @Override
+  public Wave getWave(final String station, final double t1, final double t2) {
+    CacheIndex<CachedWave> waves = waveCache.get(station);
+    if (waves == null || waves.getContaining(t1, t2) == null) {
+      loadWavesFromDisk(station, t1, t2);
+      waves = waveCache.get(station);
+    }
+    if (waves == null) {
+      DataSourceMetrics.getInstance().miss(DataType.WAVE);
+      return null;
+    }
+
+    synchronized (waves) {
+      final CachedWave cw = waves.getContaining(t1, t2);
+      if (cw == null) {
+        DataSourceMetrics.getInstance().miss(DataType.WAVE);
+        return null;
+      }
+
+      try {
+        final Wave sw = cw.getWave(t1, t2);
+        touch(cw);
+        DataSourceMetrics.getInstance().hit(DataType.WAVE);
+        return sw;
+      } catch (final ArrayIndexOutOfBoundsException e) {
+        DataSourceMetrics.getInstance().miss(DataType.WAVE);
+        return null;
       }
     }
-    return null;
   }
 
-  @Override
-  public synchronized Wave getWave(final String station, final double t1, final double t2) {
-
-    final List<CachedWave> waves = waveCache.get(station);
+  /**
+   * Get the cached wave covering a time span without copying it. An uncompressed wave is returned
+   * as held by the cache; a compressed one has only the blocks covering the span decoded.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return read only wave covering at least t1 to t2, or null if no single entry covers the span
+   * @see SeismicDataSource#getWaveView(String, double, double)
+   */
+  public Wave getSharedWave(final String station, final double t1, final double t2) {
+    // misses are counted by the getWave call which always follows one
+    final CacheIndex<CachedWave> waves = waveCache.get(station);
     if (waves == null)
       return null;
-    else {
 
-      for (final CachedWave cw : waves) {
-        if (t1 >= cw.t1 && t2 <= cw.t2) {
-          // TODO: fix this. It's a sloppy.
-          try {
-            final int[] newbuf = new int[(int) ((t2 - t1) * cw.wave.getSamplingRate())];
-            final int i = (int) ((t1 - cw.wave.getStartTime()) * cw.wave.getSamplingRate());
-            System.arraycopy(cw.wave.buffer, i, newbuf, 0, newbuf.length);
-            final Wave sw = new Wave(newbuf, t1, cw.wave.getSamplingRate());
-            cw.lastAccess = System.currentTimeMillis();
-            return sw;
-          } catch (final ArrayIndexOutOfBoundsException e) {
-            return null;
-          }
-        }
-      }
+    synchronized (waves) {
+      final CachedWave cw = waves.getContaining(t1, t2);
+      if (cw == null)
+        return null;
+
+      touch(cw);
+      DataSourceMetrics.getInstance().hit(DataType.WAVE);
+      return cw.getOverlap(t1, t2);
     }
-    return null;
+  }
+
+  @Override
+  public Wave getWaveView(final String station, final double t1, final double t2) {
+    final Wave wave = getSharedWave(station, t1, t2);
+    if (wave != null)
+      return wave;
+    else
+      return getWave(station, t1, t2);
   }
 
   @Override
@@ -382,23 +741,31 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
       return st;
   }
 
-  public synchronized Wave getBestWave(final String station, final double t1, final double t2) {
+  public Wave getBestWave(final String station, final double t1, final double t2) {
+    loadWavesFromDisk(station, t1, t2);
     Wave wave;
-    final List<CachedWave> waves = waveCache.get(station);
+    final CacheIndex<CachedWave> waves = waveCache.get(station);
     if (waves == null)
       return null;
     else {
       final List<Wave> parts = new ArrayList<Wave>();
       double minT = 1E300;
       double maxT = -1E300;
-      for (final CachedWave cw : waves) {
-        if (cw.wave.overlaps(t1, t2)) {
-          parts.add(cw.wave);
-          minT = Math.min(minT, cw.t1);
-          maxT = Math.max(maxT, cw.t2);
+      synchronized (waves) {
+        for (final CachedWave cw : waves.getOverlapping(t1, t2)) {
+          final Wave part = cw.getOverlap(t1, t2);
+          if (part.overlaps(t1, t2)) {
+            parts.add(part);
+            minT = Math.min(minT, part.getStartTime());
+            maxT = Math.max(maxT, part.getEndTime());
+            touch(cw);
+          }
         }
       }
 
+      if (parts.size() == 0)
+        return null;
+
       if (parts.size() == 1)
         return parts.get(0);
 
@@ -409,33 +776,66 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     return wave;
   }
 
-  public synchronized void putWave(final String station, final Wave wave) {
-    List<CachedWave> waves = waveCache.get(station);
-    if (waves == null) {
-      waves = new ArrayList<CachedWave>();
-      waveCache.put(station, waves);
-      putWaveInCache(station, wave, waves);
-    } else {
-      for (final CachedWave cw : waves) {
-        boolean join = false;
-        if (cw.wave.adjacent(wave))
-          if (cw.wave.getMemorySize() + wave.getMemorySize() < MAX_WAVE_SIZE)
-            join = true;
-        if (cw.wave.overlaps(wave))
-          join = true;
+  public void putWave(final String station, final Wave wave) {
+    while (true) {
+      final CacheIndex<CachedWave> waves = getIndex(waveCache, station);
+      synchronized (waves) {
+        // flushed while we waited, start over with a live index
+        if (waves.isRetired())
+          continue;
 
-        if (join) {
-          final Wave newWave = cw.wave.combine(wave);
-          if (newWave != null) {
-            waves.remove(cw);
-            putWave(station, newWave);
-          }
+        putWave(station, wave, waves);
+        break;
+      }
+    }
+    enforceSize();
+  }
+
+  /**
+   * Merge a wave into a channel's index. Caller must hold the index lock.
+   */
+  private void putWave(final String station, final Wave wave,
+      final CacheIndex<CachedWave> waves) {
+    // only the entries bordering the new wave can be joined with it
+    final double period = wave.getSamplingPeriod();
+    final List<CachedWave> neighbours =
+        waves.getOverlapping(wave.getStartTime() - period, wave.getEndTime() + period);
+
+    // streaming data usually lands just after the last entry, extend it in place
+    if (neighbours.size() == 1) {
+      final CachedWave cw = neighbours.get(0);
+      if (cw.compressedWave != null && cw.compressedWave.isAppendable(wave)
+          && cw.compressedWave.getUncompressedSize() + wave.getMemorySize() < MAX_WAVE_SIZE) {
+        cw.compressedWave.append(wave);
+        cw.t2 = cw.compressedWave.getEndTime();
+        touch(cw);
+        waves.resize(cw);
+        return;
+      }
+    }
+
+    Wave merged = wave;
+    for (final CachedWave cw : neighbours) {
+      final Wave cachedWave = cw.getWave();
+      boolean join = false;
+      if (cachedWave.adjacent(merged))
+        if (cachedWave.getMemorySize() + merged.getMemorySize() < MAX_WAVE_SIZE)
+          join = true;
+      if (cachedWave.overlaps(merged))
+        join = true;
+
+      if (join) {
+        final Wave newWave = cachedWave.combine(merged);
+        if (newWave != null) {
+          waves.remove(cw);
+          merged = newWave;
+        } else if (merged == wave) {
           return;
         }
       }
-
-      putWaveInCache(station, wave, waves);
     }
+
+    putWaveInCache(station, merged, waves);
   }
 
   // this version, the one that implements SeismicDataSource, will only
@@ -444,20 +844,35 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   // side use
   // the version below
   @Override
-  public synchronized HelicorderData getHelicorder(String station, final double startTime,
+  public HelicorderData getHelicorder(String station, final double startTime,
       final double endTime, final GulperListener gl) {
     station = station.replace(' ', '$');
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
+    drainAggregator(station);
+    loadHelicordersFromDisk(station, startTime, endTime);
+    final HelicorderData hd = getCachedHelicorder(station, startTime, endTime);
+    if (hd == null)
+      DataSourceMetrics.getInstance().miss(DataType.HELICORDER);
+    else
+      DataSourceMetrics.getInstance().hit(DataType.HELICORDER);
+    return hd;
+  }
+
+  /**
+   * Composite a helicorder from the cache alone.
+   */
+  private HelicorderData getCachedHelicorder(final String station, final double startTime,
+      final double endTime) {
+    final CacheIndex<CachedHelicorder> helis = helicorderCache.get(station);
     if (helis == null)
       return null;
     else {
       HelicorderData hd = new HelicorderData();
       HelicorderData hd2 = null;
-      for (final CachedHelicorder ch : helis) {
+      for (final CachedHelicorder ch : helis.getOverlapping(startTime, endTime)) {
         // found the whole thing, just return the needed subset
         if (startTime >= ch.t1 && endTime <= ch.t2) {
           hd2 = ch.helicorder.subset(startTime, endTime);
-          ch.lastAccess = System.currentTimeMillis();
+          touch(ch);
           return hd2;
         }
 
@@ -477,7 +892,7 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
         // if cached data found
         if (hd2 != null) {
           hd.concatenate(hd2);
-          ch.lastAccess = System.currentTimeMillis();
+          touch(ch);
           hd2 = null;
         }
       }
@@ -489,91 +904,67 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     }
   }
 
-  public synchronized HelicorderData getHelicorder(final String station, final double t1,
+  /**
+   * Get a helicorder from the cache, asking a source for only the parts the cache is missing.
+   * Sources call this from their own getHelicorder, and are called back for each missing part.
+   * A null part is left missing so it is asked for again; sources that positively know a span
+   * holds no data record that themselves with {@link #putEmptyHelicorder}.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param source source of the missing parts
+   * @return helicorder data, or null if none of the span is cached
+   */
+  public HelicorderData getHelicorder(final String station, final double t1,
       final double t2, final SeismicDataSource source) {
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
-    if (helis == null)
+    final List<double[]> missing = getMissingHelicorder(station, t1, t2);
+    final Coverage coverage = helicorderCoverage.get(station);
+    if (coverage == null || !coverage.overlaps(t1, t2)) {
+      DataSourceMetrics.getInstance().miss(DataType.HELICORDER);
       return null;
-    else {
-      HelicorderData hd;
-      for (final CachedHelicorder ch : helis) {
-        // asked for area completely within one cache entry
-        if (t1 >= ch.t1 && t2 <= ch.t2) {
-          // System.out.println("totally cached");
-          hd = ch.helicorder.subset(t1, t2);
-          ch.lastAccess = System.currentTimeMillis();
-          return hd;
-        }
-
-        // one entry completely within asked for area
-        if (t1 < ch.t1 && t2 > ch.t2) {
-          // System.out.println("cache is centered chunk");
-          HelicorderData nhd = source.getHelicorder(station, t1, ch.t1, null);
-          if (nhd != null)
-            hd = ch.helicorder.combine(nhd);
-          else
-            hd = ch.helicorder;
-
-          nhd = source.getHelicorder(station, ch.t2, t2, null);
-          if (nhd != null)
-            hd = hd.combine(nhd);
-
-          ch.lastAccess = System.currentTimeMillis();
-          return hd;
-        }
-
-        // asked for area is to left but overlaps
-        if (t1 < ch.t1 && t2 > ch.t1 && t2 <= ch.t2) {
-          // System.out.println("cache overlaps on right side");
-          final HelicorderData nhd = source.getHelicorder(station, t1, ch.t1, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-            ch.lastAccess = System.currentTimeMillis();
-            return hd;
-          } else {
-            ch.lastAccess = System.currentTimeMillis();
-            return ch.helicorder;
-          }
-
-        }
+    }
 
-        // asked for area is to right but overlaps
-        if (t1 > ch.t1 && t1 < ch.t2 && t2 > ch.t2) {
-          // System.out.println("cache overlaps on left side");
-          final HelicorderData nhd = source.getHelicorder(station, ch.t2, t2, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-            ch.lastAccess = System.currentTimeMillis();
-            return hd;
-          } else {
-            ch.lastAccess = System.currentTimeMillis();
-            return ch.helicorder;
-          }
-        }
-      }
+    if (missing.isEmpty())
+      DataSourceMetrics.getInstance().hit(DataType.HELICORDER);
+    else
+      DataSourceMetrics.getInstance().miss(DataType.HELICORDER);
+
+    HelicorderData hd = getCachedHelicorder(station, t1, t2);
+    for (final double[] span : missing) {
+      final HelicorderData nhd = source.getHelicorder(station, span[0], span[1], null);
+      if (nhd == null)
+        continue;
+      if (hd == null)
+        hd = nhd;
+      else
+        hd = hd.combine(nhd);
     }
-    return null;
+    return hd;
   }
 
   private void flushHelicorders() {
-    helicorderCache.clear();// = new HashMap();
+    aggregators.clear();
+    clearCache(helicorderCache);
+    pyramids.clear();
+    helicorderCoverage.clear();
     System.out.println("Helicorder Cache Flushed");
   }
 
   private void flushWaves() {
-    waveCache.clear();// = new HashMap();
+    clearCache(waveCache);
     System.out.println("Wave Cache Flushed");
   }
 
   private <T extends CacheEntry> long outputCache(final String type,
-      final Map<String, List<T>> cache) {
+      final Map<String, CacheIndex<T>> cache) {
     long size = 0;
     System.out.println(type + " cache");
     for (final String key : cache.keySet()) {
       System.out.println("\t" + key);
-      final List<T> cwl = cache.get(key);
+      final CacheIndex<T> cwl = cache.get(key);
 
-      for (final T ce : cwl) {
+      for (final T ce : cwl.values()) {
         size += ce.getMemorySize();
         System.out.println("\t\t" + ce.getInfoString());
       }
@@ -582,137 +973,377 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     return size;
   }
 
-  private synchronized <T extends CacheEntry> void removeEntryFromCache(final CacheEntry ce,
-      final Map<String, List<T>> cache) {
-    final List<T> cl = cache.get(ce.station);
-    cl.remove(ce);
-    System.out.println("Removed: " + ce.getInfoString());
+  /**
+   * Evict an entry, writing it to the disk cache.
+   * 
+   * @param ce entry to remove
+   * @return true if the entry was still cached
+   */
+  private boolean removeEntryFromCache(final CacheEntry ce) {
+    final CacheIndex<?> index;
+    if (ce instanceof CachedWave)
+      index = waveCache.get(ce.station);
+    else if (ce instanceof CachedHelicorder)
+      index = helicorderCache.get(ce.station);
+    else
+      index = rsamCache.get(getRsamKey(ce.station, ((CachedRsam) ce).rsamData.getPeriod()));
+
+    if (index == null)
+      return false;
+
+    synchronized (index) {
+      if (!index.remove(ce))
+        return false;
+      uncover(ce);
+    }
+    DataSourceMetrics.getInstance().evicted(evictionPolicy.getName(), ce.accountedSize);
+
+    evicted(ce);
+    LOGGER.debug("Removed: {}", ce.getInfoString());
+    return true;
   }
 
-  private class HalveLargeWavesPurgeAction extends CachePurgeAction {
-    private final int maxTime;
-    private final Map<String, List<CachedWave>> cache;
+  /**
+   * Decides which entry leaves the cache when it is full. The cache reports every entry added,
+   * read and removed. These calls are made on every cache hit, from threads working on different
+   * channels, so they must run in constant time and must not make those threads wait on one
+   * another. Victims are only asked for by the one thread evicting.
+   */
+  protected abstract class EvictionPolicy {
+    /**
+     * Get the name the policy's evictions are counted under.
+     * 
+     * @return policy name
+     */
+    public abstract String getName();
+
+    public abstract void added(CacheEntry ce);
+
+    public abstract void accessed(CacheEntry ce);
+
+    public abstract void removed(CacheEntry ce);
+
+    /**
+     * Choose the next entry to evict and forget it.
+     * 
+     * @return entry to evict, or null if none
+     */
+    public abstract CacheEntry nextVictim();
+
+    /**
+     * Get all entries in the order they would be evicted.
+     * 
+     * @return a copy of the entries
+     */
+    public abstract List<CacheEntry> getEntries();
+
+    /**
+     * Get the span of data kept for each channel. Older entries are dropped as newer ones arrive
+     * regardless of how full the cache is.
+     * 
+     * @return retention in seconds, or 0 to keep everything that fits
+     */
+    public double getRetention() {
+      return 0;
+    }
+  }
 
-    public HalveLargeWavesPurgeAction(final Map<String, List<CachedWave>> c, final int m) {
-      cache = c;
-      maxTime = m;
+  /**
+   * Evict the least recently used entry first. Recency is each entry's own lastAccess stamp, so
+   * a read touches nothing shared. When evicting, the entries are sorted by their stamps once and
+   * taken from that order until it runs out; an entry read since the sort is passed over and
+   * finds its new place in the next one.
+   */
+  protected class LruEvictionPolicy extends EvictionPolicy {
+    private final Set<CacheEntry> entries;
+
+    /** entries in eviction order as of the last sort; used only by the evicting thread. */
+    private final Deque<Candidate> candidates;
+
+    public LruEvictionPolicy() {
+      entries = Collections.newSetFromMap(new ConcurrentHashMap<CacheEntry, Boolean>());
+      candidates = new ArrayDeque<Candidate>();
     }
 
     @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
-
-      long chunk = 0;
-
-      for (final CacheEntry ce : items) {
-        final CachedWave cw = (CachedWave) ce;
-        if (cw.wave.getEndTime() - cw.wave.getStartTime() > maxTime) {
-          final long before = cw.getMemorySize();
-          final double nst =
-              cw.wave.getEndTime() - (cw.wave.getEndTime() - cw.wave.getStartTime()) / 2;
-          cw.wave = cw.wave.subset(nst, cw.wave.getEndTime());
-          cw.t1 = cw.wave.getStartTime();
-          cw.t2 = cw.wave.getEndTime();
-          chunk += cw.getMemorySize() - before;
-        }
-      }
-      return chunk;
+    public String getName() {
+      return "lru";
+    }
+
+    @Override
+    public void added(final CacheEntry ce) {
+      entries.add(ce);
     }
-  }
 
-  private class TimeLimitWavePurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedWave>> cache;
+    @Override
+    public void accessed(final CacheEntry ce) {
+      // the entry's lastAccess stamp is all that's needed
+    }
 
-    public TimeLimitWavePurgeAction(final Map<String, List<CachedWave>> c, final long i) {
-      cache = c;
-      interval = i;
+    @Override
+    public void removed(final CacheEntry ce) {
+      entries.remove(ce);
     }
 
     @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+    public synchronized CacheEntry nextVictim() {
+      while (true) {
+        if (candidates.isEmpty()) {
+          candidates.addAll(sort());
+          if (candidates.isEmpty())
+            return null;
+        }
 
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+        final Candidate c = candidates.removeFirst();
+        if (c.entry.lastAccess == c.lastAccess && entries.remove(c.entry))
+          return c.entry;
+      }
+    }
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
+    @Override
+    public List<CacheEntry> getEntries() {
+      final List<CacheEntry> result = new ArrayList<CacheEntry>();
+      for (final Candidate c : sort())
+        result.add(c.entry);
+      return result;
+    }
+
+    /**
+     * Get the entries ordered by their stamps as they are now, oldest first.
+     */
+    private List<Candidate> sort() {
+      final List<Candidate> sorted = new ArrayList<Candidate>(entries.size());
+      for (final CacheEntry ce : entries)
+        sorted.add(new Candidate(ce));
+      Collections.sort(sorted, new Comparator<Candidate>() {
+        public int compare(final Candidate a, final Candidate b) {
+          return Long.compare(a.lastAccess, b.lastAccess);
         }
+      });
+      return sorted;
+    }
+
+    /**
+     * An entry and its stamp when the candidates were sorted. The stamp is copied since reads
+     * may change the entry's while it is being sorted.
+     */
+    private class Candidate {
+      private final CacheEntry entry;
+      private final long lastAccess;
+
+      private Candidate(final CacheEntry entry) {
+        this.entry = entry;
+        lastAccess = entry.lastAccess;
       }
-      return chunk;
     }
   }
 
-  private class TimeLimitHelicorderPurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedHelicorder>> cache;
+  /**
+   * Keep only the newest few hours of each channel, evicting the least recently used entry first
+   * if that is still too much. Meant for unattended displays which only show recent data.
+   */
+  protected class NewestEvictionPolicy extends LruEvictionPolicy {
+    private final double retention;
+
+    /**
+     * Constructor.
+     * 
+     * @param hours span of data to keep for each channel
+     */
+    public NewestEvictionPolicy(final double hours) {
+      retention = hours * 60 * 60;
+    }
 
-    public TimeLimitHelicorderPurgeAction(final Map<String, List<CachedHelicorder>> c,
-        final long i) {
-      cache = c;
-      interval = i;
+    @Override
+    public String getName() {
+      return "newest";
     }
 
     @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+    public double getRetention() {
+      return retention;
+    }
+  }
 
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+  /**
+   * Time-ordered index of the cache entries for a single channel. Entries are keyed by start time
+   * and, since overlapping entries are merged on insert, never overlap one another. This lets
+   * lookups and neighbour merges run in O(log n) regardless of how many segments are cached.
+   *
+   * <p>The index is also the lock for its channel. Single calls are atomic; callers which read
+   * and then modify the index, or which read entries that change in place, must synchronize on
+   * it. The index keeps the global size counter up to date as entries are added and removed.
+   *
+   * @param <T> cache entry type
+   */
+  protected class CacheIndex<T extends CacheEntry> {
+    private final TreeMap<Double, T> entries;
+    private long memorySize;
+    private boolean retired;
+
+    public CacheIndex() {
+      entries = new TreeMap<Double, T>();
+    }
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
-        }
+    public synchronized void add(final T entry) {
+      final EvictionPolicy policy = evictionPolicy;
+      final T replaced = entries.put(entry.t1, entry);
+      if (replaced != null && replaced != entry) {
+        account(-replaced.accountedSize);
+        policy.removed(replaced);
       }
-      return chunk;
+
+      entry.accountedSize = entry.getMemorySize();
+      account(entry.accountedSize);
+      policy.added(entry);
+
+      final double retention = policy.getRetention();
+      if (retention > 0)
+        trim(entries.lastEntry().getValue().t2 - retention);
     }
-  }
 
-  private class TimeLimitRsamPurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedRsam>> cache;
+    /**
+     * Drop entries which end before a given time.
+     */
+    private void trim(final double cutoff) {
+      Map.Entry<Double, T> first = entries.firstEntry();
+      while (first != null && first.getValue().t2 < cutoff) {
+        DataSourceMetrics.getInstance().evicted(evictionPolicy.getName() + " retention",
+            first.getValue().accountedSize);
+        remove(first.getValue());
+        uncover(first.getValue());
+        evicted(first.getValue());
+        first = entries.firstEntry();
+      }
+    }
 
-    public TimeLimitRsamPurgeAction(final Map<String, List<CachedRsam>> c, final long i) {
-      cache = c;
-      interval = i;
+    /**
+     * Recount the size of an entry which has changed in place.
+     * 
+     * @param entry entry in this index
+     */
+    public synchronized void resize(final T entry) {
+      final int size = entry.getMemorySize();
+      account(size - entry.accountedSize);
+      entry.accountedSize = size;
     }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+    private void account(final long delta) {
+      memorySize += delta;
+      cacheSize.addAndGet(delta);
+    }
 
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+    /**
+     * Remove an entry from the index.
+     * 
+     * @param entry entry to remove
+     * @return true if the entry was in the index
+     */
+    public synchronized boolean remove(final CacheEntry entry) {
+      if (entries.get(entry.t1) != entry)
+        return false;
+
+      entries.remove(entry.t1);
+      account(-entry.accountedSize);
+      evictionPolicy.removed(entry);
+      return true;
+    }
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
-        }
+    /**
+     * Empty an index which has been taken out of its cache. Writers holding a reference to a
+     * retired index must look it up again.
+     */
+    public synchronized void retire() {
+      for (final T entry : entries.values())
+        evictionPolicy.removed(entry);
+      entries.clear();
+      account(-memorySize);
+      retired = true;
+    }
+
+    public synchronized boolean isRetired() {
+      return retired;
+    }
+
+    /**
+     * Find the entry which completely covers a time span.
+     * 
+     * @param t1 start time in j2k
+     * @param t2 end time in j2k
+     * @return covering entry or null if none
+     */
+    public synchronized T getContaining(final double t1, final double t2) {
+      final Map.Entry<Double, T> floor = entries.floorEntry(t1);
+      if (floor == null)
+        return null;
+
+      final T entry = floor.getValue();
+      if (t2 <= entry.t2)
+        return entry;
+      else
+        return null;
+    }
+
+    /**
+     * Find all entries touching a time span, in time order.
+     * 
+     * @param t1 start time in j2k
+     * @param t2 end time in j2k
+     * @return list of entries, never null
+     */
+    public synchronized List<T> getOverlapping(final double t1, final double t2) {
+      final List<T> result = new ArrayList<T>();
+      Double from = entries.floorKey(t1);
+      if (from == null)
+        from = t1;
+
+      for (final T entry : entries.tailMap(from, true).values()) {
+        if (entry.t1 > t2)
+          break;
+        if (entry.t2 >= t1)
+          result.add(entry);
       }
-      return chunk;
+      return result;
     }
-  }
 
-  abstract protected class CachePurgeAction {
-    public CachePurgeAction() {}
+    /**
+     * Get the entries in time order.
+     * 
+     * @return a copy of the entries
+     */
+    public synchronized List<T> values() {
+      return new ArrayList<T>(entries.values());
+    }
+
+    public synchronized int size() {
+      return entries.size();
+    }
+
+    public synchronized boolean isEmpty() {
+      return entries.isEmpty();
+    }
 
-    abstract public long purge();
+    /**
+     * Get the number of bytes held by entries in this index.
+     * 
+     * @return size in bytes
+     */
+    public synchronized long getMemorySize() {
+      return memorySize;
+    }
   }
 
-  abstract private class CacheEntry implements Comparable<CacheEntry> {
+  abstract protected class CacheEntry implements Comparable<CacheEntry> {
     public String station;
     public double t1;
     public double t2;
-    public long lastAccess;
+    public volatile long lastAccess;
+
+    /** size counted when the entry was added to its index. */
+    protected int accountedSize;
 
     public int compareTo(final CacheEntry oce) {
-      return (int) (lastAccess - oce.lastAccess);
+      return Long.compare(lastAccess, oce.lastAccess);
     }
 
     abstract public String getInfoString();
@@ -721,18 +1352,89 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   }
 
   public class CachedWave extends CacheEntry implements Comparable<CacheEntry> {
+    /** the cached wave, null if the wave is compressed. */
     public Wave wave;
 
+    /** the compressed wave, null if the wave is not compressed. */
+    public CompressedWave compressedWave;
+
+    /**
+     * Set the wave held by this entry.
+     * 
+     * @param w wave
+     * @param compress if true, hold a compressed copy of the wave
+     */
+    public void setWave(final Wave w, final boolean compress) {
+      if (compress) {
+        compressedWave = new CompressedWave(w);
+        wave = null;
+      } else {
+        wave = w;
+        compressedWave = null;
+      }
+      t1 = w.getStartTime();
+      t2 = w.getEndTime();
+    }
+
+    /**
+     * Get the entire cached wave, decoding it if needed.
+     * 
+     * @return the wave
+     */
+    public Wave getWave() {
+      if (wave != null)
+        return wave;
+      else
+        return compressedWave.decode();
+    }
+
+    /**
+     * Get a copy of part of the cached wave.
+     * 
+     * @param t1 start time in j2k
+     * @param t2 end time in j2k
+     * @return new wave
+     * @throws ArrayIndexOutOfBoundsException if the span isn't cached
+     */
+    public Wave getWave(final double t1, final double t2) {
+      if (compressedWave != null)
+        return compressedWave.decode(t1, t2);
+
+      // TODO: fix this. It's a sloppy.
+      final int[] newbuf = new int[(int) ((t2 - t1) * wave.getSamplingRate())];
+      final int i = (int) ((t1 - wave.getStartTime()) * wave.getSamplingRate());
+      System.arraycopy(wave.buffer, i, newbuf, 0, newbuf.length);
+      return new Wave(newbuf, t1, wave.getSamplingRate());
+    }
+
+    /**
+     * Get a wave which covers at least the overlap of this entry with a time span. The cached wave
+     * is returned as is when it isn't compressed, otherwise only the blocks needed are decoded.
+     * 
+     * @param t1 start time in j2k
+     * @param t2 end time in j2k
+     * @return wave which may extend beyond the requested span
+     */
+    public Wave getOverlap(final double t1, final double t2) {
+      if (wave != null)
+        return wave;
+      else
+        return compressedWave.decodeBlocks(t1, t2);
+    }
+
     @Override
     public String getInfoString() {
       final long ms = System.currentTimeMillis() - lastAccess;
-      return "[" + ms + "ms] " + (t2 - t1) + "s, " + wave.getMemorySize() + " bytes, " + t1 + " => "
-          + t2;
+      return "[" + ms + "ms] " + (t2 - t1) + "s, " + getMemorySize() + " bytes"
+          + (compressedWave == null ? "" : " (compressed)") + ", " + t1 + " => " + t2;
     }
 
     @Override
     public int getMemorySize() {
-      return wave.getMemorySize();
+      if (wave != null)
+        return wave.getMemorySize();
+      else
+        return compressedWave.getMemorySize();
     }
   }
 
@@ -808,34 +1510,4 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
       return rsamData.getMemorySize();
     }
   }
-
-  private class CompleteWavePurgeAction extends CachePurgeAction {
-    private final Map<String, List<CachedWave>> cache;
-
-    public CompleteWavePurgeAction(final Map<String, List<CachedWave>> c) {
-      cache = c;
-    }
-
-    @Override
-    public long purge() {
-      final long size = getSize(cache);
-      cache.clear();// = new HashMap();
-      return size;
-    }
-  }
-
-  private class CompleteHelicorderPurgeAction extends CachePurgeAction {
-    private final Map<String, List<CachedHelicorder>> cache;
-
-    public CompleteHelicorderPurgeAction(final Map<String, List<CachedHelicorder>> c) {
-      cache = c;
-    }
-
-    @Override
-    public long purge() {
-      final long size = getSize(cache);
-      cache.clear();// = new HashMap();
-      return size;
-    }
-  }
 }
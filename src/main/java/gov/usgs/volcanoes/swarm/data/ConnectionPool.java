@@ -0,0 +1,275 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of connections to one server. At most a set number are open at once and borrowers wait
+ * for one to come back when all are in use. Connections idle longer than the idle timeout are
+ * closed by a shared reaper thread, so a pool no one borrows from doesn't hold its connections
+ * open, and a connection is checked before it is lent out again after sitting idle.
+ *
+ * @param <T> connection type
+ */
+public abstract class ConnectionPool<T> {
+  public static final int DEFAULT_MAX_CONNECTIONS = 8;
+  public static final int DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+  /** connections idle less than this are lent out again without a check, in ms. */
+  private static final long CHECK_AFTER = 5 * 1000;
+
+  /** time between passes of the reaper, in ms. */
+  private static final long REAP_INTERVAL = 10 * 1000;
+
+  /** closes expired connections of all pools. */
+  private static final ScheduledExecutorService REAPER =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+          final Thread t = new Thread(r, "Connection pool reaper");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+  private final LinkedList<Idle<T>> idle;
+  private int open;
+  private boolean closed;
+  private int maxConnections;
+  private long idleTimeout;
+
+  protected ConnectionPool() {
+    idle = new LinkedList<Idle<T>>();
+    maxConnections = DEFAULT_MAX_CONNECTIONS;
+    idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    Reaper.schedule(this);
+  }
+
+  /**
+   * Open a new connection.
+   *
+   * @return the connection, or null if it can't be opened
+   */
+  protected abstract T create();
+
+  /**
+   * Check a connection which has been idle is still usable.
+   *
+   * @param connection the connection
+   * @return true if it may be lent out
+   */
+  protected abstract boolean isHealthy(T connection);
+
+  /**
+   * Close a connection.
+   *
+   * @param connection the connection
+   */
+  protected abstract void destroy(T connection);
+
+  /**
+   * Set the pool's limits. Lowering the maximum takes effect as connections come back.
+   *
+   * @param maxConnections connections open at once
+   * @param idleTimeout time after which an idle connection is closed, in ms
+   */
+  public synchronized void setLimits(final int maxConnections, final long idleTimeout) {
+    this.maxConnections = Math.max(1, maxConnections);
+    this.idleTimeout = Math.max(0, idleTimeout);
+    notifyAll();
+  }
+
+  /**
+   * Borrow a connection, waiting for one if all are in use. It must be given back with
+   * {@link #release(Object, boolean)}.
+   *
+   * @return the connection, or null if one couldn't be opened or the wait was interrupted
+   */
+  public T borrow() {
+    final List<T> expired = new ArrayList<T>();
+    Idle<T> found = null;
+    synchronized (this) {
+      removeExpired(expired);
+      while (idle.isEmpty() && open >= maxConnections) {
+        try {
+          wait();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        removeExpired(expired);
+      }
+      if (!idle.isEmpty())
+        found = idle.removeFirst();
+      else if (open < maxConnections)
+        open++;
+      else
+        return null;
+    }
+
+    for (final T connection : expired)
+      destroy(connection);
+
+    if (found != null) {
+      if (System.currentTimeMillis() - found.since < CHECK_AFTER || isHealthy(found.connection))
+        return found.connection;
+
+      destroy(found.connection);
+    }
+
+    T connection = null;
+    try {
+      connection = create();
+    } finally {
+      if (connection == null)
+        closed();
+    }
+    return connection;
+  }
+
+  /**
+   * Give back a borrowed connection.
+   *
+   * @param connection the connection
+   * @param healthy false if it failed and should be closed rather than lent out again
+   */
+  public void release(final T connection, final boolean healthy) {
+    if (connection == null)
+      return;
+
+    synchronized (this) {
+      if (healthy && !closed && open <= maxConnections) {
+        // most recently used first, so the rest go idle and are closed
+        idle.addFirst(new Idle<T>(connection));
+        notifyAll();
+        return;
+      }
+    }
+    destroy(connection);
+    closed();
+  }
+
+  /**
+   * Close all idle connections. Borrowed connections are closed as they come back only if the
+   * pool is over its limit, so the pool remains usable.
+   */
+  public void closeIdle() {
+    final List<T> closing = new ArrayList<T>();
+    synchronized (this) {
+      for (final Idle<T> i : idle)
+        closing.add(i.connection);
+      open -= idle.size();
+      idle.clear();
+      notifyAll();
+    }
+    for (final T connection : closing)
+      destroy(connection);
+  }
+
+  /**
+   * Close the pool once no one will borrow from it again. Idle connections are closed now and
+   * borrowed ones as they come back.
+   */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    closeIdle();
+  }
+
+  /**
+   * Close the connections idle longer than the idle timeout. The reaper calls this periodically.
+   */
+  public void closeExpired() {
+    final List<T> expired = new ArrayList<T>();
+    synchronized (this) {
+      removeExpired(expired);
+      if (!expired.isEmpty())
+        notifyAll();
+    }
+    for (final T connection : expired)
+      destroy(connection);
+  }
+
+  /**
+   * Get the number of connections open, borrowed or idle.
+   *
+   * @return open connections
+   */
+  public synchronized int getOpen() {
+    return open;
+  }
+
+  private synchronized void closed() {
+    open--;
+    notifyAll();
+  }
+
+  /**
+   * Move connections idle too long to a list for closing. Caller must hold the lock.
+   */
+  private void removeExpired(final List<T> expired) {
+    final long oldest = System.currentTimeMillis() - idleTimeout;
+    final Iterator<Idle<T>> it = idle.iterator();
+    while (it.hasNext()) {
+      final Idle<T> i = it.next();
+      if (i.since < oldest) {
+        expired.add(i.connection);
+        it.remove();
+        open--;
+      }
+    }
+  }
+
+  /**
+   * Periodically closes a pool's expired connections, until the pool is no longer used.
+   */
+  private static class Reaper implements Runnable {
+    private final WeakReference<ConnectionPool<?>> pool;
+    private volatile ScheduledFuture<?> future;
+
+    private Reaper(final ConnectionPool<?> pool) {
+      this.pool = new WeakReference<ConnectionPool<?>>(pool);
+    }
+
+    private static void schedule(final ConnectionPool<?> pool) {
+      final Reaper reaper = new Reaper(pool);
+      reaper.future = REAPER.scheduleWithFixedDelay(reaper, REAP_INTERVAL, REAP_INTERVAL,
+          TimeUnit.MILLISECONDS);
+    }
+
+    public void run() {
+      final ConnectionPool<?> p = pool.get();
+      if (p != null)
+        p.closeExpired();
+      else if (future != null)
+        future.cancel(false);
+    }
+  }
+
+  /**
+   * An idle connection.
+   */
+  private static class Idle<T> {
+    private final T connection;
+    private final long since;
+
+    private Idle(final T connection) {
+      this.connection = connection;
+      since = System.currentTimeMillis();
+    }
+  }
+}
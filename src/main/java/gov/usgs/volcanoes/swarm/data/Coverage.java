@@ -0,0 +1,171 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The spans of time held for a single channel, kept as a union of disjoint intervals. Spans a
+ * source has been asked for and had nothing to give are kept separately as known empty, so they
+ * are not asked for again.
+ *
+ * <p>Intervals closer together than the tolerance are merged, and gaps shorter than it are not
+ * reported missing, so data with one sample per second does not leave slivers between requests.
+ */
+public class Coverage {
+
+  private final double tolerance;
+
+  /** covered intervals, start to end. */
+  private final TreeMap<Double, Double> covered;
+
+  /** known empty intervals, start to end. */
+  private final TreeMap<Double, Double> empty;
+
+  /**
+   * Constructor.
+   *
+   * @param tolerance shortest gap worth filling, in seconds
+   */
+  public Coverage(final double tolerance) {
+    this.tolerance = tolerance;
+    covered = new TreeMap<Double, Double>();
+    empty = new TreeMap<Double, Double>();
+  }
+
+  /**
+   * Record a span as held. It is no longer known empty.
+   *
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   */
+  public synchronized void add(final double t1, final double t2) {
+    add(covered, t1, t2);
+    subtract(empty, t1, t2);
+  }
+
+  /**
+   * Record a span as no longer held.
+   *
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   */
+  public synchronized void remove(final double t1, final double t2) {
+    subtract(covered, t1, t2);
+  }
+
+  /**
+   * Record a span which has no data.
+   *
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   */
+  public synchronized void addEmpty(final double t1, final double t2) {
+    add(empty, t1, t2);
+  }
+
+  /**
+   * Determine if any part of a span is held.
+   *
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return true if some of the span is held
+   */
+  public synchronized boolean overlaps(final double t1, final double t2) {
+    final Map.Entry<Double, Double> before = covered.lowerEntry(t2);
+    return before != null && before.getValue() > t1;
+  }
+
+  /**
+   * Get the parts of a span which are neither held nor known empty.
+   *
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return missing intervals as {start, end} pairs in time order, possibly empty
+   */
+  public synchronized List<double[]> getMissing(final double t1, final double t2) {
+    final List<double[]> missing = new ArrayList<double[]>();
+    double start = t1;
+    while (start < t2) {
+      final double next = skip(start);
+      if (next > start) {
+        start = next;
+        continue;
+      }
+
+      // start is in a gap, find where the gap ends
+      double end = t2;
+      final Double c = covered.higherKey(start);
+      if (c != null && c < end)
+        end = c;
+      final Double e = empty.higherKey(start);
+      if (e != null && e < end)
+        end = e;
+
+      if (end - start >= tolerance)
+        missing.add(new double[] {start, end});
+      start = end;
+    }
+    return missing;
+  }
+
+  public synchronized boolean isEmpty() {
+    return covered.isEmpty();
+  }
+
+  /**
+   * Get the end of the covered or empty interval containing a time, or the time itself.
+   */
+  private double skip(final double t) {
+    double end = t;
+    Map.Entry<Double, Double> entry = covered.floorEntry(t);
+    if (entry != null && entry.getValue() > end)
+      end = entry.getValue();
+    entry = empty.floorEntry(t);
+    if (entry != null && entry.getValue() > end)
+      end = entry.getValue();
+    return end;
+  }
+
+  private void add(final TreeMap<Double, Double> intervals, double t1, double t2) {
+    final Map.Entry<Double, Double> before = intervals.floorEntry(t1);
+    if (before != null && before.getValue() >= t1 - tolerance) {
+      t1 = before.getKey();
+      t2 = Math.max(t2, before.getValue());
+      intervals.remove(before.getKey());
+    }
+
+    Map.Entry<Double, Double> after = intervals.ceilingEntry(t1);
+    while (after != null && after.getKey() <= t2 + tolerance) {
+      t2 = Math.max(t2, after.getValue());
+      intervals.remove(after.getKey());
+      after = intervals.ceilingEntry(t1);
+    }
+    intervals.put(t1, t2);
+  }
+
+  private static void subtract(final TreeMap<Double, Double> intervals, final double t1,
+      final double t2) {
+    final Map.Entry<Double, Double> before = intervals.lowerEntry(t1);
+    if (before != null && before.getValue() > t1) {
+      intervals.put(before.getKey(), t1);
+      if (before.getValue() > t2)
+        intervals.put(t2, before.getValue());
+    }
+
+    Map.Entry<Double, Double> inside = intervals.ceilingEntry(t1);
+    while (inside != null && inside.getKey() < t2) {
+      intervals.remove(inside.getKey());
+      if (inside.getValue() > t2)
+        intervals.put(t2, inside.getValue());
+      inside = intervals.ceilingEntry(t1);
+    }
+  }
+}
@@ -0,0 +1,279 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters for the cache and the data sources behind it, so slowness can be put down to the
+ * cache, the network or drawing. Recording is a handful of atomic increments and safe from any
+ * thread.
+ *
+ * <p>The single instance is published over JMX and read by the diagnostics dialog.
+ */
+public class DataSourceMetrics implements DataSourceMetricsMXBean {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DataSourceMetrics.class);
+
+  /** name the metrics are published under. */
+  public static final String OBJECT_NAME = "gov.usgs.volcanoes.swarm:type=DataSourceMetrics";
+
+  /** upper bounds of the latency histogram buckets in milliseconds. The last bucket is open. */
+  private static final long[] BUCKETS =
+      {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+  private static final double NANOS_PER_MILLI = 1E6;
+
+  private static final DataSourceMetrics INSTANCE = new DataSourceMetrics();
+
+  /**
+   * Kinds of data requested.
+   */
+  public enum DataType {
+    WAVE, HELICORDER, RSAM;
+
+    public String getName() {
+      return name().toLowerCase();
+    }
+  }
+
+  private final AtomicLongArray hits;
+  private final AtomicLongArray misses;
+  private final ConcurrentMap<String, AtomicLong> evictions;
+  private final ConcurrentMap<String, AtomicLong> evictedBytes;
+  private final ConcurrentMap<String, Histogram> latencies;
+
+  private DataSourceMetrics() {
+    hits = new AtomicLongArray(DataType.values().length);
+    misses = new AtomicLongArray(DataType.values().length);
+    evictions = new ConcurrentHashMap<String, AtomicLong>();
+    evictedBytes = new ConcurrentHashMap<String, AtomicLong>();
+    latencies = new ConcurrentHashMap<String, Histogram>();
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    } catch (final JMException e) {
+      LOGGER.warn("Cannot publish data source metrics: {}", e.getMessage());
+    }
+  }
+
+  public static DataSourceMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Count a request answered by the cache.
+   *
+   * @param type data type
+   */
+  public void hit(final DataType type) {
+    hits.incrementAndGet(type.ordinal());
+  }
+
+  /**
+   * Count a request the cache could not answer in full.
+   *
+   * @param type data type
+   */
+  public void miss(final DataType type) {
+    misses.incrementAndGet(type.ordinal());
+  }
+
+  /**
+   * Count an entry leaving the cache.
+   *
+   * @param policy name of the policy which chose the entry
+   * @param bytes size of the entry
+   */
+  public void evicted(final String policy, final long bytes) {
+    getCounter(evictions, policy).incrementAndGet();
+    getCounter(evictedBytes, policy).addAndGet(bytes);
+  }
+
+  /**
+   * Record the time taken by a request to a source.
+   *
+   * @param source source asked
+   * @param type data type
+   * @param start value of System.nanoTime() when the request was made
+   */
+  public void requestTimed(final SeismicDataSource source, final DataType type,
+      final long start) {
+    final long nanos = System.nanoTime() - start;
+    final String key = source.getClass().getSimpleName() + " " + type.getName();
+    Histogram histogram = latencies.get(key);
+    if (histogram == null) {
+      final Histogram newHistogram = new Histogram();
+      histogram = latencies.putIfAbsent(key, newHistogram);
+      if (histogram == null)
+        histogram = newHistogram;
+    }
+    histogram.record(nanos);
+  }
+
+  private static AtomicLong getCounter(final ConcurrentMap<String, AtomicLong> counters,
+      final String key) {
+    AtomicLong counter = counters.get(key);
+    if (counter == null) {
+      final AtomicLong newCounter = new AtomicLong();
+      counter = counters.putIfAbsent(key, newCounter);
+      if (counter == null)
+        counter = newCounter;
+    }
+    return counter;
+  }
+
+  @Override
+  public Map<String, Long> getHits() {
+    return toMap(hits);
+  }
+
+  @Override
+  public Map<String, Long> getMisses() {
+    return toMap(misses);
+  }
+
+  @Override
+  public Map<String, Long> getResidentBytes() {
+    return CachedDataSource.getInstance().getChannelSizes();
+  }
+
+  @Override
+  public long getCacheSize() {
+    return CachedDataSource.getInstance().getSize();
+  }
+
+  @Override
+  public long getCacheMaxSize() {
+    return CachedDataSource.getInstance().getMaxSize();
+  }
+
+  @Override
+  public Map<String, Long> getEvictions() {
+    return toMap(evictions);
+  }
+
+  @Override
+  public Map<String, Long> getEvictedBytes() {
+    return toMap(evictedBytes);
+  }
+
+  @Override
+  public Map<String, Long> getRequests() {
+    final Map<String, Long> result = new TreeMap<String, Long>();
+    for (final Map.Entry<String, Histogram> entry : latencies.entrySet())
+      result.put(entry.getKey(), entry.getValue().count.get());
+    return result;
+  }
+
+  @Override
+  public Map<String, Double> getMeanLatency() {
+    final Map<String, Double> result = new TreeMap<String, Double>();
+    for (final Map.Entry<String, Histogram> entry : latencies.entrySet())
+      result.put(entry.getKey(), entry.getValue().getMean());
+    return result;
+  }
+
+  @Override
+  public Map<String, Double> getLatency95() {
+    final Map<String, Double> result = new TreeMap<String, Double>();
+    for (final Map.Entry<String, Histogram> entry : latencies.entrySet())
+      result.put(entry.getKey(), entry.getValue().getPercentile(0.95));
+    return result;
+  }
+
+  @Override
+  public Map<String, Double> getMaxLatency() {
+    final Map<String, Double> result = new TreeMap<String, Double>();
+    for (final Map.Entry<String, Histogram> entry : latencies.entrySet())
+      result.put(entry.getKey(), entry.getValue().max.get() / NANOS_PER_MILLI);
+    return result;
+  }
+
+  @Override
+  public void reset() {
+    for (int i = 0; i < hits.length(); i++) {
+      hits.set(i, 0);
+      misses.set(i, 0);
+    }
+    evictions.clear();
+    evictedBytes.clear();
+    latencies.clear();
+  }
+
+  private static Map<String, Long> toMap(final AtomicLongArray counts) {
+    final Map<String, Long> result = new TreeMap<String, Long>();
+    for (final DataType type : DataType.values())
+      result.put(type.getName(), counts.get(type.ordinal()));
+    return result;
+  }
+
+  private static Map<String, Long> toMap(final ConcurrentMap<String, AtomicLong> counters) {
+    final Map<String, Long> result = new TreeMap<String, Long>();
+    for (final Map.Entry<String, AtomicLong> entry : counters.entrySet())
+      result.put(entry.getKey(), entry.getValue().get());
+    return result;
+  }
+
+  /**
+   * Latency histogram with fixed buckets, plus the count, total and maximum.
+   */
+  private static class Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    private void record(final long nanos) {
+      int bucket = 0;
+      while (bucket < BUCKETS.length && nanos > BUCKETS[bucket] * NANOS_PER_MILLI)
+        bucket++;
+      buckets.incrementAndGet(bucket);
+      count.incrementAndGet();
+      total.addAndGet(nanos);
+
+      long m = max.get();
+      while (nanos > m && !max.compareAndSet(m, nanos))
+        m = max.get();
+    }
+
+    private double getMean() {
+      final long n = count.get();
+      return n == 0 ? 0 : total.get() / NANOS_PER_MILLI / n;
+    }
+
+    /**
+     * Get the upper bound of the bucket holding a percentile, or the maximum if that is in the
+     * open bucket.
+     */
+    private double getPercentile(final double p) {
+      final long n = count.get();
+      if (n == 0)
+        return 0;
+
+      final long target = (long) Math.ceil(n * p);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS.length; i++) {
+        seen += buckets.get(i);
+        if (seen >= target)
+          return BUCKETS[i];
+      }
+      return max.get() / NANOS_PER_MILLI;
+    }
+  }
+}
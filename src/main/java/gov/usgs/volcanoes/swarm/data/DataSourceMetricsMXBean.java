@@ -0,0 +1,88 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link DataSourceMetrics}, published as
+ * <code>gov.usgs.volcanoes.swarm:type=DataSourceMetrics</code>.
+ */
+public interface DataSourceMetricsMXBean {
+
+  /**
+   * Get cache hits by data type.
+   *
+   * @return hits keyed by wave, helicorder and rsam
+   */
+  Map<String, Long> getHits();
+
+  /**
+   * Get cache misses by data type.
+   *
+   * @return misses keyed by wave, helicorder and rsam
+   */
+  Map<String, Long> getMisses();
+
+  /**
+   * Get the bytes held in memory for each channel.
+   *
+   * @return bytes keyed by channel
+   */
+  Map<String, Long> getResidentBytes();
+
+  long getCacheSize();
+
+  long getCacheMaxSize();
+
+  /**
+   * Get the number of entries evicted by each eviction policy.
+   *
+   * @return evictions keyed by policy
+   */
+  Map<String, Long> getEvictions();
+
+  /**
+   * Get the bytes evicted by each eviction policy.
+   *
+   * @return bytes keyed by policy
+   */
+  Map<String, Long> getEvictedBytes();
+
+  /**
+   * Get the number of requests each source type has sent upstream after missing the cache.
+   *
+   * @return requests keyed by source type and data type
+   */
+  Map<String, Long> getRequests();
+
+  /**
+   * Get the mean request latency of each source type.
+   *
+   * @return milliseconds keyed by source type and data type
+   */
+  Map<String, Double> getMeanLatency();
+
+  /**
+   * Get the 95th percentile request latency of each source type, to the nearest histogram bucket.
+   *
+   * @return milliseconds keyed by source type and data type
+   */
+  Map<String, Double> getLatency95();
+
+  /**
+   * Get the longest request latency of each source type.
+   *
+   * @return milliseconds keyed by source type and data type
+   */
+  Map<String, Double> getMaxLatency();
+
+  /**
+   * Start counting again from zero.
+   */
+  void reset();
+}
@@ -14,7 +14,8 @@ public enum DataSourceType {
   WINSTON_DIRECT("wwsd", DirectWWSSource.class), 
   CACHE("cache", CachedDataSource.class), 
   FDSN_WS("wsc", WebServicesSource.class), 
-  SEED_LINK("sls", SeedLinkSource.class);
+  SEED_LINK("sls", SeedLinkSource.class),
+  SDS("sds", SdsSource.class);
 
   public String shortName;
   public Class<? extends SeismicDataSource> seismicDataSource;
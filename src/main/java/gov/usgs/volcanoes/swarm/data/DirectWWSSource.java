@@ -1,11 +1,14 @@
 package gov.usgs.volcanoes.swarm.data;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import gov.usgs.plot.data.HelicorderData;
 import gov.usgs.plot.data.Wave;
 import gov.usgs.volcanoes.core.util.UtilException;
+import gov.usgs.volcanoes.swarm.data.DataSourceMetrics.DataType;
 import gov.usgs.volcanoes.winston.Channel;
 import gov.usgs.volcanoes.winston.db.Channels;
 import gov.usgs.volcanoes.winston.db.Data;
@@ -15,6 +18,12 @@ import gov.usgs.volcanoes.winston.db.WinstonDatabase;
  * An implementation of <code>SeismicDataSource</code> that communicates
  * directly with a Winston database.  Essentially identical to 
  * DirectWinstonSource.
+ * 
+ * Queries run on connections borrowed from a pool shared by all sources using
+ * the same database, so channels are read in parallel rather than one query at
+ * a time. Each connection keeps its own <code>WinstonDatabase</code>, and with
+ * it the statements it has prepared. The pool is closed when the last source
+ * using it is closed; a closed source takes up a pool again if it is used.
  *
  *
  * @author Dan Cervelli
@@ -25,71 +34,260 @@ public class DirectWWSSource extends SeismicDataSource
 	private String dbURL;
 	private String dbPrefix;
 	
-	private WinstonDatabase winston;
-	private Data data;
-	private Channels stations;
+	/** connection pools by database, shared by all sources using a database. */
+	private static final Map<String, SharedPool> pools = new HashMap<String, SharedPool>();
+	private static int maxConnections = ConnectionPool.DEFAULT_MAX_CONNECTIONS;
+	private static long idleTimeout = ConnectionPool.DEFAULT_IDLE_TIMEOUT;
+	
+	/** pool in use by this source, null until it is first used or after it is closed. */
+	private ConnectionPool<Connection> pool;
 	
 	// explicit default constructor required for reflection
 	public DirectWWSSource() {}
 
 	public void parse (String params) {
+		close();
 		String[] ss = params.split("\\|");
 		dbDriver = ss[0];
 		dbURL = ss[1];
 		dbPrefix = ss[2];
-
-		winston = new WinstonDatabase(dbDriver, dbURL, dbPrefix);
-		stations = new Channels(winston);
-		data = new Data(winston);
 	}
 	
+	/**
+	 * Set the limits of the connection pools to all Winston databases.
+	 * 
+	 * @param max queries run at once on one database
+	 * @param idle time after which an idle connection is closed, in ms
+	 */
+	public static synchronized void setPoolLimits(int max, long idle)
+	{
+		maxConnections = max;
+		idleTimeout = idle;
+		for (SharedPool p : pools.values())
+			p.pool.setLimits(max, idle);
+	}
+	
+	/**
+	 * Use a pool for a database rather than one opening real connections, so
+	 * sources can be tried without a database. It is used by the sources
+	 * taking up a pool for the database from now on.
+	 * 
+	 * @param params source parameters naming the database
+	 * @param pool the pool
+	 */
+	static synchronized void putPool(String params, ConnectionPool<Connection> pool)
+	{
+		pool.setLimits(maxConnections, idleTimeout);
+		SharedPool old = pools.put(params, new SharedPool(pool));
+		if (old != null)
+			old.pool.close();
+	}
+	
+	private static String getPoolKey(String driver, String url, String prefix)
+	{
+		return driver + "|" + url + "|" + prefix;
+	}
+	
+	/**
+	 * Take up the pool for a database, creating it if no source is using it.
+	 */
+	private static synchronized ConnectionPool<Connection> acquirePool(String driver, String url, String prefix)
+	{
+		String key = getPoolKey(driver, url, prefix);
+		SharedPool p = pools.get(key);
+		if (p == null)
+		{
+			ConnectionPool<Connection> pool = new Pool(driver, url, prefix);
+			pool.setLimits(maxConnections, idleTimeout);
+			p = new SharedPool(pool);
+			pools.put(key, p);
+		}
+		p.sources++;
+		return p.pool;
+	}
+	
+	/**
+	 * Give up the pool for a database, closing it if no other source is using it.
+	 */
+	private static void releasePool(String driver, String url, String prefix, ConnectionPool<Connection> pool)
+	{
+		synchronized (DirectWWSSource.class)
+		{
+			String key = getPoolKey(driver, url, prefix);
+			SharedPool p = pools.get(key);
+			if (p != null && p.pool == pool)
+			{
+				if (--p.sources > 0)
+					return;
+				pools.remove(key);
+			}
+		}
+		pool.close();
+	}
+	
+	/**
+	 * Get the pool for this source's database, taking it up if the source
+	 * hasn't yet or was closed.
+	 */
+	private synchronized ConnectionPool<Connection> getPool()
+	{
+		if (pool == null)
+			pool = acquirePool(dbDriver, dbURL, dbPrefix);
+		return pool;
+	}
+	
+	/**
+	 * Give up this source's pool. Connections borrowed by queries still running
+	 * are closed as they come back if it was the last source using the pool.
+	 */
 	public void close()
 	{
-		winston.close();
+		ConnectionPool<Connection> p;
+		synchronized (this)
+		{
+			p = pool;
+			pool = null;
+		}
+		if (p != null)
+			releasePool(dbDriver, dbURL, dbPrefix, p);
 	}
 	
-	public synchronized Wave getWave(String station, double t1, double t2)
+	public Wave getWave(final String station, double t1, double t2)
 	{
-		CachedDataSource cache = CachedDataSource.getInstance();
+		return waveRequests.get(getRequestKey(station), t1, t2, new RequestCoalescer.Request<Wave>()
+		{
+			public Wave getCached(double start, double end)
+			{
+				return CachedDataSource.getInstance().getWave(station, start, end);
+			}
+			
+			public Wave fetch(double start, double end)
+			{
+				return fetchWave(station, start, end);
+			}
+		});
+	}
+	
+	private Wave fetchWave(String station, double t1, double t2)
+	{
+		ConnectionPool<Connection> pool = getPool();
+		Connection c = pool.borrow();
+		if (c == null)
+		{
+			transferFailed();
+			return null;
+		}
 		
-		Wave sw = cache.getWave(station, t1, t2);
-		if (sw == null)
+		Wave sw = null;
+		boolean healthy = false;
+		try
 		{
+			final long start = System.nanoTime();
+			boolean answered = false;
 			try{
-				sw = data.getWave(station, t1, t2, 0);
+				sw = c.getWave(station, t1, t2);
+				transferred(sw);
+				answered = true;
 			} catch (UtilException e){
+				transferFailed();
 			}
-			if (sw != null && !sw.isData())
-				sw = null;
-			if (sw != null && sw.buffer != null && sw.buffer.length > 0)
-				cache.putWave(station, sw);
+			DataSourceMetrics.getInstance().requestTimed(this, DataType.WAVE, start);
+			// a failed query only costs the connection if the database is gone
+			healthy = answered || c.isConnected();
+		}
+		finally
+		{
+			pool.release(c, healthy);
 		}
+		
+		if (sw != null && !sw.isData())
+			sw = null;
+		if (sw != null && sw.buffer != null && sw.buffer.length > 0)
+			CachedDataSource.getInstance().putWave(station, sw);
 		return sw;	
 	}
 	
-	public synchronized List<String> getChannels()
+	public List<String> getChannels()
+	{
+		ConnectionPool<Connection> pool = getPool();
+		Connection c = pool.borrow();
+		if (c == null)
+			return null;
+		
+		boolean healthy = false;
+		try
+		{
+			List<Channel> chs = c.getChannels();
+			List<String> result = new ArrayList<String>();
+			for (Channel ch : chs)
+				result.add(ch.toString());
+			healthy = true;
+			return result;
+		}
+		finally
+		{
+			pool.release(c, healthy);
+		}
+	}
+	
+	public HelicorderData getHelicorder(final String station, double t1, double t2, GulperListener gl)
 	{
-		List<Channel> chs = stations.getChannels();
-		List<String> result = new ArrayList<String>();
-		for (Channel ch : chs)
-			result.add(ch.toString());
-		return result;
+		return helicorderRequests.get(getRequestKey(station), t1, t2, new RequestCoalescer.Request<HelicorderData>()
+		{
+			public HelicorderData getCached(double start, double end)
+			{
+				CachedDataSource cache = CachedDataSource.getInstance();
+				if (!cache.getMissingHelicorder(station, start, end).isEmpty())
+					return null;
+				return cache.getHelicorder(station, start, end, (GulperListener) null);
+			}
+			
+			public HelicorderData fetch(double start, double end)
+			{
+				return fetchHelicorder(station, start, end);
+			}
+		});
 	}
 	
-	public synchronized HelicorderData getHelicorder(String station, double t1, double t2, GulperListener gl)
+	private HelicorderData fetchHelicorder(String station, double t1, double t2)
 	{
 		CachedDataSource cache = CachedDataSource.getInstance();
+		// the missing parts of a partly cached span come back through getHelicorder
 		HelicorderData hd = cache.getHelicorder(station, t1, t2, this);
 		if (hd == null)
 		{
-			try{
-				hd = data.getHelicorderData(station, t1, t2, 0);
-			} catch (UtilException e){
+			ConnectionPool<Connection> pool = getPool();
+			Connection c = pool.borrow();
+			if (c == null)
+				return null;
+			
+			boolean healthy = false;
+			boolean answered = false;
+			try
+			{
+				final long start = System.nanoTime();
+				try{
+					hd = c.getHelicorderData(station, t1, t2);
+					answered = true;
+				} catch (UtilException e){
+				}
+				DataSourceMetrics.getInstance().requestTimed(this, DataType.HELICORDER, start);
+				healthy = c.isConnected();
 			}
+			finally
+			{
+				pool.release(c, healthy);
+			}
+			
 			if (hd != null && hd.rows() != 0)
 				cache.putHelicorder(station, hd);
 			else
+			{
+				// only a query that ran to completion on a live connection means there is no data
+				if (answered && healthy)
+					cache.putEmptyHelicorder(station, t1, t2);
 				hd = null;
+			}
 		}
 		return hd;
 	}
@@ -99,4 +297,103 @@ public class DirectWWSSource extends SeismicDataSource
 		String typeString = DataSourceType.getShortName(this.getClass());
 		return String.format("%s;%s:%s|%s|%s", name, typeString, dbDriver, dbURL, dbPrefix);
 	}
+	
+	/**
+	 * A pooled database connection and the readers using it.
+	 */
+	static class Connection
+	{
+		private final WinstonDatabase winston;
+		private final Data data;
+		private final Channels stations;
+		
+		Connection(String driver, String url, String prefix)
+		{
+			winston = new WinstonDatabase(driver, url, prefix);
+			data = new Data(winston);
+			stations = new Channels(winston);
+		}
+		
+		/**
+		 * Create a connection without a database, for connections answering
+		 * queries themselves.
+		 */
+		Connection()
+		{
+			winston = null;
+			data = null;
+			stations = null;
+		}
+		
+		Wave getWave(String station, double t1, double t2) throws UtilException
+		{
+			return data.getWave(station, t1, t2, 0);
+		}
+		
+		HelicorderData getHelicorderData(String station, double t1, double t2) throws UtilException
+		{
+			return data.getHelicorderData(station, t1, t2, 0);
+		}
+		
+		List<Channel> getChannels()
+		{
+			return stations.getChannels();
+		}
+		
+		boolean isConnected()
+		{
+			return winston.checkConnect();
+		}
+		
+		void close()
+		{
+			winston.close();
+		}
+	}
+	
+	/**
+	 * The pool of connections to one database.
+	 */
+	static class Pool extends ConnectionPool<Connection>
+	{
+		private final String driver;
+		private final String url;
+		private final String prefix;
+		
+		Pool(String driver, String url, String prefix)
+		{
+			this.driver = driver;
+			this.url = url;
+			this.prefix = prefix;
+		}
+		
+		protected Connection create()
+		{
+			return new Connection(driver, url, prefix);
+		}
+		
+		protected boolean isHealthy(Connection c)
+		{
+			return c.isConnected();
+		}
+		
+		protected void destroy(Connection c)
+		{
+			c.close();
+		}
+	}
+	
+	/**
+	 * A pool and the number of sources using it.
+	 */
+	private static class SharedPool
+	{
+		private final ConnectionPool<Connection> pool;
+		private int sources;
+		
+		private SharedPool(ConnectionPool<Connection> pool)
+		{
+			this.pool = pool;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,572 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.plot.data.HelicorderData;
+import gov.usgs.plot.data.Wave;
+
+/**
+ * A second level cache which keeps wave and helicorder blocks on disk between sessions. Blocks are
+ * written to per-channel, per-day directories below the cache directory and read back through
+ * memory mapped file channels. The directory listing is indexed at startup so no block is opened
+ * until it is needed. Once the cache grows past its size limit the least recently used files are
+ * removed.
+ *
+ * <p>Writes are made on a background thread so callers holding the memory cache lock never wait on
+ * the disk.
+ */
+public class DiskCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskCache.class);
+
+  private static final String WAVE_SUFFIX = ".wave";
+  private static final String HELICORDER_SUFFIX = ".heli";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  /** seconds per time partition directory. */
+  private static final int PARTITION_SIZE = 24 * 60 * 60;
+
+  private final File cacheDir;
+  private final long maxSize;
+  private long size;
+
+  private final Map<String, TreeMap<Double, DiskBlock>> waveIndex;
+  private final Map<String, TreeMap<Double, DiskBlock>> helicorderIndex;
+  private double maxWaveSpan;
+  private double maxHelicorderSpan;
+
+  /** all blocks in least recently used order. */
+  private final LinkedHashMap<File, DiskBlock> blocks;
+
+  private final ExecutorService writer;
+
+  /**
+   * Open a disk cache, indexing any blocks left by a previous session.
+   *
+   * @param dir cache directory
+   * @param maxSize maximum size of the cache in bytes
+   */
+  public DiskCache(final File dir, final long maxSize) {
+    cacheDir = dir;
+    this.maxSize = maxSize;
+    waveIndex = new HashMap<String, TreeMap<Double, DiskBlock>>();
+    helicorderIndex = new HashMap<String, TreeMap<Double, DiskBlock>>();
+    blocks = new LinkedHashMap<File, DiskBlock>(16, 0.75f, true);
+    writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, "DiskCache writer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+      LOGGER.warn("Cannot create disk cache directory {}", cacheDir);
+
+    scan();
+    LOGGER.info("Disk cache {} holds {} blocks, {} bytes", cacheDir, blocks.size(), size);
+  }
+
+  /**
+   * Write a wave to the cache. The write happens in the background.
+   *
+   * @param station channel name
+   * @param wave wave to store
+   */
+  public void putWave(final String station, final Wave wave) {
+    if (wave == null || wave.numSamples() == 0)
+      return;
+
+    write(station, WAVE_SUFFIX, wave.getStartTime(), wave.getEndTime(), wave);
+  }
+
+  /**
+   * Write a helicorder to the cache. The write happens in the background.
+   *
+   * @param station channel name
+   * @param helicorder helicorder to store
+   */
+  public void putHelicorder(final String station, final HelicorderData helicorder) {
+    if (helicorder == null || helicorder.rows() == 0)
+      return;
+
+    write(station, HELICORDER_SUFFIX, helicorder.getStartTime(), helicorder.getEndTime(),
+        helicorder);
+  }
+
+  /**
+   * Read the cached waves which overlap a time span and have not already been read this session.
+   *
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return list of waves, never null
+   */
+  public List<Wave> getWaves(final String station, final double t1, final double t2) {
+    final List<Wave> waves = new ArrayList<Wave>();
+    for (final DiskBlock block : takeBlocks(waveIndex, maxWaveSpan, station, t1, t2)) {
+      final ByteBuffer buffer = map(block);
+      if (buffer == null)
+        continue;
+
+      final double startTime = buffer.getDouble();
+      final double samplingRate = buffer.getDouble();
+      final int[] samples = new int[buffer.getInt()];
+      buffer.asIntBuffer().get(samples);
+      final Wave wave = new Wave(samples, startTime, samplingRate);
+      wave.register();
+      waves.add(wave);
+    }
+    return waves;
+  }
+
+  /**
+   * Read the cached helicorders which overlap a time span and have not already been read this
+   * session.
+   *
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return list of helicorders, never null
+   */
+  public List<HelicorderData> getHelicorders(final String station, final double t1,
+      final double t2) {
+    final List<HelicorderData> helis = new ArrayList<HelicorderData>();
+    for (final DiskBlock block : takeBlocks(helicorderIndex, maxHelicorderSpan, station, t1, t2)) {
+      final ByteBuffer buffer = map(block);
+      if (buffer == null)
+        continue;
+
+      final int rows = buffer.getInt();
+      final double[][] values = new double[rows][3];
+      for (int i = 0; i < rows; i++) {
+        values[i][0] = buffer.getDouble();
+        values[i][1] = buffer.getDouble();
+        values[i][2] = buffer.getDouble();
+      }
+      final HelicorderData hd = new HelicorderData();
+      hd.setData(DoubleFactory2D.dense.make(values));
+      helis.add(hd);
+    }
+    return helis;
+  }
+
+  /**
+   * Wait for pending writes to reach the disk.
+   */
+  public void sync() {
+    try {
+      writer.submit(new Runnable() {
+        public void run() {}
+      }).get();
+    } catch (final Exception e) {
+      LOGGER.debug("Interrupted while waiting for disk cache", e);
+    }
+  }
+
+  /**
+   * Wait for pending writes and stop the writer.
+   */
+  public void close() {
+    writer.shutdown();
+    try {
+      writer.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (final InterruptedException e) {
+      LOGGER.debug("Interrupted while closing disk cache", e);
+    }
+  }
+
+  /**
+   * Remove every block from the cache.
+   */
+  public void clear() {
+    sync();
+    synchronized (this) {
+      for (final DiskBlock block : blocks.values())
+        deleteFile(block.file);
+
+      blocks.clear();
+      waveIndex.clear();
+      helicorderIndex.clear();
+      size = 0;
+    }
+  }
+
+  public synchronized long getSize() {
+    return size;
+  }
+
+  private static ByteBuffer encode(final Wave wave) {
+    final int n = wave.numSamples();
+    final ByteBuffer buffer = ByteBuffer.allocate(8 + 8 + 4 + n * 4);
+    buffer.putDouble(wave.getStartTime());
+    buffer.putDouble(wave.getSamplingRate());
+    buffer.putInt(n);
+    buffer.asIntBuffer().put(wave.buffer, 0, n);
+    buffer.position(buffer.capacity());
+    buffer.flip();
+    return buffer;
+  }
+
+  private static ByteBuffer encode(final HelicorderData helicorder) {
+    final DoubleMatrix2D data = helicorder.getData();
+    final int rows = data.rows();
+    final ByteBuffer buffer = ByteBuffer.allocate(4 + rows * 3 * 8);
+    buffer.putInt(rows);
+    for (int i = 0; i < rows; i++) {
+      buffer.putDouble(data.getQuick(i, 0));
+      buffer.putDouble(data.getQuick(i, 1));
+      buffer.putDouble(data.getQuick(i, 2));
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Queue a block to be written. Data are encoded on the writer thread so a large purge doesn't
+   * need a second copy of everything it spills. Blocks arriving once the cache is closed, such as
+   * entries evicted after a persist, are dropped.
+   */
+  private void write(final String station, final String suffix, final double t1,
+      final double t2, final Object data) {
+    final String channel = toDirectoryName(station);
+    try {
+      execute(channel, suffix, t1, t2, data);
+    } catch (final RejectedExecutionException e) {
+      LOGGER.debug("Disk cache closed, dropping block of {}", station);
+    }
+  }
+
+  private void execute(final String channel, final String suffix, final double t1,
+      final double t2, final Object data) {
+    writer.execute(new Runnable() {
+      public void run() {
+        final ByteBuffer buffer;
+        if (data instanceof Wave)
+          buffer = encode((Wave) data);
+        else
+          buffer = encode((HelicorderData) data);
+
+        final File dir =
+            new File(new File(cacheDir, channel), Long.toString(partition(t1)));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+          LOGGER.warn("Cannot create disk cache directory {}", dir);
+          return;
+        }
+
+        final File file = new File(dir, toMillis(t1) + "_" + toMillis(t2) + suffix);
+        final File temp = new File(dir, file.getName() + TEMP_SUFFIX);
+        RandomAccessFile raf = null;
+        try {
+          raf = new RandomAccessFile(temp, "rw");
+          raf.setLength(0);
+          final FileChannel fc = raf.getChannel();
+          while (buffer.hasRemaining())
+            fc.write(buffer);
+          raf.close();
+          raf = null;
+
+          if (file.exists())
+            removeBlock(file);
+          if (!temp.renameTo(file)) {
+            deleteFile(temp);
+            return;
+          }
+
+          addBlock(new DiskBlock(channel, suffix, file, t1, t2, file.length()), true);
+        } catch (final IOException e) {
+          LOGGER.warn("Cannot write disk cache block {}: {}", file, e.getMessage());
+          deleteFile(temp);
+        } finally {
+          if (raf != null) {
+            try {
+              raf.close();
+            } catch (final IOException ignore) {
+              // nothing to do
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Index a block, replacing any blocks it covers, and enforce the size limit.
+   *
+   * @param block new block
+   * @param written true if the block was just written, rather than found at startup
+   */
+  private synchronized void addBlock(final DiskBlock block, final boolean written) {
+    final Map<String, TreeMap<Double, DiskBlock>> index = getIndex(block.suffix);
+    TreeMap<Double, DiskBlock> channelBlocks = index.get(block.channel);
+    if (channelBlocks == null) {
+      channelBlocks = new TreeMap<Double, DiskBlock>();
+      index.put(block.channel, channelBlocks);
+    }
+
+    if (written) {
+      for (final DiskBlock old : overlapping(channelBlocks, getMaxSpan(block.suffix), block.t1,
+          block.t2)) {
+        if (old.t1 >= block.t1 && old.t2 <= block.t2) {
+          // new block holds everything the old one did
+          forget(old);
+          deleteFile(old.file);
+        } else {
+          // the memory cache no longer holds all of this block
+          old.loaded = false;
+        }
+      }
+    }
+
+    final DiskBlock replaced = channelBlocks.put(block.t1, block);
+    if (replaced != null) {
+      blocks.remove(replaced.file);
+      size -= replaced.size;
+      if (!replaced.file.equals(block.file))
+        deleteFile(replaced.file);
+    }
+    blocks.put(block.file, block);
+    size += block.size;
+    if (block.suffix.equals(WAVE_SUFFIX))
+      maxWaveSpan = Math.max(maxWaveSpan, block.t2 - block.t1);
+    else
+      maxHelicorderSpan = Math.max(maxHelicorderSpan, block.t2 - block.t1);
+
+    final Iterator<DiskBlock> lru = blocks.values().iterator();
+    while (size > maxSize && lru.hasNext()) {
+      final DiskBlock old = lru.next();
+      if (old == block)
+        continue;
+
+      lru.remove();
+      removeFromIndex(old);
+      size -= old.size;
+      deleteFile(old.file);
+    }
+  }
+
+  private synchronized void removeBlock(final File file) {
+    final DiskBlock block = blocks.get(file);
+    if (block != null)
+      forget(block);
+  }
+
+  private void forget(final DiskBlock block) {
+    blocks.remove(block.file);
+    removeFromIndex(block);
+    size -= block.size;
+  }
+
+  private void removeFromIndex(final DiskBlock block) {
+    final TreeMap<Double, DiskBlock> channelBlocks = getIndex(block.suffix).get(block.channel);
+    if (channelBlocks != null && channelBlocks.get(block.t1) == block)
+      channelBlocks.remove(block.t1);
+  }
+
+  /**
+   * Find blocks overlapping a time span which have not been handed out yet and mark them as
+   * loaded.
+   */
+  private synchronized List<DiskBlock> takeBlocks(
+      final Map<String, TreeMap<Double, DiskBlock>> index, final double maxSpan,
+      final String station, final double t1, final double t2) {
+    final List<DiskBlock> result = new ArrayList<DiskBlock>();
+    final TreeMap<Double, DiskBlock> channelBlocks = index.get(toDirectoryName(station));
+    if (channelBlocks == null)
+      return result;
+
+    for (final DiskBlock block : overlapping(channelBlocks, maxSpan, t1, t2)) {
+      if (block.loaded)
+        continue;
+
+      block.loaded = true;
+      blocks.get(block.file);
+      result.add(block);
+    }
+    return result;
+  }
+
+  private static List<DiskBlock> overlapping(final TreeMap<Double, DiskBlock> channelBlocks,
+      final double maxSpan, final double t1, final double t2) {
+    final List<DiskBlock> result = new ArrayList<DiskBlock>();
+    for (final DiskBlock block : channelBlocks.subMap(t1 - maxSpan, true, t2, true).values()) {
+      if (block.t2 >= t1)
+        result.add(block);
+    }
+    return result;
+  }
+
+  /**
+   * Map a block into memory.
+   *
+   * @param block block to map
+   * @return buffer positioned at the start of the block, or null if it could not be read
+   */
+  private ByteBuffer map(final DiskBlock block) {
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(block.file, "r");
+      final MappedByteBuffer buffer =
+          raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      block.file.setLastModified(System.currentTimeMillis());
+      return buffer;
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot read disk cache block {}: {}", block.file, e.getMessage());
+      removeBlock(block.file);
+      return null;
+    } finally {
+      if (raf != null) {
+        try {
+          raf.close();
+        } catch (final IOException ignore) {
+          // mapping remains valid
+        }
+      }
+    }
+  }
+
+  /**
+   * Index the blocks found on disk, oldest first so the least recently used order survives
+   * restarts.
+   */
+  private void scan() {
+    final List<DiskBlock> found = new ArrayList<DiskBlock>();
+    final File[] channels = cacheDir.listFiles();
+    if (channels == null)
+      return;
+
+    for (final File channelDir : channels) {
+      final File[] partitions = channelDir.listFiles();
+      if (partitions == null)
+        continue;
+
+      for (final File partition : partitions) {
+        final File[] files = partition.listFiles();
+        if (files == null)
+          continue;
+
+        for (final File file : files) {
+          final DiskBlock block = parseBlock(channelDir.getName(), file);
+          if (block != null)
+            found.add(block);
+          else if (file.getName().endsWith(TEMP_SUFFIX))
+            deleteFile(file);
+        }
+      }
+    }
+
+    final DiskBlock[] sorted = found.toArray(new DiskBlock[found.size()]);
+    Arrays.sort(sorted, new Comparator<DiskBlock>() {
+      public int compare(final DiskBlock b1, final DiskBlock b2) {
+        return Long.valueOf(b1.lastModified).compareTo(b2.lastModified);
+      }
+    });
+    for (final DiskBlock block : sorted)
+      addBlock(block, false);
+  }
+
+  private static DiskBlock parseBlock(final String channel, final File file) {
+    final String name = file.getName();
+    final String suffix;
+    if (name.endsWith(WAVE_SUFFIX))
+      suffix = WAVE_SUFFIX;
+    else if (name.endsWith(HELICORDER_SUFFIX))
+      suffix = HELICORDER_SUFFIX;
+    else
+      return null;
+
+    final String[] times = name.substring(0, name.length() - suffix.length()).split("_");
+    if (times.length != 2)
+      return null;
+
+    try {
+      final double t1 = Long.parseLong(times[0]) / 1000.0;
+      final double t2 = Long.parseLong(times[1]) / 1000.0;
+      final DiskBlock block = new DiskBlock(channel, suffix, file, t1, t2, file.length());
+      block.lastModified = file.lastModified();
+      return block;
+    } catch (final NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private Map<String, TreeMap<Double, DiskBlock>> getIndex(final String suffix) {
+    return suffix.equals(WAVE_SUFFIX) ? waveIndex : helicorderIndex;
+  }
+
+  private double getMaxSpan(final String suffix) {
+    return suffix.equals(WAVE_SUFFIX) ? maxWaveSpan : maxHelicorderSpan;
+  }
+
+  private static String toDirectoryName(final String station) {
+    return station.replace(' ', '$');
+  }
+
+  private static long toMillis(final double j2k) {
+    return Math.round(j2k * 1000);
+  }
+
+  private static long partition(final double j2k) {
+    return (long) Math.floor(j2k / PARTITION_SIZE);
+  }
+
+  private static void deleteFile(final File file) {
+    if (file.exists() && !file.delete())
+      LOGGER.debug("Cannot delete disk cache file {}", file);
+  }
+
+  /**
+   * A single block file.
+   */
+  private static class DiskBlock {
+    private final String channel;
+    private final String suffix;
+    private final File file;
+    private final double t1;
+    private final double t2;
+    private final long size;
+    private long lastModified;
+
+    /** true if the block has been handed to the memory cache. */
+    private boolean loaded;
+
+    private DiskBlock(final String channel, final String suffix, final File file,
+        final double t1, final double t2, final long size) {
+      this.channel = channel;
+      this.suffix = suffix;
+      this.file = file;
+      this.t1 = t1;
+      this.t2 = t2;
+      this.size = size;
+    }
+  }
+}
@@ -14,11 +14,22 @@ import gov.usgs.volcanoes.swarm.map.MapFrame;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
@@ -38,8 +49,37 @@ public class FileDataSource extends AbstractCachingDataSource {
 
   private static final FileDataSource INSTANCE = new FileDataSource();
 
+  /** miniSEED and SAC files at least this large are read in place rather than loaded. */
+  private static final long MAPPED_FILE_SIZE = 64 * 1024 * 1024;
+
+  /** span of the waves helicorders of mapped files are built from, in seconds. */
+  private static final double SUMMARY_SPAN = 5 * 60;
+
+  /** number of files decoded at once. */
+  private static final int MAX_PARALLEL_LOADS =
+      Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  /** number of files decoded ahead of the merge, which bounds the heap they hold. */
+  private static final int MAX_PENDING_LOADS = 2 * MAX_PARALLEL_LOADS;
+
+  /** number of files named in a load error. */
+  private static final int MAX_FAILED_LISTED = 10;
+
+  /** Runs the decode stage of loads and the helicorder summaries of mapped files. */
+  private static final ExecutorService LOADERS =
+      Executors.newFixedThreadPool(MAX_PARALLEL_LOADS, new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+          final Thread t = new Thread(r, "File loader");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
   private final Map<String, double[]> channelTimes;
   private final Set<String> openFiles;
+
+  /** files read in place, by channel. */
+  private final Map<String, List<MappedDataFile>> mappedFiles;
   private static SwarmConfig swarmConfig;
   public static boolean useWinBatch = false;
 
@@ -48,6 +88,7 @@ public class FileDataSource extends AbstractCachingDataSource {
 
     channelTimes = new HashMap<String, double[]>();
     openFiles = new HashSet<String>();
+    mappedFiles = new HashMap<String, List<MappedDataFile>>();
     maxSize = Integer.MAX_VALUE;
     storeInUserConfig = false;
     name = "Files";
@@ -68,6 +109,9 @@ public class FileDataSource extends AbstractCachingDataSource {
     }
     super.flush();
     openFiles.clear();
+    synchronized (mappedFiles) {
+      mappedFiles.clear();
+    }
     channelTimes.clear();
     fireChannelsUpdated();
   }
@@ -89,12 +133,18 @@ public class FileDataSource extends AbstractCachingDataSource {
   public void openFiles(final File[] fs) {
     useWinBatch = false;
     FileTypeDialog dialog = null;
+    final List<Object> files = new ArrayList<Object>();
     for (int i = 0; i < fs.length; i++) {
       final String fileName = fs[i].getPath();
       if (openFiles.contains(fileName)) {
         continue;
       }
 
+      if (fs[i].length() >= MAPPED_FILE_SIZE && MappedDataFile.isSupported(fs[i])) {
+        files.add(fs[i]);
+        continue;
+      }
+
       SeismicDataFile file = SeismicDataFile.getFile(fileName);
 
       if (file == null) {
@@ -123,7 +173,7 @@ public class FileDataSource extends AbstractCachingDataSource {
             JOptionPane.showMessageDialog(applicationFrame, "No WIN configuration file set.", "WIN",
                 JOptionPane.ERROR_MESSAGE);
             LOGGER.error("Unable to open: {} -> {}", fs[i].getPath(), fileType);
-            return;
+            break;
           }
         }
 
@@ -132,7 +182,7 @@ public class FileDataSource extends AbstractCachingDataSource {
       }
 
       if (file != null) {
-        readFile(file);
+        files.add(file);
       } else {
         LOGGER.error("Could not open file: {} ", fs[i].getPath());
         JOptionPane.showMessageDialog(applicationFrame, "Could not open file: " + fileName, "Error",
@@ -140,60 +190,270 @@ public class FileDataSource extends AbstractCachingDataSource {
       }
 
     }
-  }
 
-  private void readFile(final SeismicDataFile file) {
-    final String fileName = file.getFileName();
+    if (!files.isEmpty()) {
+      loadFiles(files);
+    }
+  }
 
+  /**
+   * Load files in the background.
+   *
+   * @param files files to load, each a SeismicDataFile or a File to read in place
+   */
+  private void loadFiles(final List<Object> files) {
     final SwingWorker worker = new SwingWorker() {
       @Override
       public Object construct() {
-        Object result = null;
-        fireChannelsProgress(fileName, 0);
-        try {
-          LOGGER.debug("opening file: {}", fileName);
-          file.read();
-          double progress = 0.2;
-          fireChannelsProgress(fileName, progress);
-
-          final int channelCount = file.getChannels().size();
-          final double progressInc = (1 - .2) / channelCount;
-          for (final String channel : file.getChannels()) {
-            final Metadata md = swarmConfig.getMetadata(channel.replaceAll("\\$", " "), true);
-            md.addGroup(file.getGroup());
-
-            final Wave wave = file.getWave(channel);
-            progress += progressInc;
-            fireChannelsProgress(fileName, progress);
-            updateChannelTimes(channel, wave.getStartTime(), wave.getEndTime());
-            progress += progressInc;
-            fireChannelsProgress(fileName, progress);
-            cacheWaveAsHelicorder(channel, wave);
-            putWave(channel, wave);
+        return load(files, new Runnable() {
+          public void run() {
+            fireChannelsUpdated();
+            MapFrame.getInstance().reset(false);
           }
-
-          swarmConfig.assignMetadataSource(file.getChannels(), FileDataSource.this);
-          openFiles.add(fileName);
-        } catch (final Throwable t) {
-          t.printStackTrace();
-          result = t;
-        } 
-        fireChannelsProgress(fileName, 1);
-        fireChannelsUpdated();
-        MapFrame.getInstance().reset(false);
-        return result;
+        });
       }
 
       @Override
       public void finished() {
-        if (getValue() != null) {
-          JOptionPane.showMessageDialog(applicationFrame, "Could not open file: " + fileName,
-              "Error", JOptionPane.ERROR_MESSAGE);
+        @SuppressWarnings("unchecked")
+        final List<String> failed = (List<String>) getValue();
+        if (failed == null || failed.isEmpty()) {
+          return;
         }
+
+        final StringBuilder message = new StringBuilder();
+        if (failed.size() == 1) {
+          message.append("Could not open file: ").append(failed.get(0));
+        } else {
+          message.append("Could not open ").append(failed.size()).append(" files:");
+          for (int i = 0; i < Math.min(failed.size(), MAX_FAILED_LISTED); i++) {
+            message.append('\n').append(failed.get(i));
+          }
+          if (failed.size() > MAX_FAILED_LISTED) {
+            message.append("\n...");
+          }
+        }
+        JOptionPane.showMessageDialog(applicationFrame, message.toString(), "Error",
+            JOptionPane.ERROR_MESSAGE);
       }
     };
     worker.start();
   }
+
+  /**
+   * Load files. Files are decoded in parallel on the loader threads, a few ahead of a single merge
+   * stage which adds them to the cache in the order given, so helicorders are built in time order.
+   * Channels are announced once, when all files are in; helicorders of files read in place are
+   * built afterwards.
+   *
+   * @param files files to load, each a SeismicDataFile or a File to read in place
+   * @param merged run once all files are in, to announce the channels
+   * @return names of the files which could not be loaded
+   */
+  List<String> load(final List<Object> files, final Runnable merged) {
+    final String id = files.size() == 1 ? getFileName(files.get(0)) : files.size() + " files";
+    fireChannelsProgress(id, 0);
+    final long start = System.nanoTime();
+    final AtomicLong samples = new AtomicLong();
+    final List<String> failed = new ArrayList<String>();
+    final List<Future<Object>> summaries = new ArrayList<Future<Object>>();
+    final LinkedList<Future<Object>> pending = new LinkedList<Future<Object>>();
+    int loaded = 0;
+    int next = 0;
+    try {
+      for (int done = 0; done < files.size(); done++) {
+        while (next < files.size() && pending.size() < MAX_PENDING_LOADS) {
+          pending.add(LOADERS.submit(decode(files.get(next++))));
+        }
+
+        final String fileName = getFileName(files.get(done));
+        try {
+          final Object result = pending.removeFirst().get();
+          if (result instanceof MappedDataFile) {
+            summaries.addAll(merge((MappedDataFile) result, samples));
+            loaded++;
+          } else if (result instanceof DecodedFile) {
+            samples.addAndGet(merge((DecodedFile) result));
+            loaded++;
+          } else {
+            failed.add(fileName);
+          }
+        } catch (final ExecutionException e) {
+          LOGGER.error("Could not open file: {}", fileName, e.getCause());
+          failed.add(fileName);
+        }
+        fireChannelsProgress(id, (done + 1.0) / (files.size() + summaries.size()));
+      }
+
+      merged.run();
+
+      for (int i = 0; i < summaries.size(); i++) {
+        try {
+          summaries.get(i).get();
+        } catch (final ExecutionException e) {
+          LOGGER.warn("Could not summarize file data", e.getCause());
+        }
+        fireChannelsProgress(id, (files.size() + i + 1.0) / (files.size() + summaries.size()));
+      }
+    } catch (final InterruptedException e) {
+      LOGGER.warn("Interrupted loading {}", id);
+    }
+    fireChannelsProgress(id, 1);
+
+    final double seconds = (System.nanoTime() - start) / 1E9;
+    LOGGER.info("Loaded {} files in {} s: {} files/s, {} samples/s", loaded,
+        String.format("%.1f", seconds), String.format("%.1f", loaded / seconds),
+        String.format("%.0f", samples.get() / seconds));
+    return failed;
+  }
+
+  private static String getFileName(final Object file) {
+    if (file instanceof SeismicDataFile) {
+      return ((SeismicDataFile) file).getFileName();
+    } else {
+      return ((File) file).getPath();
+    }
+  }
+
+  /**
+   * Create the decode stage of a file.
+   *
+   * @param file a SeismicDataFile or a File to read in place
+   * @return task giving a DecodedFile, a MappedDataFile, or null if the file isn't supported
+   */
+  private static Callable<Object> decode(final Object file) {
+    return new Callable<Object>() {
+      public Object call() throws Exception {
+        if (file instanceof File) {
+          LOGGER.debug("mapping file: {}", file);
+          return MappedDataFile.open((File) file);
+        }
+
+        final SeismicDataFile sdf = (SeismicDataFile) file;
+        LOGGER.debug("opening file: {}", sdf.getFileName());
+        sdf.read();
+        final Map<String, Wave> waves = new LinkedHashMap<String, Wave>();
+        for (final String channel : sdf.getChannels()) {
+          waves.put(channel, sdf.getWave(channel));
+        }
+        return new DecodedFile(sdf, waves);
+      }
+    };
+  }
+
+  /**
+   * Add a decoded file to the cache.
+   *
+   * @return number of samples added
+   */
+  private long merge(final DecodedFile decoded) {
+    final SeismicDataFile file = decoded.file;
+    long samples = 0;
+    for (final Map.Entry<String, Wave> entry : decoded.waves.entrySet()) {
+      final String channel = entry.getKey();
+      final Wave wave = entry.getValue();
+      final Metadata md = swarmConfig.getMetadata(channel.replaceAll("\\$", " "), true);
+      md.addGroup(file.getGroup());
+
+      updateChannelTimes(channel, wave.getStartTime(), wave.getEndTime());
+      cacheWaveAsHelicorder(channel, wave);
+      flushAggregator(channel);
+      putWave(channel, wave);
+      samples += wave.numSamples();
+    }
+
+    swarmConfig.assignMetadataSource(file.getChannels(), this);
+    openFiles.add(file.getFileName());
+    return samples;
+  }
+
+  /**
+   * Add a file read in place and start building its helicorders, a few minutes of data at a
+   * time.
+   *
+   * @param samples count of samples summarized, to add to
+   * @return the summary tasks
+   */
+  private List<Future<Object>> merge(final MappedDataFile file, final AtomicLong samples) {
+    final List<String> channels = new ArrayList<String>(file.getChannels());
+    for (final String channel : channels) {
+      final Metadata md = swarmConfig.getMetadata(channel.replaceAll("\\$", " "), true);
+      md.addGroup(file.getGroup());
+
+      final double[] ct = file.getTimes(channel);
+      updateChannelTimes(channel, ct[0], ct[1]);
+      synchronized (mappedFiles) {
+        List<MappedDataFile> files = mappedFiles.get(channel);
+        if (files == null) {
+          files = new ArrayList<MappedDataFile>();
+          mappedFiles.put(channel, files);
+        }
+        files.add(file);
+      }
+    }
+    swarmConfig.assignMetadataSource(channels, this);
+    openFiles.add(file.getFile().getPath());
+
+    final List<Future<Object>> summaries = new ArrayList<Future<Object>>();
+    for (final String channel : channels) {
+      summaries.add(LOADERS.submit(new Callable<Object>() {
+        public Object call() {
+          final double[] ct = file.getTimes(channel);
+          for (double t = ct[0]; t < ct[1]; t += SUMMARY_SPAN) {
+            final Wave wave = file.getWave(channel, t, Math.min(t + SUMMARY_SPAN, ct[1]));
+            if (wave != null) {
+              cacheWaveAsHelicorder(channel, wave);
+              samples.addAndGet(wave.numSamples());
+            }
+          }
+          flushAggregator(channel);
+          return null;
+        }
+      }));
+    }
+    return summaries;
+  }
+
+  private List<MappedDataFile> getMappedFiles(final String channel) {
+    synchronized (mappedFiles) {
+      final List<MappedDataFile> files = mappedFiles.get(channel);
+      if (files == null) {
+        return Collections.emptyList();
+      }
+      return new ArrayList<MappedDataFile>(files);
+    }
+  }
+
+  /**
+   * Decode a span from the files read in place, joined with anything loaded.
+   */
+  private Wave getMappedWave(final String channel, final List<MappedDataFile> files,
+      final double t1, final double t2) {
+    final List<Wave> parts = new ArrayList<Wave>();
+    final Wave loaded = getBestWave(channel, t1, t2);
+    if (loaded != null) {
+      parts.add(loaded);
+    }
+    for (final MappedDataFile file : files) {
+      final Wave part = file.getWave(channel, t1, t2);
+      if (part != null) {
+        parts.add(part);
+      }
+    }
+
+    if (parts.size() < 2) {
+      return parts.isEmpty() ? null : parts.get(0);
+    }
+
+    double minT = 1E300;
+    double maxT = -1E300;
+    for (final Wave part : parts) {
+      minT = Math.min(minT, part.getStartTime());
+      maxT = Math.max(maxT, part.getEndTime());
+    }
+    final Wave wave = Wave.join(parts, minT, maxT);
+    return wave == null ? null : wave.subset(t1, t2);
+  }
   
 
   /**
@@ -238,36 +498,52 @@ public class FileDataSource extends AbstractCachingDataSource {
 
   @Override
   public Wave getWave(final String station, final double t1, final double t2) {
-    Wave wave;
-    final List<CachedWave> waves = waveCache.get(station.replace(' ', '$'));
-    if (waves == null) {
-      return null;
-    } else {
-      final List<Wave> parts = new ArrayList<Wave>();
-      double minT = 1E300;
-      double maxT = -1E300;
-      for (final CachedWave cw : waves) {
-        if (cw.wave.overlaps(t1, t2)) {
-          parts.add(cw.wave);
-          minT = Math.min(minT, cw.t1);
-          maxT = Math.max(maxT, cw.t2);
-        }
-      }
+    final String channel = station.replace(' ', '$');
+    final List<MappedDataFile> files = getMappedFiles(channel);
+    if (files.isEmpty()) {
+      return getBestWave(channel, t1, t2);
+    }
+    return getMappedWave(channel, files, t1, t2);
+  }
 
-      if (parts.size() == 1) {
-        return parts.get(0);
-      }
+  @Override
+  public Wave getWaveView(final String station, final double t1, final double t2) {
+    return super.getWaveView(station.replace(' ', '$'), t1, t2);
+  }
 
-      wave = Wave.join(parts, minT, maxT);
-      if (wave != null) {
-        wave = wave.subset(t1, t2);
+  @Override
+  public List<String> getChannels() {
+    final List<String> channels = super.getChannels();
+    final Set<String> all = new TreeSet<String>();
+    synchronized (mappedFiles) {
+      if (mappedFiles.isEmpty()) {
+        return channels;
       }
+      for (final String channel : mappedFiles.keySet()) {
+        all.add(channel.replace('$', ' '));
+      }
+    }
+    if (channels != null) {
+      all.addAll(channels);
     }
-    return wave;
+    return new ArrayList<String>(all);
   }
 
   @Override
   public String toConfigString() {
     return name + ";file:";
   }
+
+  /**
+   * A file read by the decode stage, waiting to be merged.
+   */
+  private static class DecodedFile {
+    private final SeismicDataFile file;
+    private final Map<String, Wave> waves;
+
+    private DecodedFile(final SeismicDataFile file, final Map<String, Wave> waves) {
+      this.file = file;
+      this.waves = waves;
+    }
+  }
 }
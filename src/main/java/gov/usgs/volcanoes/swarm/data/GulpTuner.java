@@ -0,0 +1,306 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Chooses gulp sizes and delays for each source from how its chunks have gone so far. Chunks are
+ * sized to take about {@link #TARGET_SECONDS} at the throughput seen, so a fast server gets large
+ * chunks and a slow link small ones. Failures halve the chunk size and lengthen the delay between
+ * chunks, which never drops below the delay the source was configured with. What was learned is
+ * saved so the next session starts from it.
+ */
+public class GulpTuner {
+  private static final Logger LOGGER = LoggerFactory.getLogger(GulpTuner.class);
+
+  public static final GulpTuner INSTANCE = new GulpTuner();
+
+  public static final int DEFAULT_MIN_SIZE = 60;
+  public static final int DEFAULT_MAX_SIZE = 6 * 60 * 60;
+  public static final int DEFAULT_MIN_DELAY = 0;
+  public static final int DEFAULT_MAX_DELAY = 30 * 1000;
+
+  /** time a chunk should take to fetch. */
+  private static final double TARGET_SECONDS = 5;
+
+  /** weight of the newest chunk in the running averages. */
+  private static final double WEIGHT = 0.3;
+
+  private final ConcurrentMap<String, Tuning> tunings;
+
+  private volatile boolean enabled;
+  private volatile int minSize;
+  private volatile int maxSize;
+  private volatile int minDelay;
+  private volatile int maxDelay;
+
+  private GulpTuner() {
+    tunings = new ConcurrentHashMap<String, Tuning>();
+    enabled = true;
+    minSize = DEFAULT_MIN_SIZE;
+    maxSize = DEFAULT_MAX_SIZE;
+    minDelay = DEFAULT_MIN_DELAY;
+    maxDelay = DEFAULT_MAX_DELAY;
+  }
+
+  /**
+   * Turn tuning on or off. When off, gulpers use the size and delay their source was configured
+   * with.
+   *
+   * @param enabled true to tune
+   */
+  public void setEnabled(final boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Set the bounds tuned values are kept within.
+   *
+   * @param minSize smallest chunk in seconds
+   * @param maxSize largest chunk in seconds
+   * @param minDelay shortest delay between chunks in ms
+   * @param maxDelay longest delay between chunks in ms
+   */
+  public void setBounds(final int minSize, final int maxSize, final int minDelay,
+      final int maxDelay) {
+    this.minSize = Math.max(1, minSize);
+    this.maxSize = Math.max(this.minSize, maxSize);
+    this.minDelay = Math.max(0, minDelay);
+    this.maxDelay = Math.max(this.minDelay, maxDelay);
+  }
+
+  /**
+   * Start tuning a source from its configured values, unless it is already known. A known source
+   * takes on the configured delay as its shortest delay.
+   *
+   * @param source source name
+   * @param size configured chunk size in seconds
+   * @param delay configured delay between chunks in ms
+   */
+  public void seed(final String source, final int size, final int delay) {
+    final Tuning tuning = tunings.get(source);
+    if (tuning == null)
+      tunings.putIfAbsent(source, new Tuning(size, delay));
+    else
+      tuning.setBaseDelay(delay);
+  }
+
+  /**
+   * Get the chunk size to use for a source.
+   *
+   * @param source source name
+   * @param configured size the source was configured with, in seconds
+   * @return chunk size in seconds
+   */
+  public int getSize(final String source, final int configured) {
+    final Tuning tuning = tunings.get(source);
+    if (!enabled || tuning == null)
+      return configured;
+
+    return (int) clamp(tuning.getSize(), minSize, maxSize);
+  }
+
+  /**
+   * Get the delay between chunks to use for a source.
+   *
+   * @param source source name
+   * @param configured delay the source was configured with, in ms
+   * @return delay in ms
+   */
+  public int getDelay(final String source, final int configured) {
+    final Tuning tuning = tunings.get(source);
+    if (!enabled || tuning == null)
+      return configured;
+
+    return (int) clamp(tuning.getDelay(), minDelay, maxDelay);
+  }
+
+  /**
+   * Learn from a chunk.
+   *
+   * @param source source name
+   * @param span seconds of data asked for
+   * @param bytes bytes of data received, 0 if none
+   * @param millis time taken
+   * @param failed true if the request failed
+   */
+  public void record(final String source, final double span, final long bytes, final long millis,
+      final boolean failed) {
+    final Tuning tuning = tunings.get(source);
+    if (tuning != null)
+      tuning.record(span, bytes, millis, failed);
+  }
+
+  private static double clamp(final double value, final double min, final double max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  /**
+   * Read the history saved by a previous session. A missing file is not an error.
+   *
+   * @param file history file
+   */
+  public void load(final File file) {
+    if (!file.exists())
+      return;
+
+    final Properties props = new Properties();
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      props.load(in);
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot read gulp history {}: {}", file, e.getMessage());
+      return;
+    } finally {
+      close(in);
+    }
+
+    for (final String key : props.stringPropertyNames()) {
+      if (!key.endsWith(".size"))
+        continue;
+
+      final String source = key.substring(0, key.length() - ".size".length());
+      try {
+        final double delay = Double.parseDouble(props.getProperty(source + ".delay", "0"));
+        final Tuning tuning = new Tuning(Double.parseDouble(props.getProperty(key)), delay);
+        tuning.baseDelay =
+            Double.parseDouble(props.getProperty(source + ".baseDelay", Double.toString(delay)));
+        tuning.throughput = Double.parseDouble(props.getProperty(source + ".throughput", "0"));
+        tuning.dataRate = Double.parseDouble(props.getProperty(source + ".dataRate", "0"));
+        tuning.latency = Double.parseDouble(props.getProperty(source + ".latency", "0"));
+        tunings.put(source, tuning);
+      } catch (final NumberFormatException e) {
+        LOGGER.warn("Ignoring gulp history for {}", source);
+      }
+    }
+  }
+
+  /**
+   * Save what has been learned for the next session.
+   *
+   * @param file history file
+   */
+  public void save(final File file) {
+    final Properties props = new Properties();
+    for (final Map.Entry<String, Tuning> entry : tunings.entrySet()) {
+      final String source = entry.getKey();
+      final Tuning tuning = entry.getValue();
+      synchronized (tuning) {
+        props.setProperty(source + ".size", Double.toString(tuning.size));
+        props.setProperty(source + ".delay", Double.toString(tuning.delay));
+        props.setProperty(source + ".baseDelay", Double.toString(tuning.baseDelay));
+        props.setProperty(source + ".throughput", Double.toString(tuning.throughput));
+        props.setProperty(source + ".dataRate", Double.toString(tuning.dataRate));
+        props.setProperty(source + ".latency", Double.toString(tuning.latency));
+      }
+    }
+
+    OutputStream out = null;
+    try {
+      out = new FileOutputStream(file);
+      props.store(out, "Swarm gulp history");
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot write gulp history {}: {}", file, e.getMessage());
+    } finally {
+      close(out);
+    }
+  }
+
+  private static void close(final Closeable c) {
+    if (c == null)
+      return;
+
+    try {
+      c.close();
+    } catch (final IOException ignore) {
+      // nothing to be done
+    }
+  }
+
+  /**
+   * What has been learned about one source.
+   */
+  private class Tuning {
+    private double size;
+    private double delay;
+
+    /** configured delay, which the tuned delay grows from. */
+    private double baseDelay;
+
+    /** bytes per second received. */
+    private double throughput;
+
+    /** bytes per second of data. */
+    private double dataRate;
+
+    /** time per chunk in ms. */
+    private double latency;
+
+    /** fraction of recent chunks which failed. */
+    private double errorRate;
+
+    private Tuning(final double size, final double delay) {
+      this.size = size;
+      this.delay = delay;
+      baseDelay = delay;
+    }
+
+    private synchronized void setBaseDelay(final double baseDelay) {
+      this.baseDelay = baseDelay;
+      delay = Math.max(delay, baseDelay);
+    }
+
+    private synchronized double getSize() {
+      return size;
+    }
+
+    private synchronized double getDelay() {
+      return delay;
+    }
+
+    private synchronized void record(final double span, final long bytes, final long millis,
+        final boolean failed) {
+      errorRate += WEIGHT * ((failed ? 1 : 0) - errorRate);
+      if (failed) {
+        size = clamp(size / 2, minSize, maxSize);
+      } else {
+        latency = average(latency, millis);
+        if (bytes > 0 && millis > 0 && span > 0) {
+          throughput = average(throughput, bytes * 1000.0 / millis);
+          dataRate = average(dataRate, bytes / span);
+          // grow at most twofold per chunk so one lucky chunk can't overshoot
+          final double target = throughput * TARGET_SECONDS / dataRate;
+          size = clamp(Math.min(target, size * 2), minSize, maxSize);
+        } else if (millis > TARGET_SECONDS * 1000) {
+          // slow and empty, most likely the server is struggling
+          size = clamp(size / 2, minSize, maxSize);
+        }
+      }
+      final double floor = clamp(baseDelay, minDelay, maxDelay);
+      delay = floor + (maxDelay - floor) * errorRate;
+    }
+
+    private double average(final double current, final double sample) {
+      return current == 0 ? sample : current + WEIGHT * (sample - current);
+    }
+  }
+}
@@ -4,12 +4,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import gov.usgs.plot.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 
 /**
+ * Fetches a long span of a channel in chunks, newest first, so a helicorder fills in while the
+ * rest is on the way. Chunks are run by the shared {@link GulperScheduler}; a subclass which needs
+ * a thread of its own can call {@link #startThread()} and override {@link #runLoop()}.
  *
  * @author Dan Cervelli
  */
@@ -22,7 +26,18 @@ public class Gulper implements Runnable {
   private final String channel;
   private double lastTime;
   private double goalTime;
-  private Thread thread;
+
+  /** start of the missing span ending at lastTime. */
+  private double gapStart;
+
+  /** true from start until killed. */
+  private volatile boolean running;
+
+  /** thread running this gulper, null if run by the scheduler. */
+  private volatile Thread thread;
+
+  /** earliest time the next chunk may be fetched, in ms. */
+  private volatile long nextGulp;
   private final String key;
   private final Set<GulperListener> listeners;
 
@@ -44,12 +59,14 @@ public class Gulper implements Runnable {
       final String ch, final double t1, final double t2, final int size, final int delay) {
     gulpSize = size;
     gulpDelay = delay;
+    GulpTuner.INSTANCE.seed(source.getName(), size, delay);
     gulperList = gl;
     gulpSource = source;
     key = k;
     listeners = new HashSet<GulperListener>();
     channel = ch;
     lastTime = t2;
+    gapStart = t1;
 
     final double now = J2kSec.now();
     if (lastTime > now)
@@ -82,8 +99,14 @@ public class Gulper implements Runnable {
     start();
   }
 
+  /**
+   * Add a listener. A null listener is ignored, leaving the gulper to prefill the cache.
+   *
+   * @param gl the listener
+   */
   public synchronized void addListener(final GulperListener gl) {
-    listeners.add(gl);
+    if (gl != null)
+      listeners.add(gl);
   }
 
   public synchronized void removeListener(final GulperListener gl) {
@@ -102,6 +125,7 @@ public class Gulper implements Runnable {
    * Kill this gulper.
    */
   protected void kill() {
+    running = false;
     // use local copy to ensure it isn't changed elsewhere,
     // no need to lock since OK to have multiple calls to Thread.interrupt
     final Thread t = thread;
@@ -117,32 +141,129 @@ public class Gulper implements Runnable {
    * @return true if the gulper has been killed or was never started.
    */
   public boolean isKilled() {
-    return thread == null;
+    return !running;
   }
 
-  public void kill(final GulperListener gl) {
+  /**
+   * Remove a listener, killing the gulper if no one is left listening. Data sources call this from
+   * notifyDataNotNeeded, which is how a closed window stops its fetches.
+   *
+   * @param gl the listener
+   */
+  public synchronized void kill(final GulperListener gl) {
     removeListener(gl);
     if (listeners.size() == 0) {
       kill();
     }
   }
 
+  /**
+   * Start gulping. Chunks are queued with the shared scheduler.
+   */
   public void start() {
-    thread = new Thread(this);
-    thread.start();
+    running = true;
+    fireStarted();
+    GulperScheduler.INSTANCE.submit(this);
     LOGGER.debug("gulper started for {}", channel);
   }
 
-  public void update(final double t1, final double t2) {
+  /**
+   * Start gulping on a thread of this gulper's own which calls {@link #runLoop()}.
+   */
+  protected void startThread() {
+    running = true;
+    thread = new Thread(this, "Gulper " + channel);
+    thread.start();
+    LOGGER.debug("gulper thread started for {}", channel);
+  }
+
+  /**
+   * Get the name of the source this gulper fetches from. The scheduler limits the number of
+   * chunks fetched at once from each source.
+   *
+   * @return source name
+   */
+  public String getSourceName() {
+    return gulpSource.getName();
+  }
+
+  /**
+   * Get the priority of the next chunk. Chunks on screen come first, then the rest of the span of
+   * a helicorder being shown, then spans no one is waiting for.
+   *
+   * @return chunk priority
+   */
+  public synchronized GulperScheduler.Priority getPriority() {
+    if (listeners.isEmpty())
+      return GulperScheduler.Priority.PREFILL;
+
+    for (final GulperListener listener : listeners) {
+      if (!(listener instanceof VisibleGulperListener))
+        continue;
+
+      final double[] span = ((VisibleGulperListener) listener).getVisibleSpan();
+      if (span != null && lastTime > span[0] && lastTime - getGulpSize() < span[1])
+        return GulperScheduler.Priority.VISIBLE;
+    }
+    return GulperScheduler.Priority.SPAN;
+  }
+
+  /**
+   * Get the span of the next chunk, as tuned for the source.
+   *
+   * @return chunk size in seconds
+   */
+  protected int getGulpSize() {
+    return GulpTuner.INSTANCE.getSize(getSourceName(), gulpSize);
+  }
+
+  /**
+   * Get the delay before the next chunk, as tuned for the source.
+   *
+   * @return delay in ms
+   */
+  protected int getGulpDelay() {
+    return GulpTuner.INSTANCE.getDelay(getSourceName(), gulpDelay);
+  }
+
+  /**
+   * Get the earliest time the next chunk may be fetched.
+   *
+   * @return time in ms
+   */
+  public long getNextGulp() {
+    return nextGulp;
+  }
+
+  /**
+   * Put off the next chunk, for a subclass which fetches its own.
+   *
+   * @param delay delay in ms
+   */
+  protected void delayNextGulp(final long delay) {
+    nextGulp = System.currentTimeMillis() + delay;
+  }
+
+  /**
+   * Set the span still to gulp. Spans already in the helicorder cache, or known to have no data,
+   * are skipped so only missing data is fetched.
+   *
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   */
+  public synchronized void update(final double t1, final double t2) {
     final CachedDataSource cache = CachedDataSource.getInstance();
     if (t2 < lastTime)
       lastTime = t2;
     goalTime = t1;
 
-    while (cache.inHelicorderCache(channel, lastTime - gulpSize, lastTime) && lastTime > goalTime
-        && !isKilled()) {
-      lastTime -= gulpSize;
-      lastTime += 10;
+    final List<double[]> missing = cache.getMissingHelicorder(channel, goalTime, lastTime);
+    if (missing.isEmpty()) {
+      lastTime = goalTime;
+    } else {
+      final double[] latest = missing.get(missing.size() - 1);
+      gapStart = latest[0];
+      lastTime = latest[1];
     }
   }
 
@@ -169,38 +290,81 @@ public class Gulper implements Runnable {
   public void run() {
     fireStarted();
     runLoop();
+    finish();
+  }
+
+  /**
+   * Clean up once the last chunk is fetched or the gulper is killed.
+   */
+  protected void finish() {
     gulpSource.close();
     if (isKilled())
       LOGGER.debug("gulper killed");
     else
       LOGGER.debug("gulper finished");
+    running = false;
     gulperList.removeGulper(this);
     fireStopped();
   }
 
   /**
-   * This is the run loop which a subclass may override.
+   * This is the run loop used by {@link #startThread()}, which a subclass may override.
    */
   protected void runLoop() {
-    while (lastTime > goalTime && !isKilled()) {
-      try {
-        final double t1 = lastTime - gulpSize;
-        final double t2 = lastTime;
-        final Wave w = gulpSource.getWave(channel, t1, t2);
-        fireGulped(t1, t2, w);
-        update(goalTime, lastTime - gulpSize + 10);
-      } catch (final Throwable e) {
-        System.err.println("Exception during gulp:");
-        e.printStackTrace();
-      }
+    while (gulp())
       delay();
+  }
+
+  /**
+   * Fetch the next chunk.
+   *
+   * @return true if there is more to fetch
+   */
+  protected boolean gulp() {
+    final double t1;
+    final double t2;
+    synchronized (this) {
+      if (lastTime <= goalTime || isKilled())
+        return false;
+
+      t1 = Math.max(lastTime - getGulpSize(), gapStart);
+      t2 = lastTime;
+    }
+
+    final long start = System.currentTimeMillis();
+    boolean failed = false;
+    long bytes = -1;
+    SeismicDataSource.takeTransferred();
+    SeismicDataSource.takeFailed();
+    try {
+      final Wave w = gulpSource.getWave(channel, t1, t2);
+      bytes = SeismicDataSource.takeTransferred();
+      // sources return null rather than throw when the server can't be reached
+      failed = SeismicDataSource.takeFailed();
+      fireGulped(t1, t2, w);
+      synchronized (this) {
+        update(goalTime, t1);
+      }
+    } catch (final Throwable e) {
+      failed = true;
+      System.err.println("Exception during gulp:");
+      e.printStackTrace();
+    }
+    final long end = System.currentTimeMillis();
+    // chunks served by the cache, or by another request in flight, say nothing of the source
+    if (failed || bytes >= 0)
+      GulpTuner.INSTANCE.record(getSourceName(), t2 - t1, Math.max(bytes, 0), end - start, failed);
+    nextGulp = end + getGulpDelay();
+
+    synchronized (this) {
+      return lastTime > goalTime && !isKilled();
     }
   }
 
   protected void delay() {
     if (!isKilled())
       try {
-        Thread.sleep(gulpDelay);
+        Thread.sleep(getGulpDelay());
       } catch (final InterruptedException ignore) {
       }
   }
@@ -0,0 +1,203 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Runs gulper chunks on a small shared pool of threads. Gulpers wait in one queue per priority
+ * and take turns, one chunk at a time, so every channel on a wall fills in at the same pace. The
+ * number of chunks fetched at once from any one source is limited so opening a large layout does
+ * not flood a server.
+ */
+public class GulperScheduler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(GulperScheduler.class);
+
+  public static final GulperScheduler INSTANCE = new GulperScheduler();
+
+  public static final int DEFAULT_THREADS = 4;
+  public static final int DEFAULT_SOURCE_LIMIT = 2;
+
+  /** longest an idle worker waits before looking at the queues again, in ms. */
+  private static final long IDLE_WAIT = 1000;
+
+  /**
+   * Chunk priorities, highest first.
+   */
+  public enum Priority {
+    /** chunks drawn on screen. */
+    VISIBLE,
+
+    /** the rest of the span of a helicorder which is open. */
+    SPAN,
+
+    /** spans no one is waiting for. */
+    PREFILL
+  }
+
+  private final LinkedList<Gulper>[] queues;
+
+  /** chunks being fetched, by source name. */
+  private final Map<String, Integer> active;
+
+  private int threads;
+  private int sourceLimit;
+  private int workers;
+
+  @SuppressWarnings("unchecked")
+  private GulperScheduler() {
+    queues = new LinkedList[Priority.values().length];
+    for (int i = 0; i < queues.length; i++)
+      queues[i] = new LinkedList<Gulper>();
+    active = new HashMap<String, Integer>();
+    threads = DEFAULT_THREADS;
+    sourceLimit = DEFAULT_SOURCE_LIMIT;
+  }
+
+  /**
+   * Set the size of the pool and the number of chunks fetched at once from a single source.
+   * Shrinking the pool takes effect as idle threads notice.
+   *
+   * @param threads number of threads
+   * @param sourceLimit chunks at once from one source
+   */
+  public synchronized void setLimits(final int threads, final int sourceLimit) {
+    this.threads = Math.max(1, threads);
+    this.sourceLimit = Math.max(1, sourceLimit);
+    notifyAll();
+  }
+
+  /**
+   * Queue a gulper's chunks.
+   *
+   * @param gulper the gulper
+   */
+  public void submit(final Gulper gulper) {
+    final Priority priority = gulper.getPriority();
+    synchronized (this) {
+      queues[priority.ordinal()].addLast(gulper);
+      while (workers < threads) {
+        workers++;
+        final Thread worker = new Thread(new Worker(), "Gulper " + workers);
+        worker.setDaemon(true);
+        worker.start();
+      }
+      notifyAll();
+    }
+  }
+
+  /**
+   * Get the number of gulpers waiting at each priority.
+   *
+   * @return queue lengths, highest priority first
+   */
+  public synchronized int[] getQueueLengths() {
+    final int[] lengths = new int[queues.length];
+    for (int i = 0; i < queues.length; i++)
+      lengths[i] = queues[i].size();
+    return lengths;
+  }
+
+  /**
+   * Wait for the next gulper with a chunk due. Killed gulpers are handed out too, so the worker
+   * can clean them up.
+   *
+   * @return the gulper, or null if this worker is no longer needed
+   */
+  private synchronized Gulper take() throws InterruptedException {
+    while (true) {
+      if (workers > threads) {
+        workers--;
+        return null;
+      }
+
+      final long now = System.currentTimeMillis();
+      long wait = IDLE_WAIT;
+      for (final LinkedList<Gulper> queue : queues) {
+        final Iterator<Gulper> it = queue.iterator();
+        while (it.hasNext()) {
+          final Gulper gulper = it.next();
+          if (gulper.isKilled()) {
+            it.remove();
+            return gulper;
+          }
+
+          final String source = gulper.getSourceName();
+          final Integer running = active.get(source);
+          if (running != null && running >= sourceLimit)
+            continue;
+
+          final long due = gulper.getNextGulp() - now;
+          if (due > 0) {
+            wait = Math.min(wait, due);
+            continue;
+          }
+
+          it.remove();
+          active.put(source, running == null ? 1 : running + 1);
+          return gulper;
+        }
+      }
+      wait(wait);
+    }
+  }
+
+  /**
+   * Put a gulper back at the end of its queue after a chunk, or let it go if it is done.
+   *
+   * @return true if the gulper was queued again
+   */
+  private boolean done(final Gulper gulper, final boolean more) {
+    final Priority priority = more ? gulper.getPriority() : null;
+    synchronized (this) {
+      final String source = gulper.getSourceName();
+      final int running = active.get(source) - 1;
+      if (running == 0)
+        active.remove(source);
+      else
+        active.put(source, running);
+
+      if (more)
+        queues[priority.ordinal()].addLast(gulper);
+      notifyAll();
+    }
+    return more;
+  }
+
+  private class Worker implements Runnable {
+    public void run() {
+      try {
+        Gulper gulper;
+        while ((gulper = take()) != null) {
+          if (gulper.isKilled()) {
+            gulper.finish();
+            continue;
+          }
+
+          boolean more = false;
+          try {
+            more = gulper.gulp();
+          } finally {
+            if (!done(gulper, more))
+              gulper.finish();
+          }
+        }
+      } catch (final InterruptedException e) {
+        LOGGER.debug("gulper worker interrupted");
+        synchronized (GulperScheduler.this) {
+          workers--;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.plot.data.HelicorderData;
+import gov.usgs.plot.data.Wave;
+
+/**
+ * Builds one second helicorder data for a single channel from a stream of waves. Samples are
+ * folded into ring arrays of per-second min and max in place, so appending a wave allocates
+ * nothing. Completed seconds are handed out in batches by {@link #drain()}, and everything,
+ * the latest second too, by {@link #drainAll()} once no more samples are coming.
+ *
+ * <p>Waves older than the data already drained, or too long to fit in the ring, are converted on
+ * their own and handed out with the next batch.
+ */
+public class HelicorderAggregator {
+
+  /** microsecond conversion. */
+  private static final long TO_USEC = (long) 1E6;
+
+  /** number of seconds held in the ring. */
+  private static final int CAPACITY = 600;
+
+  /** number of completed seconds which makes a drain worthwhile. */
+  private static final int DRAIN_SECONDS = 60;
+
+  private final long[] seconds;
+  private final double[] min;
+  private final double[] max;
+
+  /** first second not yet drained. */
+  private long drained;
+
+  /** latest second appended. */
+  private long latest;
+
+  private boolean empty;
+
+  /** helicorders built outside the ring, waiting to be drained. */
+  private final List<HelicorderData> ready;
+
+  /**
+   * Constructor.
+   */
+  public HelicorderAggregator() {
+    seconds = new long[CAPACITY];
+    Arrays.fill(seconds, Long.MIN_VALUE);
+    min = new double[CAPACITY];
+    max = new double[CAPACITY];
+    ready = new ArrayList<HelicorderData>();
+    empty = true;
+  }
+
+  /**
+   * Add the samples of a wave.
+   *
+   * @param wave wave to add
+   */
+  public synchronized void append(final Wave wave) {
+    final int n = wave.numSamples();
+    if (n == 0)
+      return;
+
+    final long start = Math.round(wave.getStartTime() * TO_USEC);
+    final long period = Math.round(wave.getSamplingPeriod() * TO_USEC);
+    final long first = toSecond(start);
+    final long last = toSecond(start + (n - 1) * period);
+
+    if (last - first >= CAPACITY || (!empty && first < drained)) {
+      final HelicorderData hd = toHelicorder(wave);
+      if (hd != null)
+        ready.add(hd);
+      return;
+    }
+
+    if (empty) {
+      drained = first;
+      latest = first;
+      empty = false;
+    } else if (last - drained >= CAPACITY) {
+      // after a gap, hand over everything pending and start again
+      final HelicorderData pending = getSeconds(latest + 1);
+      if (pending != null)
+        ready.add(pending);
+      drained = first;
+      latest = first;
+    }
+
+    for (int i = 0; i < n; i++) {
+      final int sample = wave.buffer[i];
+      if (sample == Wave.NO_DATA)
+        continue;
+
+      final long second = toSecond(start + i * period);
+      final int slot = slot(second);
+      if (seconds[slot] != second) {
+        seconds[slot] = second;
+        min[slot] = Double.MAX_VALUE;
+        max[slot] = -Double.MAX_VALUE;
+      }
+      if (sample < min[slot])
+        min[slot] = sample;
+      if (sample > max[slot])
+        max[slot] = sample;
+    }
+    latest = Math.max(latest, last);
+  }
+
+  /**
+   * Determine if enough data is waiting to be worth a drain.
+   *
+   * @return true if drain should be called
+   */
+  public synchronized boolean isDrainDue() {
+    return !ready.isEmpty() || (!empty && latest - drained >= DRAIN_SECONDS);
+  }
+
+  /**
+   * Take the helicorder data for every completed second. The latest second may still receive
+   * samples, so it stays behind.
+   *
+   * @return helicorder data, possibly empty
+   */
+  public synchronized List<HelicorderData> drain() {
+    return drain(latest);
+  }
+
+  /**
+   * Take the helicorder data for every second, the latest one too. Samples appended to a drained
+   * second later are handed out on their own with the next batch.
+   *
+   * @return helicorder data, possibly empty
+   */
+  public synchronized List<HelicorderData> drainAll() {
+    return drain(latest + 1);
+  }
+
+  private List<HelicorderData> drain(final long end) {
+    final List<HelicorderData> result = new ArrayList<HelicorderData>(ready);
+    ready.clear();
+    if (!empty && end > drained) {
+      final HelicorderData hd = getSeconds(end);
+      if (hd != null)
+        result.add(hd);
+    }
+    return result;
+  }
+
+  /**
+   * Copy the seconds from the first one not yet drained up to, but not including, a given second
+   * and mark them drained.
+   */
+  private HelicorderData getSeconds(final long end) {
+    int rows = 0;
+    for (long s = drained; s < end; s++) {
+      if (seconds[slot(s)] == s)
+        rows++;
+    }
+
+    DoubleMatrix2D data = null;
+    if (rows > 0) {
+      data = DoubleFactory2D.dense.make(rows, 3);
+      int row = 0;
+      for (long s = drained; s < end; s++) {
+        final int slot = slot(s);
+        if (seconds[slot] != s)
+          continue;
+
+        data.setQuick(row, 0, s);
+        data.setQuick(row, 1, min[slot]);
+        data.setQuick(row, 2, max[slot]);
+        row++;
+      }
+    }
+    drained = end;
+
+    if (data == null)
+      return null;
+
+    final HelicorderData hd = new HelicorderData();
+    hd.setData(data);
+    return hd;
+  }
+
+  /**
+   * Get the second containing a time given in microseconds.
+   */
+  private static long toSecond(final long usec) {
+    if (usec >= 0)
+      return usec / TO_USEC;
+    else
+      return (usec - TO_USEC + 1) / TO_USEC;
+  }
+
+  private static int slot(final long second) {
+    final int slot = (int) (second % CAPACITY);
+    return slot < 0 ? slot + CAPACITY : slot;
+  }
+
+  /**
+   * Build one second helicorder data from a single wave. Seconds without samples are left out.
+   *
+   * @param wave the wave
+   * @return helicorder data, or null if the wave has no samples
+   */
+  public static HelicorderData toHelicorder(final Wave wave) {
+    final int n = wave.numSamples();
+    final long start = Math.round(wave.getStartTime() * TO_USEC);
+    final long period = Math.round(wave.getSamplingPeriod() * TO_USEC);
+    final long first = toSecond(start);
+    final int span = (int) (toSecond(start + Math.max(0, n - 1) * period) - first) + 1;
+
+    final double[] smin = new double[span];
+    final double[] smax = new double[span];
+    Arrays.fill(smin, Double.MAX_VALUE);
+    Arrays.fill(smax, -Double.MAX_VALUE);
+    int rows = 0;
+    for (int i = 0; i < n; i++) {
+      final int sample = wave.buffer[i];
+      if (sample == Wave.NO_DATA)
+        continue;
+
+      final int s = (int) (toSecond(start + i * period) - first);
+      if (smin[s] == Double.MAX_VALUE)
+        rows++;
+      smin[s] = Math.min(smin[s], sample);
+      smax[s] = Math.max(smax[s], sample);
+    }
+    if (rows == 0)
+      return null;
+
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows, 3);
+    int row = 0;
+    for (int s = 0; s < span; s++) {
+      if (smin[s] == Double.MAX_VALUE)
+        continue;
+
+      data.setQuick(row, 0, first + s);
+      data.setQuick(row, 1, smin[s]);
+      data.setQuick(row, 2, smax[s]);
+      row++;
+    }
+
+    final HelicorderData hd = new HelicorderData();
+    hd.setData(data);
+    return hd;
+  }
+}
@@ -0,0 +1,328 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.plot.data.HelicorderData;
+
+/**
+ * Min, max and mean summaries of a single channel at several resolutions. One second helicorder
+ * data is the base of the pyramid and is held by the cache itself; each coarser level is built
+ * from the level below it, so a change to the one second data only touches a handful of buckets
+ * on each level.
+ *
+ * <p>A display showing many seconds per pixel can read a coarse level and draw a span of days with
+ * no more rows than it has pixels. The mean is the mean of the one second (min + max) / 2 values
+ * in a bucket, which is all one second helicorder data can tell us.
+ */
+public class HelicorderPyramid {
+
+  /** bucket widths in seconds, finest first. */
+  public static final int[] LEVELS = {10, 60, 10 * 60, 60 * 60};
+
+  /** number of buckets in each chunk of storage. */
+  private static final int CHUNK_SIZE = 256;
+
+  private final Level[] levels;
+
+  /**
+   * Constructor.
+   */
+  public HelicorderPyramid() {
+    levels = new Level[LEVELS.length];
+    for (int i = 0; i < LEVELS.length; i++)
+      levels[i] = new Level(LEVELS[i]);
+  }
+
+  /**
+   * Choose the coarsest level whose buckets are no wider than a given resolution.
+   *
+   * @param resolution seconds per pixel
+   * @return level index, or -1 if one second data is needed
+   */
+  public static int getLevel(final double resolution) {
+    int level = -1;
+    for (int i = 0; i < LEVELS.length; i++) {
+      if (LEVELS[i] <= resolution)
+        level = i;
+    }
+    return level;
+  }
+
+  /**
+   * Get the span of one second data needed to rebuild the summaries of a changed span. Buckets at
+   * the edges are only partly changed and must be rebuilt in full.
+   *
+   * @param t1 start of the changed span in j2k
+   * @param t2 end of the changed span in j2k
+   * @return start and end of the span needed
+   */
+  public static double[] getUpdateSpan(final double t1, final double t2) {
+    final int width = LEVELS[0];
+    return new double[] {Math.floor(t1 / width) * width, (Math.floor(t2 / width) + 1) * width};
+  }
+
+  /**
+   * Rebuild the summaries covering a span.
+   *
+   * @param helicorders all one second data touching the span returned by
+   *        {@link #getUpdateSpan(double, double)}
+   * @param t1 start of the changed span in j2k
+   * @param t2 end of the changed span in j2k
+   */
+  public synchronized void update(final List<HelicorderData> helicorders, final double t1,
+      final double t2) {
+    final List<DoubleMatrix2D> data = new ArrayList<DoubleMatrix2D>(helicorders.size());
+    for (final HelicorderData hd : helicorders) {
+      if (hd.getData() != null && hd.getData().rows() > 0)
+        data.add(hd.getData());
+    }
+
+    final Level base = levels[0];
+    for (long b = base.bucket(t1); b <= base.bucket(t2); b++)
+      base.summarize(b, data);
+
+    for (int i = 1; i < levels.length; i++) {
+      final Level level = levels[i];
+      for (long b = level.bucket(t1); b <= level.bucket(t2); b++)
+        level.summarize(b, levels[i - 1]);
+    }
+  }
+
+  /**
+   * Forget the summaries of a span which has left the cache. Buckets only partly inside the span
+   * are kept.
+   *
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   */
+  public synchronized void remove(final double t1, final double t2) {
+    for (final Level level : levels) {
+      final long first = level.bucket(t1) + 1;
+      final long last = level.bucket(t2) - 1;
+      for (long b = first; b <= last; b++)
+        level.clear(b);
+    }
+  }
+
+  public synchronized boolean isEmpty() {
+    return levels[0].chunks.isEmpty();
+  }
+
+  /**
+   * Get a level as helicorder data, one row per bucket, with empty buckets left out.
+   *
+   * @param level level index
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return helicorder data, or null if there is none in the span
+   */
+  public synchronized HelicorderData getHelicorder(final int level, final double t1,
+      final double t2) {
+    final DoubleMatrix2D summary = getSummary(level, t1, t2);
+    if (summary == null)
+      return null;
+
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(summary.rows(), 3);
+    for (int i = 0; i < summary.rows(); i++) {
+      data.setQuick(i, 0, summary.getQuick(i, 0));
+      data.setQuick(i, 1, summary.getQuick(i, 1));
+      data.setQuick(i, 2, summary.getQuick(i, 2));
+    }
+    final HelicorderData hd = new HelicorderData();
+    hd.setData(data);
+    return hd;
+  }
+
+  /**
+   * Get a level, one row per bucket, with empty buckets left out.
+   *
+   * @param level level index
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return matrix of bucket start time, min, max and mean, or null if there is no data
+   */
+  public synchronized DoubleMatrix2D getSummary(final int level, final double t1,
+      final double t2) {
+    final Level l = levels[level];
+    final long first = l.bucket(t1);
+    final long last = l.bucket(t2);
+
+    int rows = 0;
+    for (long b = first; b <= last; b++) {
+      if (l.count(b) > 0)
+        rows++;
+    }
+    if (rows == 0)
+      return null;
+
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows, 4);
+    int row = 0;
+    for (long b = first; b <= last; b++) {
+      final Chunk chunk = l.chunks.get(chunkIndex(b));
+      if (chunk == null) {
+        // skip to the next chunk
+        b = (chunkIndex(b) + 1) * CHUNK_SIZE - 1;
+        continue;
+      }
+      final int i = (int) (b - chunkIndex(b) * CHUNK_SIZE);
+      if (chunk.count[i] == 0)
+        continue;
+
+      data.setQuick(row, 0, b * (double) l.width);
+      data.setQuick(row, 1, chunk.min[i]);
+      data.setQuick(row, 2, chunk.max[i]);
+      data.setQuick(row, 3, chunk.sum[i] / chunk.count[i]);
+      row++;
+    }
+    return data;
+  }
+
+  private static long chunkIndex(final long bucket) {
+    if (bucket >= 0)
+      return bucket / CHUNK_SIZE;
+    else
+      return (bucket - CHUNK_SIZE + 1) / CHUNK_SIZE;
+  }
+
+  /**
+   * One resolution of the pyramid. Buckets are held in fixed size chunks of primitive arrays so
+   * gaps in the data cost nothing.
+   */
+  private static class Level {
+    private final int width;
+    private final TreeMap<Long, Chunk> chunks;
+
+    private Level(final int width) {
+      this.width = width;
+      chunks = new TreeMap<Long, Chunk>();
+    }
+
+    private long bucket(final double t) {
+      return (long) Math.floor(t / width);
+    }
+
+    private int count(final long bucket) {
+      final Chunk chunk = chunks.get(chunkIndex(bucket));
+      if (chunk == null)
+        return 0;
+      else
+        return chunk.count[(int) (bucket - chunkIndex(bucket) * CHUNK_SIZE)];
+    }
+
+    /**
+     * Summarize a bucket from one second rows.
+     */
+    private void summarize(final long bucket, final List<DoubleMatrix2D> matrices) {
+      final double start = bucket * (double) width;
+      final double end = start + width;
+      double min = Double.MAX_VALUE;
+      double max = -Double.MAX_VALUE;
+      double sum = 0;
+      int count = 0;
+      for (final DoubleMatrix2D data : matrices) {
+        for (int row = firstRow(data, start); row < data.rows(); row++) {
+          if (data.getQuick(row, 0) >= end)
+            break;
+
+          final double rmin = data.getQuick(row, 1);
+          final double rmax = data.getQuick(row, 2);
+          min = Math.min(min, rmin);
+          max = Math.max(max, rmax);
+          sum += (rmin + rmax) / 2;
+          count++;
+        }
+      }
+      set(bucket, min, max, sum, count);
+    }
+
+    /**
+     * Summarize a bucket from the buckets of the level below.
+     */
+    private void summarize(final long bucket, final Level child) {
+      final int ratio = width / child.width;
+      double min = Double.MAX_VALUE;
+      double max = -Double.MAX_VALUE;
+      double sum = 0;
+      int count = 0;
+      final long first = bucket * ratio;
+      for (long b = first; b < first + ratio; b++) {
+        final Chunk chunk = child.chunks.get(chunkIndex(b));
+        if (chunk == null)
+          continue;
+
+        final int i = (int) (b - chunkIndex(b) * CHUNK_SIZE);
+        if (chunk.count[i] == 0)
+          continue;
+
+        min = Math.min(min, chunk.min[i]);
+        max = Math.max(max, chunk.max[i]);
+        sum += chunk.sum[i];
+        count += chunk.count[i];
+      }
+      set(bucket, min, max, sum, count);
+    }
+
+    private void set(final long bucket, final double min, final double max, final double sum,
+        final int count) {
+      final long ci = chunkIndex(bucket);
+      Chunk chunk = chunks.get(ci);
+      if (chunk == null) {
+        if (count == 0)
+          return;
+        chunk = new Chunk();
+        chunks.put(ci, chunk);
+      }
+
+      final int i = (int) (bucket - ci * CHUNK_SIZE);
+      if (chunk.count[i] > 0)
+        chunk.used--;
+      chunk.min[i] = min;
+      chunk.max[i] = max;
+      chunk.sum[i] = sum;
+      chunk.count[i] = count;
+      if (count > 0)
+        chunk.used++;
+      else if (chunk.used == 0)
+        chunks.remove(ci);
+    }
+
+    private void clear(final long bucket) {
+      if (count(bucket) > 0)
+        set(bucket, 0, 0, 0, 0);
+    }
+
+    /**
+     * Find the first row at or after a time.
+     */
+    private static int firstRow(final DoubleMatrix2D data, final double t) {
+      int low = 0;
+      int high = data.rows();
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (data.getQuick(mid, 0) < t)
+          low = mid + 1;
+        else
+          high = mid;
+      }
+      return low;
+    }
+  }
+
+  private static class Chunk {
+    private final double[] min = new double[CHUNK_SIZE];
+    private final double[] max = new double[CHUNK_SIZE];
+    private final double[] sum = new double[CHUNK_SIZE];
+    private final int[] count = new int[CHUNK_SIZE];
+    private int used;
+  }
+}
@@ -0,0 +1,600 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import edu.iris.dmc.seedcodec.Codec;
+import edu.iris.dmc.seedcodec.CodecException;
+import edu.iris.dmc.seedcodec.DecompressedData;
+import edu.iris.dmc.seedcodec.UnsupportedCompressionType;
+import gov.usgs.plot.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.swarm.ChannelUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A miniSEED or SAC file read in place. The file is memory mapped and its record headers are
+ * scanned once into a per channel time index; samples are decoded only for the records which
+ * overlap a requested span, so a file of any size can be browsed with little heap.
+ *
+ * <p>Channels are named as other file channels are, with '$' between station, channel, network
+ * and location.
+ */
+public class MappedDataFile {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MappedDataFile.class);
+
+  /** bytes mapped per segment. */
+  private static final long SEGMENT = 1L << 30;
+
+  /** bytes each segment extends into the next, so a record starting in one ends in it. */
+  private static final int OVERLAP = 1 << 20;
+
+  /** fixed miniSEED header length. */
+  private static final int SEED_HEADER = 48;
+
+  /** length of a SAC header. */
+  private static final int SAC_HEADER = 632;
+
+  /** SAC header version. */
+  private static final int SAC_VERSION = 6;
+
+  /** SAC undefined value. */
+  private static final int SAC_UNDEFINED = -12345;
+
+  private final File file;
+  private final long length;
+  private final MappedByteBuffer[] segments;
+  private final Map<String, Index> channels;
+
+  /** SAC sample layout, or null if miniSEED. */
+  private Sac sac;
+
+  private MappedDataFile(final File file, final FileChannel fc) throws IOException {
+    this.file = file;
+    length = fc.size();
+    segments = new MappedByteBuffer[(int) ((length + SEGMENT - 1) / SEGMENT)];
+    for (int i = 0; i < segments.length; i++) {
+      final long position = i * SEGMENT;
+      segments[i] = fc.map(FileChannel.MapMode.READ_ONLY, position,
+          Math.min(length - position, SEGMENT + OVERLAP));
+    }
+    channels = new LinkedHashMap<String, Index>();
+  }
+
+  /**
+   * Determine if a file looks like miniSEED or SAC, from its first bytes.
+   *
+   * @param file file
+   * @return true if the file can be mapped
+   */
+  public static boolean isSupported(final File file) {
+    final byte[] b = new byte[SAC_HEADER];
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      int n = 0;
+      while (n < b.length) {
+        final int read = in.read(b, n, b.length - n);
+        if (read < 0)
+          break;
+        n += read;
+      }
+      if (n >= SEED_HEADER && isSeedHeader(b))
+        return true;
+      return n == SAC_HEADER && getSacOrder(b) != null;
+    } catch (final IOException e) {
+      return false;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (final IOException e) {
+          // nothing to do
+        }
+      }
+    }
+  }
+
+  /**
+   * Map a file and index its records.
+   *
+   * @param file file
+   * @return the mapped file, or null if it's neither miniSEED nor SAC
+   * @throws IOException if the file can't be read
+   */
+  public static MappedDataFile open(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final MappedDataFile mdf = new MappedDataFile(file, raf.getChannel());
+      if (mdf.length < SEED_HEADER)
+        return null;
+
+      final boolean indexed = mdf.isSeed() ? mdf.indexSeed() : mdf.indexSac();
+      return indexed ? mdf : null;
+    } finally {
+      // the mapping stays valid once the channel is closed
+      raf.close();
+    }
+  }
+
+  /**
+   * Get the file.
+   *
+   * @return file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Get the length of the file when it was mapped.
+   *
+   * @return length in bytes
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Get the group channels in this file are put in.
+   *
+   * @return group
+   */
+  public String getGroup() {
+    return "Files^" + file.getName();
+  }
+
+  /**
+   * Get the channels in the file.
+   *
+   * @return channel names
+   */
+  public Set<String> getChannels() {
+    return Collections.unmodifiableSet(channels.keySet());
+  }
+
+  /**
+   * Get the span of a channel.
+   *
+   * @param channel channel name
+   * @return start and end time in j2k, or null if the channel isn't in the file
+   */
+  public double[] getTimes(final String channel) {
+    final Index index = channels.get(channel);
+    if (index == null || index.count == 0)
+      return null;
+
+    return new double[] {index.start[0], index.maxEnd};
+  }
+
+  /**
+   * Decode the samples of a channel in a span.
+   *
+   * @param channel channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return the wave, or null if there's no data in the span
+   */
+  public Wave getWave(final String channel, final double t1, final double t2) {
+    final Index index = channels.get(channel);
+    if (index == null)
+      return null;
+
+    if (sac != null)
+      return getSacWave(index, t1, t2);
+
+    final WaveBuffer buffer = new WaveBuffer(t1, t2);
+    final byte[] header = new byte[SEED_HEADER];
+    final Codec codec = new Codec();
+    for (int i = index.first(t1); i < index.count && index.start[i] < t2; i++) {
+      if (index.end[i] <= t1)
+        continue;
+
+      try {
+        appendRecord(buffer, codec, header, index.offset[i], index.start[i]);
+      } catch (final UnsupportedCompressionType e) {
+        LOGGER.debug("skipping record in {}: {}", file, e.getMessage());
+      } catch (final CodecException e) {
+        LOGGER.debug("skipping record in {}: {}", file, e.getMessage());
+      }
+    }
+
+    final Wave wave = buffer.toWave();
+    if (wave == null)
+      return null;
+
+    final Wave subset = wave.subset(Math.max(t1, wave.getStartTime()),
+        Math.min(t2, wave.getEndTime()));
+    return subset == null ? wave : subset;
+  }
+
+  private boolean isSeed() {
+    final byte[] b = new byte[SEED_HEADER];
+    read(0, b, 0, b.length);
+    return isSeedHeader(b);
+  }
+
+  /**
+   * Scan the record headers.
+   */
+  private boolean indexSeed() {
+    final byte[] b = new byte[SEED_HEADER];
+    final TimeConverter times = new TimeConverter();
+    int recordLength = 0;
+    long offset = 0;
+    while (offset + SEED_HEADER <= length) {
+      read(offset, b, 0, SEED_HEADER);
+      if (!isSeedHeader(b)) {
+        if (recordLength == 0)
+          return false;
+
+        // not a data record, or junk; step over it
+        offset += recordLength;
+        continue;
+      }
+
+      final boolean big = isBigEndian(b);
+      final int blockette = findBlockette1000(offset, b, big);
+      if (blockette < 0) {
+        if (recordLength == 0)
+          return false;
+
+        offset += recordLength;
+        continue;
+      }
+
+      recordLength = 1 << (get(offset + blockette + 6) & 0xff);
+      if (recordLength > OVERLAP || offset + recordLength > length)
+        break;
+
+      final int samples = getShort(b, 30, big) & 0xffff;
+      final double rate = getSampleRate(getShort(b, 32, big), getShort(b, 34, big));
+      if (samples > 0 && rate > 0) {
+        final double start = times.toJ2k(getShort(b, 20, big) & 0xffff,
+            getShort(b, 22, big) & 0xffff, b[24], b[25], b[26], getShort(b, 28, big) & 0xffff);
+        getIndex(getChannel(b)).add(offset, start, start + samples / rate);
+      }
+      offset += recordLength;
+    }
+
+    for (final Index index : channels.values())
+      index.sort();
+
+    LOGGER.debug("indexed {}: {} channels", file, channels.size());
+    return !channels.isEmpty();
+  }
+
+  /**
+   * Find a record's blockette 1000.
+   *
+   * @return offset in the record, or -1 if none
+   */
+  private int findBlockette1000(final long offset, final byte[] header, final boolean big) {
+    int next = getShort(header, 46, big) & 0xffff;
+    final byte[] b = new byte[4];
+    for (int n = 0; n < header[39] && next >= SEED_HEADER && next < OVERLAP; n++) {
+      if (offset + next + 8 > length)
+        return -1;
+
+      read(offset + next, b, 0, 4);
+      if ((getShort(b, 0, big) & 0xffff) == 1000)
+        return next;
+
+      next = getShort(b, 2, big) & 0xffff;
+    }
+    return -1;
+  }
+
+  private void appendRecord(final WaveBuffer buffer, final Codec codec, final byte[] header,
+      final long offset, final double start) throws UnsupportedCompressionType, CodecException {
+    read(offset, header, 0, SEED_HEADER);
+    final boolean big = isBigEndian(header);
+    final int blockette = findBlockette1000(offset, header, big);
+    if (blockette < 0)
+      return;
+
+    final int encoding = get(offset + blockette + 4);
+    final boolean swapNeeded = get(offset + blockette + 5) == 0;
+    final int recordLength = 1 << (get(offset + blockette + 6) & 0xff);
+    final int samples = getShort(header, 30, big) & 0xffff;
+    final double rate = getSampleRate(getShort(header, 32, big), getShort(header, 34, big));
+    final int begin = getShort(header, 44, big) & 0xffff;
+    if (begin < SEED_HEADER || begin >= recordLength)
+      return;
+
+    final byte[] data = new byte[recordLength - begin];
+    read(offset + begin, data, 0, data.length);
+    final DecompressedData decomp = codec.decompress(encoding, data, samples, swapNeeded);
+    final int[] decoded = decomp.getAsInt();
+    buffer.append(start, rate, decoded, Math.min(samples, decoded.length));
+  }
+
+  /**
+   * Read the SAC header; the samples follow it.
+   */
+  private boolean indexSac() {
+    if (length < SAC_HEADER)
+      return false;
+
+    final byte[] b = new byte[SAC_HEADER];
+    read(0, b, 0, SAC_HEADER);
+    final ByteOrder order = getSacOrder(b);
+    if (order == null)
+      return false;
+
+    final boolean big = order == ByteOrder.BIG_ENDIAN;
+    final int year = getInt(b, 280, big);
+    final int npts = getInt(b, 316, big);
+    final boolean even = getInt(b, 420, big) != 0;
+    final float delta = Float.intBitsToFloat(getInt(b, 0, big));
+    if (year == SAC_UNDEFINED || npts <= 0 || !even || delta <= 0
+        || SAC_HEADER + 4L * npts > length)
+      return false;
+
+    final double reference = new TimeConverter().toJ2k(year, getInt(b, 284, big),
+        getInt(b, 288, big), getInt(b, 292, big), getInt(b, 296, big),
+        getInt(b, 300, big) * 10);
+    final float begin = Float.intBitsToFloat(getInt(b, 20, big));
+    sac = new Sac(big, 1 / delta, npts);
+
+    final String channel = getChannel(getString(b, 440, 8), getString(b, 600, 8),
+        getString(b, 608, 8), getString(b, 464, 8));
+    final double start = reference + (begin == SAC_UNDEFINED ? 0 : begin);
+    getIndex(channel).add(SAC_HEADER, start, start + npts / sac.rate);
+    return true;
+  }
+
+  private Wave getSacWave(final Index index, final double t1, final double t2) {
+    final double start = index.start[0];
+    final int i1 = (int) Math.max(0, Math.floor((t1 - start) * sac.rate));
+    final int i2 = (int) Math.min(sac.npts, Math.ceil((t2 - start) * sac.rate));
+    if (i2 <= i1)
+      return null;
+
+    final int[] buffer = new int[i2 - i1];
+    final byte[] b = new byte[4];
+    for (int i = 0; i < buffer.length; i++) {
+      read(SAC_HEADER + 4L * (i1 + i), b, 0, 4);
+      buffer[i] = Math.round(Float.intBitsToFloat(getInt(b, 0, sac.big)));
+    }
+    final Wave wave = new Wave(buffer, start + i1 / sac.rate, sac.rate);
+    wave.register();
+    return wave;
+  }
+
+  private Index getIndex(final String channel) {
+    Index index = channels.get(channel);
+    if (index == null) {
+      index = new Index();
+      channels.put(channel, index);
+    }
+    return index;
+  }
+
+  private static String getChannel(final byte[] b) {
+    return getChannel(getString(b, 8, 5), getString(b, 15, 3), getString(b, 18, 2),
+        getString(b, 13, 2));
+  }
+
+  private static String getChannel(final String station, final String channel,
+      final String network, String location) {
+    if (location.equals("--") || location.equals("-12345"))
+      location = "";
+    final String net = network.equals("-12345") ? "" : network;
+    return ChannelUtil.getFormattedSCNL(station, channel, net, location).replace(' ', '$');
+  }
+
+  private byte get(final long position) {
+    final int segment = (int) (position / SEGMENT);
+    return segments[segment].get((int) (position - segment * SEGMENT));
+  }
+
+  /**
+   * Copy bytes out of the mapping. Reads never cross more than the segment overlap.
+   */
+  private void read(final long position, final byte[] b, final int off, final int len) {
+    final int segment = (int) (position / SEGMENT);
+    int at = (int) (position - segment * SEGMENT);
+    final MappedByteBuffer buffer = segments[segment];
+    for (int i = 0; i < len; i++)
+      b[off + i] = buffer.get(at++);
+  }
+
+  /**
+   * Check the fixed header of a miniSEED data record.
+   */
+  private static boolean isSeedHeader(final byte[] b) {
+    for (int i = 0; i < 6; i++) {
+      if ((b[i] < '0' || b[i] > '9') && b[i] != ' ' && b[i] != 0)
+        return false;
+    }
+    final char quality = (char) b[6];
+    if (quality != 'D' && quality != 'R' && quality != 'Q' && quality != 'M')
+      return false;
+
+    final int year = getShort(b, 20, isBigEndian(b)) & 0xffff;
+    return year >= 1900 && year <= 2100;
+  }
+
+  /**
+   * Determine the byte order of a miniSEED header from its year, as other readers do.
+   */
+  private static boolean isBigEndian(final byte[] b) {
+    final int year = getShort(b, 20, true) & 0xffff;
+    return year >= 1900 && year <= 2100;
+  }
+
+  private static ByteOrder getSacOrder(final byte[] b) {
+    if (getInt(b, 304, true) == SAC_VERSION)
+      return ByteOrder.BIG_ENDIAN;
+    else if (getInt(b, 304, false) == SAC_VERSION)
+      return ByteOrder.LITTLE_ENDIAN;
+    else
+      return null;
+  }
+
+  private static double getSampleRate(final int factor, final int multiplier) {
+    if (factor > 0) {
+      if (multiplier > 0)
+        return (double) factor * multiplier;
+      else if (multiplier < 0)
+        return -(double) factor / multiplier;
+      else
+        return factor;
+    } else if (factor < 0) {
+      if (multiplier > 0)
+        return -(double) multiplier / factor;
+      else if (multiplier < 0)
+        return 1 / ((double) factor * multiplier);
+      else
+        return -1.0 / factor;
+    }
+    return 0;
+  }
+
+  private static short getShort(final byte[] b, final int i, final boolean big) {
+    if (big)
+      return (short) (((b[i] & 0xff) << 8) | (b[i + 1] & 0xff));
+    else
+      return (short) (((b[i + 1] & 0xff) << 8) | (b[i] & 0xff));
+  }
+
+  private static int getInt(final byte[] b, final int i, final boolean big) {
+    if (big)
+      return ((b[i] & 0xff) << 24) | ((b[i + 1] & 0xff) << 16) | ((b[i + 2] & 0xff) << 8)
+          | (b[i + 3] & 0xff);
+    else
+      return ((b[i + 3] & 0xff) << 24) | ((b[i + 2] & 0xff) << 16) | ((b[i + 1] & 0xff) << 8)
+          | (b[i] & 0xff);
+  }
+
+  private static String getString(final byte[] b, final int i, final int len) {
+    return new String(b, i, len).trim();
+  }
+
+  /**
+   * Converts header times, working out the start of each day only once.
+   */
+  private static class TimeConverter {
+    private final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+    private int year;
+    private int day;
+    private double dayStart;
+
+    private double toJ2k(final int year, final int day, final int hour, final int min,
+        final int sec, final int tenthMilli) {
+      if (year != this.year || day != this.day) {
+        calendar.clear();
+        calendar.set(Calendar.YEAR, year);
+        calendar.set(Calendar.DAY_OF_YEAR, day);
+        dayStart = J2kSec.fromDate(calendar.getTime());
+        this.year = year;
+        this.day = day;
+      }
+      return dayStart + hour * 3600 + min * 60 + sec + tenthMilli / 10000.0;
+    }
+  }
+
+  /**
+   * The SAC sample layout.
+   */
+  private static class Sac {
+    private final boolean big;
+    private final double rate;
+    private final int npts;
+
+    private Sac(final boolean big, final double rate, final int npts) {
+      this.big = big;
+      this.rate = rate;
+      this.npts = npts;
+    }
+  }
+
+  /**
+   * The records of a channel, in time order.
+   */
+  private static class Index {
+    private long[] offset = new long[256];
+    private double[] start = new double[256];
+    private double[] end = new double[256];
+    private int count;
+    private double maxEnd = -Double.MAX_VALUE;
+    private boolean sorted = true;
+
+    private void add(final long o, final double t1, final double t2) {
+      if (count == offset.length) {
+        offset = Arrays.copyOf(offset, count * 2);
+        start = Arrays.copyOf(start, count * 2);
+        end = Arrays.copyOf(end, count * 2);
+      }
+      if (count > 0 && t1 < start[count - 1])
+        sorted = false;
+      offset[count] = o;
+      start[count] = t1;
+      end[count] = t2;
+      count++;
+      maxEnd = Math.max(maxEnd, t2);
+    }
+
+    private void sort() {
+      if (sorted)
+        return;
+
+      final Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++)
+        order[i] = i;
+      Arrays.sort(order, new Comparator<Integer>() {
+        public int compare(final Integer a, final Integer b) {
+          return Double.compare(start[a], start[b]);
+        }
+      });
+
+      final long[] o = new long[count];
+      final double[] s = new double[count];
+      final double[] e = new double[count];
+      for (int i = 0; i < count; i++) {
+        o[i] = offset[order[i]];
+        s[i] = start[order[i]];
+        e[i] = end[order[i]];
+      }
+      offset = o;
+      start = s;
+      end = e;
+      sorted = true;
+    }
+
+    /**
+     * Find the first record which may overlap a time.
+     */
+    private int first(final double t) {
+      int i = Arrays.binarySearch(start, 0, count, t);
+      if (i < 0)
+        i = -i - 1;
+      // step back over records starting earlier but running past t
+      while (i > 0 && end[i - 1] > t)
+        i--;
+      return i;
+    }
+  }
+}
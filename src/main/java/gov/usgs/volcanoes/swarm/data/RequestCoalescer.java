@@ -0,0 +1,229 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lets concurrent requests for the same channel share upstream fetches. A request which overlaps
+ * one already in flight waits for it, then fetches only the parts no earlier request covered and
+ * joins them with what the earlier requests brought back, so each instant is fetched at most once
+ * whether or not the source caches. Flights of different threads never overlap: a request only
+ * takes off once nothing else is in flight over its span.
+ *
+ * <p>A thread never waits on its own requests, so a fetch may request sub-spans of its own span,
+ * as the helicorder cache does when filling gaps. A thread waiting on others has nothing in
+ * flight, so requests can't wait on each other.
+ *
+ * @param <T> data type
+ */
+public class RequestCoalescer<T> {
+
+  /**
+   * A request to coalesce.
+   *
+   * @param <T> data type
+   */
+  public interface Request<T> {
+    /**
+     * Get a span from the cache.
+     *
+     * @param t1 start time in j2k
+     * @param t2 end time in j2k
+     * @return data covering the whole span, or null if it isn't all cached
+     */
+    public T getCached(double t1, double t2);
+
+    /**
+     * Fetch a span from upstream, caching it if the source caches.
+     *
+     * @param t1 start time in j2k
+     * @param t2 end time in j2k
+     * @return data, or null if none
+     */
+    public T fetch(double t1, double t2);
+  }
+
+  /**
+   * Joins the parts of a span fetched by different requests.
+   *
+   * @param <T> data type
+   */
+  public interface Joiner<T> {
+    /**
+     * Join parts into one.
+     *
+     * @param parts parts in no particular order, which may extend beyond the span
+     * @param t1 start time in j2k
+     * @param t2 end time in j2k
+     * @return joined data, or null if the parts can't be joined
+     */
+    public T join(List<T> parts, double t1, double t2);
+  }
+
+  /** requests in flight, by key. */
+  private final Map<String, List<Flight<T>>> flights;
+
+  private final Joiner<T> joiner;
+
+  /**
+   * Constructor.
+   *
+   * @param joiner how to join parts of a span
+   */
+  public RequestCoalescer(final Joiner<T> joiner) {
+    this.joiner = joiner;
+    flights = new HashMap<String, List<Flight<T>>>();
+  }
+
+  /**
+   * Get a span, sharing fetches with concurrent requests for the same key.
+   *
+   * @param key channel key, including anything else that distinguishes requests
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param request how to read the cache and fetch
+   * @return data, or null if none
+   */
+  public T get(final String key, final double t1, final double t2, final Request<T> request) {
+    T result = request.getCached(t1, t2);
+    if (result != null)
+      return result;
+
+    final Flight<T> mine = new Flight<T>(t1, t2);
+    final List<Flight<T>> ahead;
+    synchronized (this) {
+      ahead = getOverlapping(key, t1, t2);
+      if (ahead.isEmpty())
+        add(key, mine);
+    }
+
+    if (ahead.isEmpty())
+      return fly(key, mine, request);
+
+    final List<T> parts = new ArrayList<T>();
+    for (final Flight<T> flight : ahead) {
+      final T shared = flight.await();
+      if (shared != null && flight.t1 == t1 && flight.t2 == t2)
+        return shared;
+      if (shared != null)
+        parts.add(shared);
+    }
+
+    result = request.getCached(t1, t2);
+    if (result != null)
+      return result;
+
+    // fetch what the requests ahead didn't cover; each part waits on anything that has taken off
+    // over it since
+    for (final double[] span : subtract(t1, t2, ahead)) {
+      final T part = get(key, span[0], span[1], request);
+      if (part != null)
+        parts.add(part);
+    }
+
+    result = request.getCached(t1, t2);
+    if (result != null || parts.isEmpty())
+      return result;
+
+    return joiner.join(parts, t1, t2);
+  }
+
+  private T fly(final String key, final Flight<T> flight, final Request<T> request) {
+    try {
+      flight.result = request.fetch(flight.t1, flight.t2);
+      return flight.result;
+    } finally {
+      synchronized (this) {
+        final List<Flight<T>> list = flights.get(key);
+        list.remove(flight);
+        if (list.isEmpty())
+          flights.remove(key);
+      }
+      flight.land();
+    }
+  }
+
+  private void add(final String key, final Flight<T> flight) {
+    List<Flight<T>> list = flights.get(key);
+    if (list == null) {
+      list = new ArrayList<Flight<T>>();
+      flights.put(key, list);
+    }
+    list.add(flight);
+  }
+
+  /**
+   * Find other threads' flights overlapping a span. Caller must hold the lock.
+   */
+  private List<Flight<T>> getOverlapping(final String key, final double t1, final double t2) {
+    final List<Flight<T>> result = new ArrayList<Flight<T>>();
+    final List<Flight<T>> list = flights.get(key);
+    if (list == null)
+      return result;
+
+    final Thread current = Thread.currentThread();
+    for (final Flight<T> flight : list) {
+      if (flight.thread != current && flight.t1 < t2 && flight.t2 > t1)
+        result.add(flight);
+    }
+    return result;
+  }
+
+  /**
+   * Get the parts of a span not covered by any of a list of flights.
+   */
+  private static <T> List<double[]> subtract(final double t1, final double t2,
+      final List<Flight<T>> covered) {
+    final Coverage coverage = new Coverage(0);
+    for (final Flight<T> flight : covered)
+      coverage.add(flight.t1, flight.t2);
+    return coverage.getMissing(t1, t2);
+  }
+
+  /**
+   * One upstream fetch.
+   */
+  private static class Flight<T> {
+    private final double t1;
+    private final double t2;
+    private final Thread thread;
+    private boolean landed;
+    private volatile T result;
+
+    private Flight(final double t1, final double t2) {
+      this.t1 = t1;
+      this.t2 = t2;
+      thread = Thread.currentThread();
+    }
+
+    private synchronized void land() {
+      landed = true;
+      notifyAll();
+    }
+
+    /**
+     * Wait for the fetch to finish.
+     *
+     * @return its result, or null if it failed, found nothing or the wait was interrupted
+     */
+    private synchronized T await() {
+      while (!landed) {
+        try {
+          wait();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+      }
+      return result;
+    }
+  }
+}
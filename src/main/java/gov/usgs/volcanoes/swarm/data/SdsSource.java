@@ -0,0 +1,520 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.plot.data.HelicorderData;
+import gov.usgs.plot.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.swarm.ChannelInfo;
+import gov.usgs.volcanoes.swarm.ChannelUtil;
+import gov.usgs.volcanoes.swarm.data.DataSourceMetrics.DataType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A source reading a SeisComP Data Structure (SDS) archive of miniSEED day files, laid out as
+ * <code>YEAR/NET/STA/CHAN.D/NET.STA.LOC.CHAN.D.YEAR.DOY</code>.
+ *
+ * <p>Channels are found from the directory layout without opening any files. The layout is
+ * remembered, so listing channels again walks only the current year, and lists only the channel
+ * directories which have changed. A request is
+ * resolved to the day files it spans, which are read in place as {@link MappedDataFile}s, in
+ * parallel. Helicorders are built a day file at a time, and the helicorders of completed days are
+ * kept in the cache.
+ */
+public class SdsSource extends SeismicDataSource {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SdsSource.class);
+
+  /** seconds in a day. */
+  private static final double DAY = 24 * 60 * 60;
+
+  /** how far a record in a day file may run into the next day, in seconds. */
+  private static final double MAX_RECORD_SPAN = 60 * 60;
+
+  /** span of the waves day file helicorders are built from, in seconds. */
+  private static final double SUMMARY_SPAN = 60 * 60;
+
+  /** day files ending more recently than this may still grow, in seconds. */
+  private static final double OPEN_DAY_AGE = 10 * 60;
+
+  /** number of day files kept open. */
+  private static final int MAX_OPEN_FILES = 64;
+
+  /** number of day files read at once. */
+  private static final int MAX_PARALLEL_READS =
+      Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  /** Reads day files. */
+  private static final ExecutorService READERS =
+      Executors.newFixedThreadPool(MAX_PARALLEL_READS, new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+          final Thread t = new Thread(r, "SDS reader");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+  private File root;
+
+  /** day files read in place, least recently used first. */
+  private final Map<File, MappedDataFile> dayFiles;
+
+  /** channels found in each year directory. */
+  private final Map<File, YearScan> years;
+
+  // explicit default constructor required for reflection
+  public SdsSource() {
+    dayFiles = new LinkedHashMap<File, MappedDataFile>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<File, MappedDataFile> eldest) {
+        return size() > MAX_OPEN_FILES;
+      }
+    };
+    years = new HashMap<File, YearScan>();
+  }
+
+  /**
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#parse(java.lang.String)
+   */
+  public void parse(final String params) {
+    root = new File(params);
+  }
+
+  /**
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#toConfigString()
+   */
+  public String toConfigString() {
+    final String typeString = DataSourceType.getShortName(this.getClass());
+    return String.format("%s;%s:%s", name, typeString, root.getPath());
+  }
+
+  /**
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#close()
+   */
+  public void close() {
+    synchronized (dayFiles) {
+      dayFiles.clear();
+    }
+  }
+
+  /**
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getChannels()
+   */
+  public List<String> getChannels() {
+    // NET.STA.LOC.CHAN of every day file name
+    final Set<String> found = new TreeSet<String>();
+    final int thisYear = Calendar.getInstance(TimeZone.getTimeZone("GMT")).get(Calendar.YEAR);
+    synchronized (years) {
+      final Set<File> seen = new HashSet<File>();
+      for (final File year : listDirectories(root)) {
+        if (!year.getName().matches("\\d{4}")) {
+          continue;
+        }
+        seen.add(year);
+        YearScan scan = years.get(year);
+        if (scan == null) {
+          scan = new YearScan();
+          years.put(year, scan);
+        }
+        // past years are walked again only if a network is added or removed
+        final long modified = year.lastModified();
+        if (Integer.parseInt(year.getName()) >= thisYear || scan.modified != modified) {
+          scan.modified = modified;
+          scan.scan(year);
+        }
+        scan.addChannels(found);
+      }
+      years.keySet().retainAll(seen);
+    }
+
+    final List<String> channels = new ArrayList<String>();
+    for (final String nslc : found) {
+      final String[] parts = nslc.split("\\.", -1);
+      ChannelUtil.addChannel(channels,
+          new ChannelInfo(parts[1], parts[3], parts[0], parts[2], Double.NaN, Double.NaN, null),
+          this);
+    }
+    if (channels.isEmpty()) {
+      LOGGER.warn("no channels found in SDS archive {}", root);
+      return Collections.emptyList();
+    }
+    ChannelUtil.assignChannels(channels, this);
+    return Collections.unmodifiableList(channels);
+  }
+
+  private static List<File> listDirectories(final File dir) {
+    final List<File> dirs = new ArrayList<File>();
+    final File[] files = dir.listFiles();
+    if (files != null) {
+      for (final File f : files) {
+        if (f.isDirectory()) {
+          dirs.add(f);
+        }
+      }
+    }
+    return dirs;
+  }
+
+  /**
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWave(java.lang.String, double, double)
+   */
+  public Wave getWave(final String station, double t1, double t2) {
+    return waveRequests.get(getRequestKey(station), t1, t2, new RequestCoalescer.Request<Wave>() {
+      public Wave getCached(double start, double end) {
+        if (!useCache) {
+          return null;
+        }
+        return CachedDataSource.getInstance().getWave(station, start, end);
+      }
+
+      public Wave fetch(double start, double end) {
+        return fetchWave(station, start, end);
+      }
+    });
+  }
+
+  private Wave fetchWave(final String station, final double t1, final double t2) {
+    final Channel channel = new Channel(station);
+    final List<Callable<Wave>> reads = new ArrayList<Callable<Wave>>();
+    for (final Day day : getDays(t1 - MAX_RECORD_SPAN, t2)) {
+      reads.add(new Callable<Wave>() {
+        public Wave call() throws IOException {
+          final MappedDataFile file = getDayFile(channel, day);
+          return file == null ? null : file.getWave(channel.key, t1, t2);
+        }
+      });
+    }
+
+    final long start = System.nanoTime();
+    final List<Wave> parts = new ArrayList<Wave>();
+    double minT = 1E300;
+    double maxT = -1E300;
+    for (final Wave part : readAll(reads)) {
+      if (part != null) {
+        parts.add(part);
+        minT = Math.min(minT, part.getStartTime());
+        maxT = Math.max(maxT, part.getEndTime());
+      }
+    }
+    DataSourceMetrics.getInstance().requestTimed(this, DataType.WAVE, start);
+
+    if (parts.isEmpty()) {
+      return null;
+    }
+
+    Wave wave = parts.get(0);
+    if (parts.size() > 1) {
+      wave = Wave.join(parts, minT, maxT);
+      if (wave == null) {
+        return null;
+      }
+      wave = wave.subset(Math.max(t1, minT), Math.min(t2, maxT));
+    }
+
+    if (useCache) {
+      CachedDataSource.getInstance().putWave(station, wave);
+    }
+    return wave;
+  }
+
+  /**
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getHelicorder(java.lang.String, double,
+   * double, gov.usgs.volcanoes.swarm.data.GulperListener)
+   */
+  public HelicorderData getHelicorder(final String station, double t1, double t2,
+      GulperListener gl) {
+    return helicorderRequests.get(getRequestKey(station), t1, t2,
+        new RequestCoalescer.Request<HelicorderData>() {
+          public HelicorderData getCached(double start, double end) {
+            if (!useCache) {
+              return null;
+            }
+            CachedDataSource cache = CachedDataSource.getInstance();
+            if (!cache.getMissingHelicorder(station, start, end).isEmpty()) {
+              return null;
+            }
+            return cache.getHelicorder(station, start, end, (GulperListener) null);
+          }
+
+          public HelicorderData fetch(double start, double end) {
+            return fetchHelicorder(station, start, end);
+          }
+        });
+  }
+
+  private HelicorderData fetchHelicorder(final String station, final double t1,
+      final double t2) {
+    final Channel channel = new Channel(station);
+    final List<Callable<HelicorderData>> summaries = new ArrayList<Callable<HelicorderData>>();
+    for (final Day day : getDays(t1, t2)) {
+      summaries.add(new Callable<HelicorderData>() {
+        public HelicorderData call() throws IOException {
+          return getSummary(station, channel, day);
+        }
+      });
+    }
+
+    final long start = System.nanoTime();
+    HelicorderData hd = null;
+    for (final HelicorderData part : readAll(summaries)) {
+      if (part == null || part.rows() == 0) {
+        continue;
+      }
+      hd = hd == null ? part : hd.combine(part);
+    }
+    DataSourceMetrics.getInstance().requestTimed(this, DataType.HELICORDER, start);
+
+    if (hd == null) {
+      return null;
+    }
+    final HelicorderData subset = hd.subset(t1, t2);
+    return subset == null || subset.rows() == 0 ? null : subset;
+  }
+
+  /**
+   * Get the helicorder of a day file, building it if it isn't cached. Helicorders of days which
+   * have ended are cached, with the spans they have no data for marked empty so they aren't built
+   * again. A day file which can't be read throws before anything is marked, so it is tried again.
+   *
+   * @throws IOException if the day file can't be read
+   */
+  private HelicorderData getSummary(final String station, final Channel channel, final Day day)
+      throws IOException {
+    final CachedDataSource cache = CachedDataSource.getInstance();
+    final double end = day.start + DAY;
+    if (useCache && cache.getMissingHelicorder(station, day.start, end).isEmpty()) {
+      return cache.getHelicorder(station, day.start, end, (GulperListener) null);
+    }
+
+    HelicorderData hd = null;
+    final MappedDataFile file = getDayFile(channel, day);
+    final double[] ct = file == null ? null : file.getTimes(channel.key);
+    if (ct != null) {
+      for (double t = ct[0]; t < ct[1]; t += SUMMARY_SPAN) {
+        final Wave wave = file.getWave(channel.key, t, Math.min(t + SUMMARY_SPAN, ct[1]));
+        final HelicorderData part = wave == null ? null : HelicorderAggregator.toHelicorder(wave);
+        if (part != null) {
+          hd = hd == null ? part : hd.combine(part);
+        }
+      }
+    }
+
+    if (useCache && end < J2kSec.now() - OPEN_DAY_AGE) {
+      if (hd != null) {
+        cache.putHelicorder(station, hd);
+      }
+      for (final double[] gap : cache.getMissingHelicorder(station, day.start, end)) {
+        cache.putEmptyHelicorder(station, gap[0], gap[1]);
+      }
+    }
+    return hd;
+  }
+
+  /**
+   * Run reads on the reader threads, or on this one if there is only one.
+   *
+   * @return results in the order of the reads, null where a read failed
+   */
+  private <T> List<T> readAll(final List<Callable<T>> reads) {
+    final List<T> results = new ArrayList<T>();
+    if (reads.size() == 1) {
+      try {
+        results.add(reads.get(0).call());
+      } catch (final Exception e) {
+        LOGGER.warn("could not read SDS archive {}", root, e);
+        results.add(null);
+      }
+      return results;
+    }
+
+    try {
+      for (final Future<T> future : READERS.invokeAll(reads)) {
+        try {
+          results.add(future.get());
+        } catch (final ExecutionException e) {
+          LOGGER.warn("could not read SDS archive {}", root, e.getCause());
+          results.add(null);
+        }
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return results;
+  }
+
+  /**
+   * Get a day file read in place. A file which has changed since it was opened is opened again.
+   *
+   * @return the file, or null if there is none
+   * @throws IOException if the file is there but can't be read
+   */
+  private MappedDataFile getDayFile(final Channel channel, final Day day) throws IOException {
+    final File f = new File(root, String.format("%d/%s/%s/%s.D/%s.%s.%s.%s.D.%d.%03d", day.year,
+        channel.network, channel.station, channel.channel, channel.network, channel.station,
+        channel.location, channel.channel, day.year, day.dayOfYear));
+
+    MappedDataFile file;
+    synchronized (dayFiles) {
+      file = dayFiles.get(f);
+    }
+    if (file != null && file.getLength() == f.length()) {
+      return file;
+    }
+    if (!f.isFile()) {
+      return null;
+    }
+
+    file = MappedDataFile.open(f);
+    if (file == null) {
+      throw new IOException("not a miniSEED file: " + f);
+    }
+    synchronized (dayFiles) {
+      dayFiles.put(f, file);
+    }
+    return file;
+  }
+
+  /**
+   * Get the days a span falls in.
+   */
+  private static List<Day> getDays(final double t1, final double t2) {
+    final Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+    cal.setTime(J2kSec.asDate(t1));
+    cal.set(Calendar.HOUR_OF_DAY, 0);
+    cal.set(Calendar.MINUTE, 0);
+    cal.set(Calendar.SECOND, 0);
+    cal.set(Calendar.MILLISECOND, 0);
+
+    final List<Day> days = new ArrayList<Day>();
+    double start = J2kSec.fromDate(cal.getTime());
+    while (start < t2) {
+      days.add(new Day(cal.get(Calendar.YEAR), cal.get(Calendar.DAY_OF_YEAR), start));
+      cal.add(Calendar.DAY_OF_YEAR, 1);
+      start = J2kSec.fromDate(cal.getTime());
+    }
+    return days;
+  }
+
+  /**
+   * A day of the archive.
+   */
+  private static class Day {
+    private final int year;
+    private final int dayOfYear;
+    private final double start;
+
+    private Day(final int year, final int dayOfYear, final double start) {
+      this.year = year;
+      this.dayOfYear = dayOfYear;
+      this.start = start;
+    }
+  }
+
+  /**
+   * The channels found in a year directory, by channel directory. A channel directory is listed
+   * again only when its modification time changes.
+   */
+  private static class YearScan {
+    private final Map<File, ChannelDirectory> channelDirs = new HashMap<File, ChannelDirectory>();
+    private long modified;
+
+    private void scan(final File year) {
+      final Set<File> seen = new HashSet<File>();
+      for (final File network : listDirectories(year)) {
+        for (final File station : listDirectories(network)) {
+          for (final File channel : listDirectories(station)) {
+            if (!channel.getName().endsWith(".D")) {
+              continue;
+            }
+            seen.add(channel);
+            final long channelModified = channel.lastModified();
+            ChannelDirectory dir = channelDirs.get(channel);
+            if (dir == null || dir.modified != channelModified) {
+              dir = new ChannelDirectory(channel, channelModified);
+              channelDirs.put(channel, dir);
+            }
+          }
+        }
+      }
+      channelDirs.keySet().retainAll(seen);
+    }
+
+    private void addChannels(final Set<String> found) {
+      for (final ChannelDirectory dir : channelDirs.values()) {
+        found.addAll(dir.channels);
+      }
+    }
+  }
+
+  /**
+   * The channels of the day files in a channel directory.
+   */
+  private static class ChannelDirectory {
+    private final long modified;
+    private final Set<String> channels;
+
+    private ChannelDirectory(final File dir, final long modified) {
+      this.modified = modified;
+      channels = new HashSet<String>();
+      final String[] names = dir.list();
+      if (names == null) {
+        return;
+      }
+      for (final String dayFile : names) {
+        final String[] parts = dayFile.split("\\.", -1);
+        if (parts.length == 7 && parts[4].equals("D")) {
+          channels.add(parts[0] + "." + parts[1] + "." + parts[2] + "." + parts[3]);
+        }
+      }
+    }
+  }
+
+  /**
+   * The codes of a channel, as they appear in day file names.
+   */
+  private static class Channel {
+    private final String station;
+    private final String channel;
+    private final String network;
+    private final String location;
+
+    /** name of the channel in a mapped file. */
+    private final String key;
+
+    private Channel(final String scnl) {
+      final ChannelInfo ci = new ChannelInfo(scnl);
+      station = ci.getStation();
+      channel = ci.getChannel();
+      network = ci.getNetwork();
+      location = ci.getLocation().equals("--") ? "" : ci.getLocation();
+      key = ChannelUtil.getFormattedSCNL(station, channel, network, location).replace(' ', '$');
+    }
+  }
+}
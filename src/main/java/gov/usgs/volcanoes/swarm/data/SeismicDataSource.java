@@ -1,6 +1,7 @@
 package gov.usgs.volcanoes.swarm.data;
 
 import gov.usgs.plot.data.HelicorderData;
+import gov.usgs.plot.data.RSAMData;
 import gov.usgs.plot.data.Wave;
 
 import java.util.List;
@@ -13,6 +14,68 @@ import javax.swing.event.EventListenerList;
  * @author Dan Cervelli
  */
 public abstract class SeismicDataSource {
+  /**
+   * Upstream requests in flight. These are shared by all sources, so the copies of a source made
+   * for gulpers coalesce with the original.
+   */
+  protected static final RequestCoalescer<Wave> waveRequests =
+      new RequestCoalescer<Wave>(new RequestCoalescer.Joiner<Wave>() {
+        public Wave join(List<Wave> parts, double t1, double t2) {
+          double minT = Double.MAX_VALUE;
+          double maxT = -Double.MAX_VALUE;
+          for (Wave part : parts) {
+            minT = Math.min(minT, part.getStartTime());
+            maxT = Math.max(maxT, part.getEndTime());
+          }
+          final Wave wave = Wave.join(parts, minT, maxT);
+          return wave == null ? null : wave.subset(Math.max(t1, minT), Math.min(t2, maxT));
+        }
+      });
+  protected static final RequestCoalescer<HelicorderData> helicorderRequests =
+      new RequestCoalescer<HelicorderData>(new RequestCoalescer.Joiner<HelicorderData>() {
+        public HelicorderData join(List<HelicorderData> parts, double t1, double t2) {
+          HelicorderData hd = parts.get(0);
+          for (int i = 1; i < parts.size(); i++) {
+            hd = hd.combine(parts.get(i));
+          }
+          return hd.subset(t1, t2);
+        }
+      });
+  protected static final RequestCoalescer<RSAMData> rsamRequests =
+      new RequestCoalescer<RSAMData>(new RequestCoalescer.Joiner<RSAMData>() {
+        public RSAMData join(List<RSAMData> parts, double t1, double t2) {
+          RSAMData rd = parts.get(0);
+          for (int i = 1; i < parts.size(); i++) {
+            rd = rd.combine(parts.get(i));
+          }
+          return rd;
+        }
+      });
+
+  /**
+   * Bytes fetched upstream by each thread since last taken, or -1 if nothing was fetched. Gulpers
+   * read this to tell chunks they fetched from chunks served by the cache or by another thread's
+   * request.
+   */
+  private static final ThreadLocal<long[]> transferred = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[] {-1};
+    }
+  };
+
+  /**
+   * Whether a fetch upstream failed on each thread since last taken. Sources return null both
+   * when there is no data and when the server couldn't be reached, so gulpers read this to tell
+   * the two apart.
+   */
+  private static final ThreadLocal<boolean[]> failed = new ThreadLocal<boolean[]>() {
+    @Override
+    protected boolean[] initialValue() {
+      return new boolean[1];
+    }
+  };
+
   protected String name = "Unnamed Data Source";
   protected boolean storeInUserConfig = true;
   protected boolean useCache = true;
@@ -39,11 +102,109 @@ public abstract class SeismicDataSource {
    */
   public abstract Wave getWave(String station, double t1, double t2);
 
+  /**
+   * Get a wave for display without copying it out of the cache. The wave returned may be shared
+   * with the cache and may extend beyond the requested span, so callers must treat it as read only
+   * and slice it, for example with a <code>SliceWave</code>. Copy it with
+   * <code>new Wave(wave)</code> before changing it.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return wave covering at least the requested span if possible, otherwise as getWave
+   */
+  public Wave getWaveView(String station, double t1, double t2) {
+    if (useCache) {
+      final Wave wave = CachedDataSource.getInstance().getSharedWave(station, t1, t2);
+      if (wave != null) {
+        return wave;
+      }
+    }
+    return getWave(station, t1, t2);
+  }
+
+  /**
+   * Fetch the same span for several channels ahead of the getWave calls which will read them, so
+   * those calls are served from the cache. Sources which can ask for many channels in one request
+   * override this; by default nothing is fetched.
+   * 
+   * @param stations channel names
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   */
+  public void prefetchWaves(List<String> stations, double t1, double t2) {}
+
   public abstract HelicorderData getHelicorder(String station, double t1, double t2,
       GulperListener gl);
 
+  /**
+   * Get a coarse summary of the helicorder data already fetched for a channel, for drawing at a
+   * resolution of many seconds per pixel.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param resolution seconds per pixel
+   * @return helicorder data with one row for each bucket of at most resolution seconds, or null
+   *         if the one second data should be used
+   */
+  public HelicorderData getHelicorderSummary(String station, double t1, double t2,
+      double resolution) {
+    if (useCache) {
+      return CachedDataSource.getInstance().getHelicorderSummary(station, t1, t2, resolution);
+    } else {
+      return null;
+    }
+  }
+
   public abstract String toConfigString();
 
+  /**
+   * Note a fetch made upstream on the calling thread. Sources call this from their fetch path
+   * once the server has answered, with the size of the transfer, or of the data received where
+   * the client hides the transfer.
+   * 
+   * @param wave wave received, null if none
+   */
+  protected static void transferred(Wave wave) {
+    final long[] count = transferred.get();
+    count[0] = Math.max(count[0], 0) + (wave == null ? 0 : wave.getMemorySize());
+  }
+
+  /**
+   * Get the bytes fetched upstream on the calling thread since last asked, and start counting
+   * again.
+   * 
+   * @return bytes fetched, or -1 if nothing was fetched
+   */
+  public static long takeTransferred() {
+    final long[] count = transferred.get();
+    final long bytes = count[0];
+    count[0] = -1;
+    return bytes;
+  }
+
+  /**
+   * Note a fetch on the calling thread which failed rather than found no data, such as one which
+   * timed out or lost its connection. Sources call this from their fetch path before returning
+   * null.
+   */
+  protected static void transferFailed() {
+    failed.get()[0] = true;
+  }
+
+  /**
+   * Get whether a fetch upstream failed on the calling thread since last asked, and start again.
+   * 
+   * @return true if a fetch failed
+   */
+  public static boolean takeFailed() {
+    final boolean[] flag = failed.get();
+    final boolean f = flag[0];
+    flag[0] = false;
+    return f;
+  }
+
   protected SeismicDataSource() {
     // explicit default constructor needed for reflection
   }
@@ -159,6 +320,16 @@ public abstract class SeismicDataSource {
     return name;
   }
 
+  /**
+   * Gets the key coalescing upstream requests for a channel of this source.
+   * 
+   * @param station channel name
+   * @return the key
+   */
+  protected String getRequestKey(String station) {
+    return name + ":" + station;
+  }
+
   public void establish() {}
 
   public int getMinimumRefreshInterval() {
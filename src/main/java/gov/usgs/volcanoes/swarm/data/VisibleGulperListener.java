@@ -0,0 +1,21 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+/**
+ * A gulper listener which draws the data it is sent and can say which part is on screen, so the
+ * scheduler can fetch that part first.
+ */
+public interface VisibleGulperListener extends GulperListener {
+
+  /**
+   * Get the span drawn on screen. Called from scheduler threads.
+   *
+   * @return start and end in j2k, or null if nothing is on screen
+   */
+  public double[] getVisibleSpan();
+}
@@ -9,13 +9,16 @@ import gov.usgs.plot.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.Metadata;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
+import gov.usgs.volcanoes.swarm.data.DataSourceMetrics.DataType;
 import gov.usgs.volcanoes.winston.Channel;
 import gov.usgs.volcanoes.winston.Instrument;
 import gov.usgs.volcanoes.winston.legacyServer.WWSClient;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 /**
@@ -27,8 +30,13 @@ import java.util.StringTokenizer;
  * @author Dan Cervelli
  */
 public class WWSSource extends SeismicDataSource implements RsamSource {
+  /** connection pools by server and port, shared by all sources using a server. */
+  private static final Map<String, SharedPool> pools = new HashMap<String, SharedPool>();
+  private static int maxConnections = ConnectionPool.DEFAULT_MAX_CONNECTIONS;
+  private static long idleTimeout = ConnectionPool.DEFAULT_IDLE_TIMEOUT;
+
   private String params;
-  private WWSClient winstonClient;
+  private ConnectionPool<WWSClient> pool;
   private int timeout = 2000;
   private boolean compress = false;
   private int protocolVersion = 1;
@@ -58,16 +66,97 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#parse(java.lang.String)
    */
   public void parse(String params) {
+    close();
     this.params = params;
     String[] ss = params.split(":");
     server = ss[0];
     port = Integer.parseInt(ss[1]);
     timeout = Integer.parseInt(ss[2]);
     compress = ss[3].equals("1");
+  }
+
+  /**
+   * Set the limits of the connection pools to all Winston servers.
+   * 
+   * @param max connections open at once to one server
+   * @param idle time after which an idle connection is closed, in ms
+   */
+  public static synchronized void setPoolLimits(int max, long idle) {
+    maxConnections = max;
+    idleTimeout = idle;
+    for (SharedPool p : pools.values()) {
+      p.pool.setLimits(max, idle);
+    }
+  }
+
+  /**
+   * Take up the pool for a server, creating it if no source is using it.
+   */
+  private static synchronized ConnectionPool<WWSClient> acquirePool(final String server,
+      final int port) {
+    String key = server + ":" + port;
+    SharedPool p = pools.get(key);
+    if (p == null) {
+      ConnectionPool<WWSClient> pool = new ConnectionPool<WWSClient>() {
+        protected WWSClient create() {
+          return new WWSClient(server, port);
+        }
+
+        protected boolean isHealthy(WWSClient client) {
+          return client.connected();
+        }
 
-    winstonClient = new WWSClient(server, port);
+        protected void destroy(WWSClient client) {
+          client.close();
+        }
+      };
+      pool.setLimits(maxConnections, idleTimeout);
+      p = new SharedPool(pool);
+      pools.put(key, p);
+    }
+    p.sources++;
+    return p.pool;
+  }
 
-    setTimeout(timeout);
+  /**
+   * Give up the pool for a server, closing it if no other source is using it.
+   */
+  private static void releasePool(String server, int port, ConnectionPool<WWSClient> pool) {
+    synchronized (WWSSource.class) {
+      String key = server + ":" + port;
+      SharedPool p = pools.get(key);
+      if (p != null && p.pool == pool) {
+        if (--p.sources > 0) {
+          return;
+        }
+        pools.remove(key);
+      }
+    }
+    pool.close();
+  }
+
+  /**
+   * Get the pool for this source's server, taking it up if the source hasn't yet or was closed.
+   */
+  private synchronized ConnectionPool<WWSClient> getPool() {
+    if (pool == null) {
+      pool = acquirePool(server, port);
+    }
+    return pool;
+  }
+
+  /**
+   * Borrow a client from a pool. It must be given back to the pool after use.
+   * 
+   * @param pool this source's pool
+   * @return client, or null if none is available
+   */
+  private WWSClient borrowClient(ConnectionPool<WWSClient> pool) {
+    WWSClient client = pool.borrow();
+    if (client != null) {
+      client.setTimeout(timeout);
+    }
+    return client;
   }
 
   /**
@@ -83,8 +172,19 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    */
   public void establish() {
     if (!established) {
-      protocolVersion = winstonClient.getProtocolVersion();
-      established = true;
+      ConnectionPool<WWSClient> pool = getPool();
+      WWSClient client = borrowClient(pool);
+      if (client == null) {
+        return;
+      }
+      boolean healthy = false;
+      try {
+        protocolVersion = client.getProtocolVersion();
+        established = true;
+        healthy = true;
+      } finally {
+        pool.release(client, healthy);
+      }
     }
   }
 
@@ -101,16 +201,24 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    * Set Winston Client time out.
    * @param to time out in milliseconds
    */
-  public synchronized void setTimeout(int to) {
-    winstonClient.setTimeout(to);
+  public void setTimeout(int to) {
+    timeout = to;
   }
 
   /**
+   * Give up this source's pool. Gulpers close their copies of a source when done, so the pool is
+   * closed only once the last source using the server lets it go.
+   * 
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#close()
    */
   public void close() {
-    if (winstonClient != null) {
-      winstonClient.close();
+    ConnectionPool<WWSClient> p;
+    synchronized (this) {
+      p = pool;
+      pool = null;
+    }
+    if (p != null) {
+      releasePool(server, port, p);
     }
   }
 
@@ -160,36 +268,62 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
   /**
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWave(java.lang.String, double, double)
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
-    Wave wave = null;
-    if (useCache) {
-      CachedDataSource cache = CachedDataSource.getInstance();
-      wave = cache.getWave(station, t1, t2);
-    }
+  public Wave getWave(final String station, double t1, double t2) {
+    return waveRequests.get(getRequestKey(station), t1, t2, new RequestCoalescer.Request<Wave>() {
+      public Wave getCached(double start, double end) {
+        if (!useCache) {
+          return null;
+        }
+        return CachedDataSource.getInstance().getWave(station, start, end);
+      }
 
-    if (wave == null) {
-      String[] scnl = parseScnl(station);
+      public Wave fetch(double start, double end) {
+        return fetchWave(station, start, end);
+      }
+    });
+  }
+
+  private Wave fetchWave(String station, double t1, double t2) {
+    String[] scnl = parseScnl(station);
+    ConnectionPool<WWSClient> pool = getPool();
+    WWSClient client = borrowClient(pool);
+    if (client == null) {
+      transferFailed();
+      return null;
+    }
+    Wave wave;
+    boolean healthy = false;
+    try {
+      final long start = System.nanoTime();
       if (protocolVersion == 1) {
-        wave = winstonClient.getRawData(scnl[0], scnl[1], scnl[2], scnl[3], J2kSec.asEpoch(t1),
+        wave = client.getRawData(scnl[0], scnl[1], scnl[2], scnl[3], J2kSec.asEpoch(t1),
             J2kSec.asEpoch(t2));
         if (wave != null) {
           wave.convertToJ2K();
         }
       } else {
-        wave = winstonClient.getWave(scnl[0], scnl[1], scnl[2], scnl[3], t1, t2, compress);
+        wave = client.getWave(scnl[0], scnl[1], scnl[2], scnl[3], t1, t2, compress);
       }
-
-      if (wave == null) {
-        return null;
+      DataSourceMetrics.getInstance().requestTimed(this, DataType.WAVE, start);
+      transferred(wave);
+      // the client returns null both for no data and for a lost connection, and drops its socket
+      // on a failed read, so no wave and no connection is a failure
+      healthy = wave != null || client.connected();
+      if (!healthy) {
+        transferFailed();
       }
+    } finally {
+      pool.release(client, healthy);
+    }
 
-      wave.register();
-      if (useCache) {
-        CachedDataSource cache = CachedDataSource.getInstance();
-        cache.putWave(station, wave);
-      }
-    } else {
-      // System.out.println("cached");
+    if (wave == null) {
+      return null;
+    }
+
+    wave.register();
+    if (useCache) {
+      CachedDataSource cache = CachedDataSource.getInstance();
+      cache.putWave(station, wave);
     }
     return wave;
   }
@@ -197,30 +331,47 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
   /**
    * @see gov.usgs.volcanoes.swarm.data.RsamSource#getRsam(java.lang.String, double, double, int)
    */
-  public synchronized RSAMData getRsam(String station, double t1, double t2, int period) {
-    RSAMData rsamData = null;
-    if (useCache) {
-      CachedDataSource cache = CachedDataSource.getInstance();
-      rsamData = cache.getRsam(station, t1, t2, period);
-      if (rsamData != null) {
-        System.out.println("found in cache");
-      }
-    }
+  public RSAMData getRsam(final String station, double t1, double t2, final int period) {
+    return rsamRequests.get(getRequestKey(station) + "/" + period, t1, t2,
+        new RequestCoalescer.Request<RSAMData>() {
+          public RSAMData getCached(double start, double end) {
+            if (!useCache) {
+              return null;
+            }
+            return CachedDataSource.getInstance().getRsam(station, start, end, period);
+          }
 
-    if (rsamData == null) {
-      String[] scnl = parseScnl(station);
+          public RSAMData fetch(double start, double end) {
+            return fetchRsam(station, start, end, period);
+          }
+        });
+  }
+
+  private RSAMData fetchRsam(String station, double t1, double t2, int period) {
+    String[] scnl = parseScnl(station);
+    ConnectionPool<WWSClient> pool = getPool();
+    WWSClient client = borrowClient(pool);
+    if (client == null) {
+      return null;
+    }
+    RSAMData rsamData;
+    boolean healthy = false;
+    try {
+      final long start = System.nanoTime();
       rsamData =
-          winstonClient.getRSAMData(scnl[0], scnl[1], scnl[2], scnl[3], t1, t2, period, compress);
-      if (rsamData == null) {
-        return null;
-      }
+          client.getRSAMData(scnl[0], scnl[1], scnl[2], scnl[3], t1, t2, period, compress);
+      DataSourceMetrics.getInstance().requestTimed(this, DataType.RSAM, start);
+      healthy = rsamData != null || client.connected();
+    } finally {
+      pool.release(client, healthy);
+    }
+    if (rsamData == null) {
+      return null;
+    }
 
-      if (useCache) {
-        CachedDataSource cache = CachedDataSource.getInstance();
-        cache.putRsam(station, rsamData);
-      }
-    } else {
-      // System.out.println("cached");
+    if (useCache) {
+      CachedDataSource cache = CachedDataSource.getInstance();
+      cache.putRsam(station, rsamData);
     }
     return rsamData;
   }
@@ -229,21 +380,54 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getHelicorder(java.lang.String, double,
    * double, gov.usgs.volcanoes.swarm.data.GulperListener)
    */
-  public synchronized HelicorderData getHelicorder(final String station, double t1, double t2,
+  public HelicorderData getHelicorder(final String station, double t1, double t2,
       GulperListener gl) {
+    return helicorderRequests.get(getRequestKey(station), t1, t2,
+        new RequestCoalescer.Request<HelicorderData>() {
+          public HelicorderData getCached(double start, double end) {
+            CachedDataSource cache = CachedDataSource.getInstance();
+            if (!cache.getMissingHelicorder(station, start, end).isEmpty()) {
+              return null;
+            }
+            return cache.getHelicorder(station, start, end, (GulperListener) null);
+          }
+
+          public HelicorderData fetch(double start, double end) {
+            return fetchHelicorder(station, start, end);
+          }
+        });
+  }
+
+  private HelicorderData fetchHelicorder(final String station, double t1, double t2) {
     CachedDataSource cache = CachedDataSource.getInstance();
 
+    // the missing parts of a partly cached span come back through getHelicorder
     HelicorderData hd = cache.getHelicorder(station, t1, t2, this);
     if (hd == null) {
       String[] scnl = parseScnl(station);
+      ConnectionPool<WWSClient> pool = getPool();
+      WWSClient client = borrowClient(pool);
+      if (client == null) {
+        return null;
+      }
       fireHelicorderProgress(station, -1);
-      winstonClient.setReadListener(new ReadListener() {
-        public void readProgress(double p) {
-          fireHelicorderProgress(station, p);
-        }
-      });
-      hd = winstonClient.getHelicorder(scnl[0], scnl[1], scnl[2], scnl[3], t1, t2, compress);
-      winstonClient.setReadListener(null);
+      boolean healthy = false;
+      try {
+        client.setReadListener(new ReadListener() {
+          public void readProgress(double p) {
+            fireHelicorderProgress(station, p);
+          }
+        });
+        final long start = System.nanoTime();
+        hd = client.getHelicorder(scnl[0], scnl[1], scnl[2], scnl[3], t1, t2, compress);
+        DataSourceMetrics.getInstance().requestTimed(this, DataType.HELICORDER, start);
+        // the client drops its socket on a failed read, so still being connected means the
+        // server itself answered
+        healthy = client.connected();
+      } finally {
+        client.setReadListener(null);
+        pool.release(client, healthy);
+      }
       fireHelicorderProgress(station, 1.0);
 
       if (hd != null && hd.rows() != 0) {
@@ -252,6 +436,9 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
           cache.putHelicorder(station, noLatest);
         }
       } else {
+        if (healthy) {
+          cache.putEmptyHelicorder(station, t1, t2);
+        }
         hd = null;
       }
     }
@@ -262,14 +449,30 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getChannels()
    */
   public synchronized List<String> getChannels() {
+    ConnectionPool<WWSClient> pool = getPool();
+    WWSClient client = borrowClient(pool);
+    if (client == null) {
+      return null;
+    }
+    boolean healthy = false;
+    try {
+      List<String> channels = getChannels(client);
+      healthy = channels != null || client.connected();
+      return channels;
+    } finally {
+      pool.release(client, healthy);
+    }
+  }
+
+  private List<String> getChannels(WWSClient client) {
     SwarmConfig swarmConfig = SwarmConfig.getInstance();
     if (protocolVersion == 1) {
-      Menu menu = winstonClient.getMenuSCNL();
+      Menu menu = client.getMenuSCNL();
       List<String> channels = getMenuList(menu.getSortedItems());
       swarmConfig.assignMetadataSource(channels, this);
       return channels;
     } else if (protocolVersion == 2) {
-      List<Channel> channels = winstonClient.getChannels();
+      List<Channel> channels = client.getChannels();
       List<String> result = new ArrayList<String>(channels.size());
       for (Channel ch : channels) {
         String code = ch.getCode().replace('$', ' ');
@@ -282,7 +485,7 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
       }
       return result;
     } else if (protocolVersion == 3) {
-      List<Channel> channels = winstonClient.getChannels(true);
+      List<Channel> channels = client.getChannels(true);
       List<String> result = new ArrayList<String>(channels.size());
       for (Channel ch : channels) {
         String code = ch.getCode().replace('$', ' ');
@@ -321,4 +524,15 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
     return true;
   }
 
+  /**
+   * A pool and the number of sources using it.
+   */
+  private static class SharedPool {
+    private final ConnectionPool<WWSClient> pool;
+    private int sources;
+
+    private SharedPool(ConnectionPool<WWSClient> pool) {
+      this.pool = pool;
+    }
+  }
 }
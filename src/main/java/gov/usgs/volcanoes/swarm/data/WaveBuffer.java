@@ -0,0 +1,140 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.Arrays;
+
+import gov.usgs.plot.data.Wave;
+
+/**
+ * Builds one wave from records read in time order, so a long request doesn't hold a wave per
+ * record until the end. Samples are copied into a single growing array placed by time; gaps are
+ * filled with {@link Wave#NO_DATA} and overlapping samples are overwritten, as
+ * {@link Wave#join(java.util.List)} would do. The array starts small and doubles up to the size
+ * of the expected span, so a request that comes back short doesn't hold memory for the rest and
+ * one that comes back whole needs no copy to trim it.
+ *
+ * <p>Records at a different sampling rate than the first are dropped.
+ */
+public class WaveBuffer {
+
+  /** most samples allocated before any more have arrived. */
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+
+  private final double expectedSpan;
+
+  /** samples in the expected span at the sampling rate of the first record. */
+  private long expected;
+  private int[] samples;
+  private int count;
+  private double startTime;
+  private double samplingRate;
+  private int dropped;
+
+  /**
+   * Constructor.
+   *
+   * @param t1 expected start time in j2k, used to size the buffer
+   * @param t2 expected end time in j2k
+   */
+  public WaveBuffer(final double t1, final double t2) {
+    expectedSpan = t2 > t1 ? t2 - t1 : 0;
+    startTime = Double.NaN;
+  }
+
+  /**
+   * Add a record's samples.
+   *
+   * @param start time of the first sample in j2k
+   * @param rate sampling rate
+   * @param data samples, which are copied
+   * @param length number of samples in data to use
+   * @return false if the record was dropped for having a different sampling rate
+   */
+  public boolean append(final double start, final double rate, final int[] data,
+      final int length) {
+    if (length <= 0)
+      return true;
+
+    if (samples == null) {
+      startTime = start;
+      samplingRate = rate;
+      expected = expectedSpan > 0 ? Math.round(expectedSpan * rate) + 1 : 0;
+      samples = new int[(int) Math.max(length, Math.min(INITIAL_CAPACITY, expected))];
+    } else if (rate != samplingRate) {
+      dropped++;
+      return false;
+    }
+
+    long offset = Math.round((start - startTime) * samplingRate);
+    if (offset < 0) {
+      // earlier than anything so far, shift what's there along
+      final int shift = (int) -offset;
+      ensureCapacity(count + shift);
+      System.arraycopy(samples, 0, samples, shift, count);
+      Arrays.fill(samples, 0, shift, Wave.NO_DATA);
+      count += shift;
+      startTime -= shift / samplingRate;
+      offset = 0;
+    }
+
+    final int at = (int) offset;
+    ensureCapacity(at + length);
+    if (at > count)
+      Arrays.fill(samples, count, at, Wave.NO_DATA);
+    System.arraycopy(data, 0, samples, at, length);
+    count = Math.max(count, at + length);
+    return true;
+  }
+
+  private void ensureCapacity(final int capacity) {
+    if (capacity <= samples.length)
+      return;
+
+    long grown;
+    if (samples.length < expected)
+      grown = Math.min(expected, samples.length * 2L);
+    else
+      grown = samples.length + samples.length / 2;
+    samples = Arrays.copyOf(samples, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(capacity,
+        grown)));
+  }
+
+  /**
+   * Get the number of records dropped for having a different sampling rate.
+   *
+   * @return records dropped
+   */
+  public int getDropped() {
+    return dropped;
+  }
+
+  /**
+   * Determine if nothing has been appended.
+   *
+   * @return true if empty
+   */
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * Get the wave built so far.
+   *
+   * @return the wave, or null if nothing has been appended; the buffer is handed over without a
+   *         copy when it is full, so nothing should be appended afterwards
+   */
+  public Wave toWave() {
+    if (count == 0)
+      return null;
+
+    final int[] buffer = count == samples.length ? samples : Arrays.copyOf(samples, count);
+    final Wave wave = new Wave(buffer, startTime, samplingRate);
+    wave.register();
+    return wave;
+  }
+}
@@ -18,6 +18,7 @@ import gov.usgs.plot.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
+import gov.usgs.volcanoes.swarm.data.DataSourceMetrics.DataType;
 
 /**
  * An implementation of <code>SeismicDataSource</code> that connects to an Earthworm Wave Server.
@@ -28,8 +29,17 @@ import gov.usgs.volcanoes.swarm.SwarmConfig;
 public class WaveServerSource extends SeismicDataSource {
   private final static Logger LOGGER = LoggerFactory.getLogger(WaveServerSource.class);
 
+  /** time a menu is reused before it is asked for again, in ms. */
+  private static final long MENU_TTL = 60 * 1000;
+
+  /** time the latest data of a channel is trusted before it is asked for again, in s. */
+  private static final double TAIL_TTL = 10;
+
+  /** span of latest data fetched with a helicorder, in s. */
+  private static final double TAIL_SPAN = 2 * 60;
+
   private String params;
-  private WaveServer waveServer;
+  private ConnectionPool<WaveServer> pool;
   private int timeout = 2000;
 
   private String server;
@@ -40,8 +50,22 @@ public class WaveServerSource extends SeismicDataSource {
 
   private TimeZone timeZone;
 
+  /** menus by source parameters, shared by copies of a source. */
+  private static Map<String, CachedMenu> scnlSources = new HashMap<String, CachedMenu>();
+
+  /** locks held while a menu is fetched, by source parameters. */
+  private static final Map<String, Object> menuLocks = new HashMap<String, Object>();
 
-  private static Map<String, Boolean> scnlSources = new HashMap<String, Boolean>();
+  /** connection pools by server and port, shared by all sources using a server. */
+  private static final Map<String, SharedPool> pools = new HashMap<String, SharedPool>();
+  private static int maxConnections = ConnectionPool.DEFAULT_MAX_CONNECTIONS;
+  private static long idleTimeout = ConnectionPool.DEFAULT_IDLE_TIMEOUT;
+
+  /** time the latest data of each channel was last fetched, by source name and channel. */
+  private static final Map<String, Double> tailTimes = new HashMap<String, Double>();
+
+  /** time tailTimes was last cleared of expired entries. */
+  private static double tailTimesPruned;
 
   // explicit default constructor required for reflection
   public WaveServerSource() {}
@@ -51,6 +75,7 @@ public class WaveServerSource extends SeismicDataSource {
     parse(source.params);
   }
   public void parse(String params) {
+    close();
     this.params = params;
     String[] ss = params.split(":");
     server = ss[0];
@@ -62,9 +87,86 @@ public class WaveServerSource extends SeismicDataSource {
       timeZone = TimeZone.getTimeZone(ss[5]);
     else
       timeZone = TimeZone.getTimeZone("UTC");
+  }
+
+  /**
+   * Set the limits of the connection pools to all wave servers.
+   * 
+   * @param max connections open at once to one server
+   * @param idle time after which an idle connection is closed, in ms
+   */
+  public static synchronized void setPoolLimits(int max, long idle) {
+    maxConnections = max;
+    idleTimeout = idle;
+    for (SharedPool p : pools.values())
+      p.pool.setLimits(max, idle);
+  }
+
+  /**
+   * Take up the pool for a server, creating it if no source is using it.
+   */
+  private static synchronized ConnectionPool<WaveServer> acquirePool(final String server,
+      final int port) {
+    String key = server + ":" + port;
+    SharedPool p = pools.get(key);
+    if (p == null) {
+      ConnectionPool<WaveServer> pool = new ConnectionPool<WaveServer>() {
+        protected WaveServer create() {
+          return new WaveServer(server, port);
+        }
+
+        protected boolean isHealthy(WaveServer ws) {
+          return ws.connected();
+        }
+
+        protected void destroy(WaveServer ws) {
+          ws.close();
+        }
+      };
+      pool.setLimits(maxConnections, idleTimeout);
+      p = new SharedPool(pool);
+      pools.put(key, p);
+    }
+    p.sources++;
+    return p.pool;
+  }
 
-    waveServer = new WaveServer(server, port);
-    setTimeout(timeout);
+  /**
+   * Give up the pool for a server, closing it if no other source is using it.
+   */
+  private static void releasePool(String server, int port, ConnectionPool<WaveServer> pool) {
+    synchronized (WaveServerSource.class) {
+      String key = server + ":" + port;
+      SharedPool p = pools.get(key);
+      if (p != null && p.pool == pool) {
+        if (--p.sources > 0)
+          return;
+        pools.remove(key);
+      }
+    }
+    pool.close();
+  }
+
+  /**
+   * Get the pool for this source's server, taking it up if the source hasn't yet or was closed.
+   */
+  private synchronized ConnectionPool<WaveServer> getPool() {
+    if (pool == null)
+      pool = acquirePool(server, port);
+    return pool;
+  }
+
+  /**
+   * Borrow a connection from a pool. It must be given back to the pool after use.
+   * 
+   * @param pool this source's pool
+   * @return connection, or null if none is available
+   */
+  private WaveServer borrowWaveServer(ConnectionPool<WaveServer> pool) {
+    WaveServer ws = pool.borrow();
+    if (ws != null)
+      ws.setTimeout(timeout);
+    return ws;
   }
 
   public String toConfigString() {
@@ -74,36 +176,103 @@ public class WaveServerSource extends SeismicDataSource {
   }
 
   public boolean isSCNL(String p) {
-    Boolean b = scnlSources.get(p);
-    if (b == null) {
+    CachedMenu m;
+    synchronized (scnlSources) {
+      m = scnlSources.get(p);
+    }
+    if (m == null) {
       getMenu();
-      b = scnlSources.get(p);
-      if (b == null)
+      synchronized (scnlSources) {
+        m = scnlSources.get(p);
+      }
+      if (m == null)
         return false;
     }
 
-    return b.booleanValue();
+    return m.scnl;
   }
 
   public static void setIsSCNL(String p, boolean b) {
-    scnlSources.put(p, b);
+    synchronized (scnlSources) {
+      CachedMenu m = scnlSources.get(p);
+      if (m == null || m.scnl != b)
+        scnlSources.put(p, new CachedMenu(null, b));
+    }
   }
 
-  public synchronized void setTimeout(int to) {
-    waveServer.setTimeout(to);
+  public void setTimeout(int to) {
+    timeout = to;
   }
 
-  public synchronized void close() {
-    if (waveServer != null)
-      waveServer.close();
+  /**
+   * Give up this source's pool. Gulpers close their copies of a source when done, so the pool is
+   * closed only once the last source using the server lets it go.
+   */
+  public void close() {
+    ConnectionPool<WaveServer> p;
+    synchronized (this) {
+      p = pool;
+      pool = null;
+    }
+    if (p != null)
+      releasePool(server, port, p);
   }
 
-  public synchronized Menu getMenu() {
-    Menu menu = waveServer.getMenuSCNL();
-    setIsSCNL(params, menu.isSCNL());
+  /**
+   * Get the server's menu. A menu fetched in the last minute is reused, so opening many channels
+   * of one server costs one round trip.
+   * 
+   * @return the menu, or null if it can't be had
+   */
+  public Menu getMenu() {
+    Menu menu = getCachedMenu();
+    if (menu != null)
+      return menu;
+
+    // one fetch per server at a time, the rest wait and use its result
+    Object lock;
+    synchronized (menuLocks) {
+      lock = menuLocks.get(params);
+      if (lock == null) {
+        lock = new Object();
+        menuLocks.put(params, lock);
+      }
+    }
+    synchronized (lock) {
+      menu = getCachedMenu();
+      if (menu != null)
+        return menu;
+
+      ConnectionPool<WaveServer> pool = getPool();
+      WaveServer ws = borrowWaveServer(pool);
+      if (ws == null)
+        return null;
+      boolean healthy = false;
+      try {
+        menu = ws.getMenuSCNL();
+        healthy = true;
+      } finally {
+        pool.release(ws, healthy);
+      }
+
+      if (menu != null) {
+        synchronized (scnlSources) {
+          scnlSources.put(params, new CachedMenu(menu, menu.isSCNL()));
+        }
+      }
+    }
     return menu;
   }
 
+  private Menu getCachedMenu() {
+    synchronized (scnlSources) {
+      CachedMenu m = scnlSources.get(params);
+      if (m != null && m.menu != null && System.currentTimeMillis() - m.time < MENU_TTL)
+        return m.menu;
+    }
+    return null;
+  }
+
   public String getFormattedSCNL(MenuItem mi) {
     if (isSCNL(params))
       return mi.getSCNL(" ");
@@ -120,50 +289,106 @@ public class WaveServerSource extends SeismicDataSource {
     return list;
   }
 
-  public synchronized Wave getWave(String station, double t1, double t2) {
-    CachedDataSource cache = CachedDataSource.getInstance();
-    Wave sw = null;
-    if (useCache)
-      sw = cache.getWave(station, t1, t2);
-    if (sw == null) {
-      String seperator = station.indexOf('$') != -1 ? "\\$" : " ";
-      String[] ss = station.split(seperator);
-      String loc = null;
-      if (isSCNL(params)) {
-        loc = "--";
-        if (ss.length == 4)
-          loc = ss[3];
+  public Wave getWave(final String station, double t1, double t2) {
+    return waveRequests.get(getRequestKey(station), t1, t2, new RequestCoalescer.Request<Wave>() {
+      public Wave getCached(double start, double end) {
+        if (!useCache)
+          return null;
+        return CachedDataSource.getInstance().getWave(station, start, end);
       }
-      double offset = timeZone.getOffset(J2kSec.asEpoch(t1));
-      double at1 = Time.j2kToEw(t1) + offset / 1000.0;
-      double at2 = Time.j2kToEw(t2) + offset / 1000.0;
-      sw = waveServer.getRawData(ss[0], ss[1], ss[2], loc, at1, at2);
-      if (sw == null)
-        return null;
-      sw.convertToJ2K();
-      sw.setStartTime(sw.getStartTime() - offset / 1000.0);
-      sw.register();
-      if (useCache) {
-        cache.cacheWaveAsHelicorder(station, sw);
-        cache.putWave(station, sw);
+
+      public Wave fetch(double start, double end) {
+        // may need the menu, which takes a connection of its own, so ask before borrowing one
+        boolean scnl = isSCNL(params);
+        ConnectionPool<WaveServer> pool = getPool();
+        WaveServer ws = borrowWaveServer(pool);
+        if (ws == null) {
+          transferFailed();
+          return null;
+        }
+        boolean healthy = false;
+        try {
+          Wave sw = fetchWave(ws, scnl, station, start, end);
+          // the server answers a request with no data, so no wave and no connection is a failure
+          healthy = sw != null || ws.connected();
+          if (!healthy)
+            transferFailed();
+          return sw;
+        } finally {
+          pool.release(ws, healthy);
+        }
       }
+    });
+  }
+
+  private Wave fetchWave(WaveServer ws, boolean scnl, String station, double t1, double t2) {
+    String seperator = station.indexOf('$') != -1 ? "\\$" : " ";
+    String[] ss = station.split(seperator);
+    String loc = null;
+    if (scnl) {
+      loc = "--";
+      if (ss.length == 4)
+        loc = ss[3];
+    }
+    double offset = timeZone.getOffset(J2kSec.asEpoch(t1));
+    double at1 = Time.j2kToEw(t1) + offset / 1000.0;
+    double at2 = Time.j2kToEw(t2) + offset / 1000.0;
+    final long start = System.nanoTime();
+    Wave sw = ws.getRawData(ss[0], ss[1], ss[2], loc, at1, at2);
+    DataSourceMetrics.getInstance().requestTimed(this, DataType.WAVE, start);
+    transferred(sw);
+    if (sw == null)
+      return null;
+    sw.convertToJ2K();
+    sw.setStartTime(sw.getStartTime() - offset / 1000.0);
+    sw.register();
+    if (useCache) {
+      CachedDataSource cache = CachedDataSource.getInstance();
+      cache.cacheWaveAsHelicorder(station, sw);
+      cache.putWave(station, sw);
     }
     return sw;
   }
 
+  /**
+   * Fetch the latest data of a channel into the cache. The fetch goes through getWave, so it is
+   * coalesced with other requests for the channel and helicorders refreshing together fetch in
+   * parallel on pooled connections. A channel fetched in the last few seconds is not fetched
+   * again.
+   */
+  private void fetchTail(String station) {
+    double now = J2kSec.now();
+    String tailKey = getRequestKey(station);
+    synchronized (tailTimes) {
+      if (now - tailTimesPruned > TAIL_TTL) {
+        for (Iterator<Double> it = tailTimes.values().iterator(); it.hasNext();)
+          if (now - it.next() >= TAIL_TTL)
+            it.remove();
+        tailTimesPruned = now;
+      }
+      Double last = tailTimes.get(tailKey);
+      if (last != null && now - last < TAIL_TTL)
+        return;
+      tailTimes.put(tailKey, now);
+    }
+    getWave(station, now - TAIL_SPAN, now);
+  }
+
   public synchronized List<String> getChannels() {
     Menu menu = getMenu();
+    if (menu == null)
+      return null;
     List<String> channels = getMenuList(menu.getSortedItems());
     SwarmConfig.getInstance().assignMetadataSource(channels, this);
     return channels;
   }
 
-  public synchronized HelicorderData getHelicorder(String station, double t1, double t2,
+  public HelicorderData getHelicorder(String station, double t1, double t2,
       GulperListener gl) {
     double now = J2kSec.now();
     // if a time later than now has been asked for make sure to get the latest
     if ((t2 - now) >= -20)
-      getWave(station, now - 2 * 60, now);
+      fetchTail(station);
 
     CachedDataSource cache = CachedDataSource.getInstance();
 
@@ -188,4 +413,31 @@ public class WaveServerSource extends SeismicDataSource {
   public synchronized boolean isActiveSource() {
     return true;
   }
+
+  /**
+   * A server's menu and whether it uses SCNLs.
+   */
+  private static class CachedMenu {
+    private final Menu menu;
+    private final boolean scnl;
+    private final long time;
+
+    private CachedMenu(Menu menu, boolean scnl) {
+      this.menu = menu;
+      this.scnl = scnl;
+      time = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * A pool and the number of sources using it.
+   */
+  private static class SharedPool {
+    private final ConnectionPool<WaveServer> pool;
+    private int sources;
+
+    private SharedPool(ConnectionPool<WaveServer> pool) {
+      this.pool = pool;
+    }
+  }
 }
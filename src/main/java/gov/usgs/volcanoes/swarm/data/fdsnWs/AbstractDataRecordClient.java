@@ -20,6 +20,7 @@ import gov.usgs.plot.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.ChannelInfo;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
+import gov.usgs.volcanoes.swarm.data.WaveBuffer;
 import gov.usgs.volcanoes.swarm.data.seedLink.SeedUtils;
 
 public abstract class AbstractDataRecordClient {
@@ -53,6 +54,23 @@ public abstract class AbstractDataRecordClient {
     return waves;
   }
 
+  /**
+   * Decode the samples of a data record into a wave buffer.
+   * 
+   * @param buffer the wave buffer.
+   * @param dr the data record.
+   * @throws UnsupportedCompressionType
+   * @throws CodecException
+   */
+  public static void addSamples(final WaveBuffer buffer, final DataRecord dr)
+      throws UnsupportedCompressionType, CodecException {
+    for (Blockette blockette : dr.getBlockettes(1000)) {
+      if (blockette instanceof Blockette1000) {
+        SeedUtils.append(buffer, dr, (Blockette1000) blockette);
+      }
+    }
+  }
+
   /**
    * Assign the channels.
    * 
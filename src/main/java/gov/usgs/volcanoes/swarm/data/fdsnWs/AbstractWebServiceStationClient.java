@@ -2,8 +2,10 @@ package gov.usgs.volcanoes.swarm.data.fdsnWs;
 
 import gov.usgs.volcanoes.swarm.ChannelGroupInfo;
 import gov.usgs.volcanoes.swarm.ChannelInfo;
+import gov.usgs.volcanoes.swarm.ChannelUtil;
 import gov.usgs.volcanoes.swarm.GroupsType;
 import gov.usgs.volcanoes.swarm.StationInfo;
+import gov.usgs.volcanoes.swarm.data.fdsnWs.StationMetadataCache.Record;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -15,9 +17,17 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public abstract class AbstractWebServiceStationClient {
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(AbstractWebServiceStationClient.class);
+
   /** The station service output level. */
   public enum OutputLevel {
     NETWORK("network"), STATION("station"), CHANNEL("channel"), RESPONSE("response");
@@ -131,6 +141,12 @@ public abstract class AbstractWebServiceStationClient {
   /** The network list. */
   private List<String> networkList;
 
+  /** The station metadata store or null if none. */
+  private StationMetadataCache metadataCache;
+
+  /** The stations and channels created while fetching or null if not recording. */
+  private List<Record> recording;
+
   /**
    * Create the web service station client.
    * 
@@ -180,6 +196,33 @@ public abstract class AbstractWebServiceStationClient {
     groupsType = GroupsType.NETWORK;
   }
 
+  /**
+   * Create a web service station client making the same requests as another.
+   * 
+   * @param client the other client.
+   */
+  protected AbstractWebServiceStationClient(AbstractWebServiceStationClient client) {
+    this.baseUrlText = client.baseUrlText;
+    this.net = client.net;
+    this.sta = client.sta;
+    this.loc = client.loc;
+    this.chan = client.chan;
+    this.date = client.date;
+    groupsType = client.groupsType;
+    level = client.level;
+    currentStation = client.currentStation;
+    stationList = createStationList();
+    channelList = createChannelList();
+  }
+
+  /**
+   * Create a client making the same requests as this one, for refreshing the
+   * station metadata store in the background.
+   * 
+   * @return the client.
+   */
+  protected abstract AbstractWebServiceStationClient createCopy();
+
   /**
    * Append the name and value to the text.
    * 
@@ -253,6 +296,10 @@ public abstract class AbstractWebServiceStationClient {
    */
   protected ChannelInfo createChannelInfo(String station, String channel, String network,
       String location, double latitude, double longitude, String siteName, GroupsType groupsType) {
+    if (recording != null) {
+      recording.add(new Record(station, channel, network, location, latitude, longitude, siteName,
+          groupsType));
+    }
     if (currentStation == null) {
       if (clearLatLon()) {
         latitude = Double.NaN;
@@ -277,6 +324,9 @@ public abstract class AbstractWebServiceStationClient {
    */
   protected StationInfo createStationInfo(String station, String network, double latitude,
       double longitude, String siteName) {
+    if (recording != null) {
+      recording.add(new Record(station, network, latitude, longitude, siteName));
+    }
     if (clearLatLon()) {
       latitude = Double.NaN;
       longitude = Double.NaN;
@@ -285,15 +335,55 @@ public abstract class AbstractWebServiceStationClient {
   }
 
   /**
-   * Fetch the stations.
+   * Fetch the stations. If there is a station metadata store, a stored
+   * response is used instead of asking the service, and is checked for
+   * changes in the background once it is older than the refresh age.
    * 
    * @throws Exception if an error occurs.
+   * @see #setMetadataCache(StationMetadataCache)
    */
   protected void fetch() throws Exception {
+    if (metadataCache == null) {
+      fetch(0);
+      return;
+    }
+    final String key = getUrlText();
+    final StationMetadataCache.Entry entry = metadataCache.get(key);
+    if (entry != null) {
+      replay(entry.getRecords());
+      if (entry.isStale()) {
+        refresh(key, entry);
+      }
+      return;
+    }
+    recording = new ArrayList<Record>();
+    try {
+      if (fetch(0)) {
+        metadataCache.put(key, recording);
+      }
+    } finally {
+      recording = null;
+    }
+  }
+
+  /**
+   * Fetch the stations from the service.
+   * 
+   * @param ifModifiedSince fetch only if changed since this time in ms, or 0 to fetch anyway.
+   * @return true if fetched without error, false if not modified or error.
+   * @throws Exception if an error occurs.
+   */
+  private boolean fetch(long ifModifiedSince) throws Exception {
     final URL url = getUrl();
     final URLConnection urlConn = url.openConnection();
     if (urlConn instanceof HttpURLConnection) {
       conn = (HttpURLConnection) urlConn;
+      if (ifModifiedSince > 0) {
+        conn.setIfModifiedSince(ifModifiedSince);
+      }
+      if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        return false;
+      }
       if (conn.getResponseCode() != 200) { // if response not OK
         /*
          * final BufferedReader errorReader =
@@ -313,9 +403,84 @@ public abstract class AbstractWebServiceStationClient {
 
         }
         // errorReader.close();
-        return;
+        return false;
       } else {
         fetch(url);
+        return error.length() == 0;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Pass the stations and channels of a stored response on as if just
+   * fetched.
+   * 
+   * @param records the records.
+   */
+  private void replay(List<Record> records) {
+    for (Record r : records) {
+      if (r.channelRecord) {
+        processChannel(createChannelInfo(r.station, r.channel, r.network, r.location, r.latitude,
+            r.longitude, r.siteName, r.groupsType));
+      } else {
+        processStation(createStationInfo(r.station, r.network, r.latitude, r.longitude,
+            r.siteName));
+      }
+    }
+  }
+
+  /**
+   * Check a stored response for changes in the background. If it changed,
+   * the store is updated and the metadata of channels whose details changed
+   * is updated. Channels added or removed are picked up the next time the
+   * channels are listed.
+   * 
+   * @param key the store key.
+   * @param entry the stored response.
+   */
+  private void refresh(final String key, final StationMetadataCache.Entry entry) {
+    final AbstractWebServiceStationClient copy = createCopy();
+    final StationMetadataCache cache = metadataCache;
+    final Thread thread = new Thread(new Runnable() {
+      public void run() {
+        copy.recording = new ArrayList<Record>();
+        try {
+          if (copy.fetch(entry.getFetched())) {
+            final List<Record> records = copy.recording;
+            copy.recording = null;
+            cache.put(key, records);
+            copy.updateChanged(entry.getRecords(), records);
+          } else if (copy.getError().length() == 0) {
+            cache.touch(key);
+          }
+        } catch (Exception ex) {
+          LOGGER.warn("could not refresh station metadata: {}", ex.getMessage());
+        } finally {
+          copy.close();
+        }
+      }
+    }, "FDSN station refresh");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Update the metadata of the channels whose details changed.
+   * 
+   * @param before the records stored.
+   * @param after the records fetched.
+   */
+  private void updateChanged(List<Record> before, List<Record> after) {
+    final Map<String, Record> previous = new HashMap<String, Record>();
+    for (Record r : before) {
+      previous.put(r.getKey(), r);
+    }
+    for (Record r : after) {
+      final Record p = previous.get(r.getKey());
+      if (r.channelRecord && p != null && !p.equals(r)) {
+        ChannelUtil.updateMetadata(createChannelInfo(r.station, r.channel, r.network, r.location,
+            r.latitude, r.longitude, r.siteName, r.groupsType));
       }
     }
   }
@@ -562,6 +727,15 @@ public abstract class AbstractWebServiceStationClient {
     this.channelList = channelList;
   }
 
+  /**
+   * Set the station metadata store used by {@link #fetch()}.
+   * 
+   * @param metadataCache the store or null if none.
+   */
+  public void setMetadataCache(StationMetadataCache metadataCache) {
+    this.metadataCache = metadataCache;
+  }
+
   /**
    * Set the network list.
    *
@@ -13,6 +13,7 @@ import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.text.SimpleDateFormat;
@@ -122,6 +123,29 @@ public class DataSelectReader extends StringMSeedQueryReader {
     return query;
   }
 
+  /**
+   * Create a line of a bulk query. All arguments must be provided.
+   * 
+   * @param network the network.
+   * @param station the station.
+   * @param location the location or empty for the empty location code.
+   * @param channel the channel.
+   * @param begin the begin date.
+   * @param end the end date.
+   * @return the line, ending with a new line.
+   * @see #readBulk(String, List)
+   */
+  public String createBulkLine(String network, String station, String location, String channel,
+      Date begin, Date end) {
+    if (location == null || location.trim().length() == 0) {
+      location = WebServiceUtils.EMPTY_LOC_CODE;
+    }
+    SimpleDateFormat longFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    longFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return network + " " + station + " " + location + " " + channel + " "
+        + longFormat.format(begin) + " " + longFormat.format(end) + "\n";
+  }
+
   /**
    * Get the timeout in milliseconds.
    * 
@@ -192,6 +216,50 @@ public class DataSelectReader extends StringMSeedQueryReader {
     }
     conn.setRequestProperty("User-Agent", userAgent);
     conn.connect();
+    return read(conn, requestURL, records);
+  }
+
+  /**
+   * Read the data records for many channels in one POST request. Records
+   * for all the channels come back in the one stream and are passed to
+   * {@link #processRecord(DataRecord)} as they are read.
+   * 
+   * @param body the request body, lines made by
+   *          {@link #createBulkLine(String, String, String, String, Date, Date)}.
+   * @param records the data record list or null if none.
+   * @return the data record list.
+   * @throws IOException if an I/O exception occurs.
+   * @throws SeisFileException if not OK repsonse code.
+   */
+  public List<DataRecord> readBulk(String body, List<DataRecord> records)
+      throws IOException, SeisFileException {
+    URL requestURL = new URL(urlBase);
+    HttpURLConnection conn = (HttpURLConnection) requestURL.openConnection();
+    if (timeoutMillis != 0) {
+      conn.setReadTimeout(timeoutMillis);
+    }
+    conn.setRequestProperty("User-Agent", userAgent);
+    conn.setRequestProperty("Content-Type", "text/plain");
+    conn.setRequestMethod("POST");
+    conn.setDoOutput(true);
+    OutputStream out = conn.getOutputStream();
+    out.write(body.getBytes("US-ASCII"));
+    out.close();
+    return read(conn, requestURL, records);
+  }
+
+  /**
+   * Read the data records from a connection.
+   * 
+   * @param conn the connection.
+   * @param requestURL the URL, for messages.
+   * @param records the data record list or null if none.
+   * @return the data record list.
+   * @throws IOException if an I/O exception occurs.
+   * @throws SeisFileException if not OK repsonse code.
+   */
+  private List<DataRecord> read(HttpURLConnection conn, URL requestURL, List<DataRecord> records)
+      throws IOException, SeisFileException {
     if (conn.getResponseCode() != 200) {
       if (conn.getResponseCode() == 404) {
         LOGGER.info("reponse code 404, no data");
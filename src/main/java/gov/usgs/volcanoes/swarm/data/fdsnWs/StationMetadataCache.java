@@ -0,0 +1,314 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.fdsnWs;
+
+import gov.usgs.volcanoes.swarm.GroupsType;
+import gov.usgs.volcanoes.swarm.SwarmConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A store on disk of the stations and channels parsed from station service responses, keyed by
+ * query URL. Each response is kept as the list of values it was parsed into, in a compact binary
+ * file, so a source can list its channels at startup without waiting on the service.
+ */
+public class StationMetadataCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(StationMetadataCache.class);
+
+  /** file format version. */
+  private static final int VERSION = 1;
+
+  /** entries older than this are refreshed when served, in ms. */
+  private static final long REFRESH_AGE = 10 * 60 * 1000;
+
+  private static StationMetadataCache instance;
+
+  private final File dir;
+
+  /**
+   * Get the store configured in SwarmConfig.
+   *
+   * @return the store, or null if none is configured or its directory can't be created
+   */
+  public static synchronized StationMetadataCache getInstance() {
+    if (instance == null) {
+      final String path = SwarmConfig.getInstance().fdsnStationCachePath;
+      if (path == null || path.length() == 0) {
+        return null;
+      }
+
+      final File dir = new File(path);
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        LOGGER.warn("could not create station metadata directory {}", dir);
+        return null;
+      }
+      instance = new StationMetadataCache(dir);
+    }
+    return instance;
+  }
+
+  private StationMetadataCache(final File dir) {
+    this.dir = dir;
+  }
+
+  private File getFile(final String key) {
+    return new File(dir, String.format("%08x.bin", key.hashCode()));
+  }
+
+  /**
+   * Get a stored response.
+   *
+   * @param key query URL
+   * @return the entry, or null if none
+   */
+  public Entry get(final String key) {
+    final File file = getFile(key);
+    if (!file.exists()) {
+      return null;
+    }
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (in.readInt() != VERSION || !in.readUTF().equals(key)) {
+        return null;
+      }
+
+      final int n = in.readInt();
+      final List<Record> records = new ArrayList<Record>(n);
+      for (int i = 0; i < n; i++) {
+        records.add(Record.read(in));
+      }
+
+      return new Entry(file.lastModified(), records);
+    } catch (final IOException e) {
+      LOGGER.warn("could not read station metadata {}: {}", file, e.getMessage());
+      return null;
+    } finally {
+      close(in);
+    }
+  }
+
+  /**
+   * Store a response.
+   *
+   * @param key query URL
+   * @param records values the response was parsed into
+   */
+  public void put(final String key, final List<Record> records) {
+    final File file = getFile(key);
+    final File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      out.writeInt(VERSION);
+      out.writeUTF(key);
+      out.writeInt(records.size());
+      for (final Record record : records) {
+        record.write(out);
+      }
+      out.close();
+      out = null;
+      if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+        LOGGER.warn("could not replace station metadata {}", file);
+      }
+    } catch (final IOException e) {
+      LOGGER.warn("could not write station metadata {}: {}", file, e.getMessage());
+    } finally {
+      close(out);
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Note a stored response was found to be current.
+   *
+   * @param key query URL
+   */
+  public void touch(final String key) {
+    getFile(key).setLastModified(System.currentTimeMillis());
+  }
+
+  private static void close(final Closeable c) {
+    if (c == null) {
+      return;
+    }
+
+    try {
+      c.close();
+    } catch (final IOException e) {
+      // nothing to do
+    }
+  }
+
+  /**
+   * A stored response.
+   */
+  public static class Entry {
+    private final long fetched;
+    private final List<Record> records;
+
+    private Entry(final long fetched, final List<Record> records) {
+      this.fetched = fetched;
+      this.records = Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Get the time the response was fetched or last found current.
+     *
+     * @return time in ms
+     */
+    public long getFetched() {
+      return fetched;
+    }
+
+    /**
+     * Get the values the response was parsed into, in order.
+     *
+     * @return records
+     */
+    public List<Record> getRecords() {
+      return records;
+    }
+
+    /**
+     * Determine if the response should be checked for changes.
+     *
+     * @return true if it is older than the refresh age
+     */
+    public boolean isStale() {
+      return System.currentTimeMillis() - fetched > REFRESH_AGE;
+    }
+  }
+
+  /**
+   * The arguments a station or channel was created from.
+   */
+  public static class Record {
+    final boolean channelRecord;
+    final String station;
+    final String channel;
+    final String network;
+    final String location;
+    final double latitude;
+    final double longitude;
+    final String siteName;
+    final GroupsType groupsType;
+
+    /**
+     * Create a station record.
+     */
+    Record(final String station, final String network, final double latitude,
+        final double longitude, final String siteName) {
+      this(false, station, null, network, null, latitude, longitude, siteName, null);
+    }
+
+    /**
+     * Create a channel record.
+     */
+    Record(final String station, final String channel, final String network,
+        final String location, final double latitude, final double longitude,
+        final String siteName, final GroupsType groupsType) {
+      this(true, station, channel, network, location, latitude, longitude, siteName, groupsType);
+    }
+
+    private Record(final boolean channelRecord, final String station, final String channel,
+        final String network, final String location, final double latitude,
+        final double longitude, final String siteName, final GroupsType groupsType) {
+      this.channelRecord = channelRecord;
+      this.station = station;
+      this.channel = channel;
+      this.network = network;
+      this.location = location;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.siteName = siteName;
+      this.groupsType = groupsType;
+    }
+
+    /**
+     * Get a key identifying the station or channel, but not its details.
+     *
+     * @return key
+     */
+    String getKey() {
+      return network + "." + station + "." + location + "." + channel;
+    }
+
+    private static Record read(final DataInputStream in) throws IOException {
+      final boolean channelRecord = in.readBoolean();
+      final String station = readString(in);
+      final String channel = readString(in);
+      final String network = readString(in);
+      final String location = readString(in);
+      final double latitude = in.readDouble();
+      final double longitude = in.readDouble();
+      final String siteName = readString(in);
+      final String groups = readString(in);
+      final GroupsType groupsType = groups == null ? null : GroupsType.valueOf(groups);
+      return new Record(channelRecord, station, channel, network, location, latitude, longitude,
+          siteName, groupsType);
+    }
+
+    private void write(final DataOutputStream out) throws IOException {
+      out.writeBoolean(channelRecord);
+      writeString(out, station);
+      writeString(out, channel);
+      writeString(out, network);
+      writeString(out, location);
+      out.writeDouble(latitude);
+      out.writeDouble(longitude);
+      writeString(out, siteName);
+      writeString(out, groupsType == null ? null : groupsType.name());
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+      return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(final DataOutputStream out, final String s)
+        throws IOException {
+      out.writeBoolean(s != null);
+      if (s != null) {
+        out.writeUTF(s);
+      }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Record)) {
+        return false;
+      }
+
+      final Record r = (Record) o;
+      return channelRecord == r.channelRecord && getKey().equals(r.getKey())
+          && Double.compare(latitude, r.latitude) == 0
+          && Double.compare(longitude, r.longitude) == 0
+          && (siteName == null ? r.siteName == null : siteName.equals(r.siteName))
+          && groupsType == r.groupsType;
+    }
+
+    @Override
+    public int hashCode() {
+      return getKey().hashCode();
+    }
+  }
+}
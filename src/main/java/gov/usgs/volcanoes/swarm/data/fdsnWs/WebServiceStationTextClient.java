@@ -71,6 +71,25 @@ public class WebServiceStationTextClient extends AbstractWebServiceStationClient
     super(baseUrlText, net, sta, loc, chan, date);
   }
 
+  /**
+   * Create the web service station client making the same requests as another.
+   * 
+   * @param client
+   *          the other client.
+   */
+  protected WebServiceStationTextClient(WebServiceStationTextClient client) {
+    super(client);
+  }
+
+  /**
+   * Create a client making the same requests as this one.
+   * 
+   * @return the client.
+   */
+  protected AbstractWebServiceStationClient createCopy() {
+    return new WebServiceStationTextClient(this);
+  }
+
   /**
    * Fetch the stations.
    * 
@@ -89,6 +89,25 @@ public class WebServiceStationXmlClient extends AbstractWebServiceStationClient
     super(baseUrlText, net, sta, loc, chan, date);
   }
 
+  /**
+   * Create the web service station client making the same requests as another.
+   * 
+   * @param client
+   *          the other client.
+   */
+  protected WebServiceStationXmlClient(WebServiceStationXmlClient client) {
+    super(client);
+  }
+
+  /**
+   * Create a client making the same requests as this one.
+   * 
+   * @return the client.
+   */
+  protected AbstractWebServiceStationClient createCopy() {
+    return new WebServiceStationXmlClient(this);
+  }
+
   public WebServiceStationXmlClient(String baseUrlText) {
     super(baseUrlText);
   }
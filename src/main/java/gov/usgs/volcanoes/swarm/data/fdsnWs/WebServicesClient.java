@@ -4,19 +4,46 @@ import gov.usgs.plot.data.Wave;
 import gov.usgs.volcanoes.swarm.ChannelInfo;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
+import gov.usgs.volcanoes.swarm.data.WaveBuffer;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.sc.seis.seisFile.mseed.DataHeader;
 import edu.sc.seis.seisFile.mseed.DataRecord;
 
 public class WebServicesClient extends AbstractDataRecordClient {
   private static final Logger LOGGER = LoggerFactory.getLogger(WebServicesClient.class);
 
+  /** The longest span fetched in one request, in seconds. */
+  public static final double MAX_CHUNK_SPAN = 2 * 60 * 60;
+
+  /** The number of requests for chunks of a span run at once. */
+  private static final int MAX_PARALLEL_REQUESTS = 4;
+
+  /** Runs the requests for chunks of long spans. */
+  private static final ExecutorService REQUESTS =
+      Executors.newFixedThreadPool(MAX_PARALLEL_REQUESTS, new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+          final Thread t = new Thread(r, "FDSN dataselect");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
   /**
    * Test flag to use XML instead of text for station details. XML is more
    * robust at the cost of a lot of speed. This will crawl if there are many
@@ -117,6 +144,7 @@ public class WebServicesClient extends AbstractDataRecordClient {
     }
     stationClient.setStationList(AbstractWebServiceStationClient.createStationList());
     stationClient.setChannelList(channelList);
+    stationClient.setMetadataCache(StationMetadataCache.getInstance());
     this.wsDataSelectUrl = wsDataSelectUrl;
   }
 
@@ -183,7 +211,8 @@ public class WebServicesClient extends AbstractDataRecordClient {
   }
 
   /**
-   * Get the raw data.
+   * Get the raw data. Spans longer than {@link #MAX_CHUNK_SPAN} are fetched in
+   * chunks at once.
    * 
    * @param channelInfo the channel information.
    * @param t1 the start time.
@@ -191,34 +220,96 @@ public class WebServicesClient extends AbstractDataRecordClient {
    * @return the raw data.
    */
   public Wave getRawData(final ChannelInfo channelInfo, final double t1, final double t2) {
-    final Date begin = getDate(t1);
-    final Date end = getDate(t2);
-    final List<Wave> waves = createWaves();
-    final DataSelectReader reader = new DataSelectReader(wsDataSelectUrl) {
-      /**
-       * Process a data record.
-       * 
-       * @param dr the data record.
-       * @return true if data record should be added to the list, false
-       *         otherwise.
-       */
-      public boolean processRecord(DataRecord dr) {
-        try {
-          addWaves(waves, dr);
-        } catch (Exception ex) {
-          LOGGER.warn("could not get web service raw data ({}): {}", channelInfo, ex.getMessage());
+    return getWave(wsDataSelectUrl, channelInfo, t1, t2);
+  }
+
+  /**
+   * Get the raw data for many channels in one bulk request.
+   * 
+   * @param stations the channels.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @return the raw data by channel, without the channels with no data.
+   */
+  public Map<String, Wave> getRawData(final Collection<String> stations, final double t1,
+      final double t2) {
+    return getWaves(wsDataSelectUrl, stations, t1, t2);
+  }
+
+  /**
+   * Retrieve a single waveform without providing full SDS functions.
+   * 
+   * <p>TODO: integrate with getRawData(). should all SDSs have a static wave retrieval method?
+   * 
+   * @param code the channel information.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @return the raw data.
+   */
+  public static Wave getWave(final String code, final double t1, final double t2) {
+    return getWave(SwarmConfig.getInstance().fdsnDataselectURL, new ChannelInfo(code), t1, t2);
+  }
+
+  /**
+   * Retrieve a single waveform, fetching long spans in chunks at once.
+   * 
+   * @param url the data select URL.
+   * @param channelInfo the channel information.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @return the raw data.
+   */
+  private static Wave getWave(final String url, final ChannelInfo channelInfo, final double t1,
+      final double t2) {
+    final WaveBuffer buffer = new WaveBuffer(t1, t2);
+    final List<Callable<Object>> chunks = new ArrayList<Callable<Object>>();
+    for (double start = t1; start < t2; start += MAX_CHUNK_SPAN) {
+      final Date begin = getDate(start);
+      final Date end = getDate(Math.min(t2, start + MAX_CHUNK_SPAN));
+      chunks.add(new Callable<Object>() {
+        public Object call() throws Exception {
+          final DataSelectReader reader = new DataSelectReader(url) {
+            /**
+             * Process a data record.
+             * 
+             * @param dr the data record.
+             * @return false, the record is decoded into the buffer rather than kept.
+             */
+            public boolean processRecord(DataRecord dr) {
+              try {
+                synchronized (buffer) {
+                  addSamples(buffer, dr);
+                }
+              } catch (Exception ex) {
+                LOGGER.warn("could not get web service raw data ({}): {}", channelInfo,
+                    ex.getMessage());
+              }
+              return false;
+            }
+          };
+          final String query = reader.createQuery(channelInfo.getNetwork(),
+              channelInfo.getStation(), channelInfo.getLocation(), channelInfo.getChannel(), begin,
+              end);
+          reader.read(query, (List<DataRecord>) null);
+          return null;
         }
-        return true;
-      }
-    };
+      });
+    }
     try {
-      final String query = reader.createQuery(channelInfo.getNetwork(), channelInfo.getStation(),
-          channelInfo.getLocation(), channelInfo.getChannel(), begin, end);
-      reader.read(query, (List<DataRecord>) null);
+      if (chunks.size() == 1) {
+        chunks.get(0).call();
+      } else {
+        for (Future<Object> future : REQUESTS.invokeAll(chunks)) {
+          future.get();
+        }
+      }
+    } catch (ExecutionException ex) {
+      LOGGER.warn("could not get web service raw data ({}): {}", channelInfo,
+          ex.getCause().getMessage());
     } catch (Exception ex) {
       LOGGER.warn("could not get web service raw data ({}): {}", channelInfo, ex.getMessage());
     }
-    Wave wave = join(waves);
+    Wave wave = buffer.toWave();
     if (wave != null && WebServiceUtils.isDebug()) {
       LOGGER.debug("web service raw data ({}, {})", getDateText(wave.getStartTime()),
           getDateText(wave.getEndTime()) + ")");
@@ -227,51 +318,87 @@ public class WebServicesClient extends AbstractDataRecordClient {
   }
 
   /**
-   * Retrieve a single waveform without providing full SDS functions.
-   * 
-   * <p>TODO: integrate with getRawData(). should all SDSs have a static wave retrieval method?
+   * Retrieve the same window for many channels in one bulk request. Records
+   * are sorted into a buffer per channel as they are read.
    * 
-   * @param code the channel information.
+   * @param url the data select URL.
+   * @param codes the channels, as S C N L or S$C$N$L.
    * @param t1 the start time.
    * @param t2 the end time.
-   * @return the raw data.
+   * @return the raw data keyed by the code asked for, without the channels
+   *         with no data.
    */
-  public static Wave getWave(final String code, final double t1, final double t2) {
+  public static Map<String, Wave> getWaves(final String url, final Collection<String> codes,
+      final double t1, final double t2) {
+    final Map<String, Wave> waves = new HashMap<String, Wave>();
+    if (codes.isEmpty()) {
+      return waves;
+    }
     final Date begin = getDate(t1);
     final Date end = getDate(t2);
-    final List<Wave> waves = new ArrayList<Wave>();
-    final DataSelectReader reader =
-        new DataSelectReader(SwarmConfig.getInstance().fdsnDataselectURL) {
-          /**
-           * Process a data record.
-           * 
-           * @param dr the data record.
-           * @return true if data record should be added to the list, false
-           *         otherwise.
-           */
-          public boolean processRecord(DataRecord dr) {
-            try {
-              addWaves(waves, dr);
-            } catch (Exception ex) {
-              LOGGER.warn("could not get web service raw data ({}): {}", code, ex.getMessage());
-            }
-            return true;
-          }
-        };
+    final Map<String, String> codesByKey = new HashMap<String, String>();
+    final Map<String, WaveBuffer> buffers = new HashMap<String, WaveBuffer>();
+    final DataSelectReader reader = new DataSelectReader(url) {
+      /**
+       * Process a data record.
+       * 
+       * @param dr the data record.
+       * @return false, the record is decoded into its channel's buffer rather
+       *         than kept.
+       */
+      public boolean processRecord(DataRecord dr) {
+        final DataHeader dh = dr.getHeader();
+        final String key = getBulkKey(dh.getNetworkCode(), dh.getStationIdentifier(),
+            dh.getLocationIdentifier(), dh.getChannelIdentifier());
+        final WaveBuffer buffer = buffers.get(key);
+        if (buffer == null) {
+          return false;
+        }
+        try {
+          addSamples(buffer, dr);
+        } catch (Exception ex) {
+          LOGGER.warn("could not get web service raw data ({}): {}", codesByKey.get(key),
+              ex.getMessage());
+        }
+        return false;
+      }
+    };
+    final StringBuilder body = new StringBuilder();
+    for (String code : codes) {
+      final ChannelInfo ci = new ChannelInfo(code);
+      final String key =
+          getBulkKey(ci.getNetwork(), ci.getStation(), ci.getLocation(), ci.getChannel());
+      if (codesByKey.put(key, code) == null) {
+        buffers.put(key, new WaveBuffer(t1, t2));
+        body.append(reader.createBulkLine(ci.getNetwork(), ci.getStation(), ci.getLocation(),
+            ci.getChannel(), begin, end));
+      }
+    }
     try {
-      String[] comps = code.split("\\$"); 
-      final String query = reader.createQuery(comps[2], comps[0],
-          (comps.length > 3 ? comps[3] : "--"), comps[1], begin, end);
-      reader.read(query, (List<DataRecord>) null);
+      reader.readBulk(body.toString(), (List<DataRecord>) null);
     } catch (Exception ex) {
-      LOGGER.warn("could not get web service raw data ({}): {}", code, ex.getMessage());
+      LOGGER.warn("could not get web service raw data ({} channels): {}", codes.size(),
+          ex.getMessage());
     }
-    Wave wave = join(waves);
-    if (wave != null && WebServiceUtils.isDebug()) {
-      LOGGER.debug("web service raw data ({}, {})", getDateText(wave.getStartTime()),
-          getDateText(wave.getEndTime()) + ")");
+    for (Map.Entry<String, WaveBuffer> entry : buffers.entrySet()) {
+      final Wave wave = entry.getValue().toWave();
+      if (wave != null) {
+        waves.put(codesByKey.get(entry.getKey()), wave);
+      }
     }
-    return wave;
+    return waves;
+  }
+
+  /**
+   * Get the key matching a bulk request line to the records returned.
+   */
+  private static String getBulkKey(String network, String station, String location,
+      String channel) {
+    location = location == null ? "" : location.trim();
+    if (location.equals(WebServiceUtils.EMPTY_LOC_CODE)) {
+      location = "";
+    }
+    return network.trim() + "." + station.trim() + "." + location + "." + channel.trim();
   }
 
   public AbstractWebServiceStationClient getStationClient() {
@@ -6,13 +6,18 @@ import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.ChannelGroupInfo;
 import gov.usgs.volcanoes.swarm.ChannelInfo;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+import gov.usgs.volcanoes.swarm.data.DataSourceMetrics;
+import gov.usgs.volcanoes.swarm.data.DataSourceMetrics.DataType;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
 import gov.usgs.volcanoes.swarm.data.GulperList;
 import gov.usgs.volcanoes.swarm.data.GulperListener;
+import gov.usgs.volcanoes.swarm.data.RequestCoalescer;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -222,25 +227,86 @@ public class WebServicesSource extends SeismicDataSource {
    * @param t2 the end time.
    * @return the wave or null if none.
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
-    CachedDataSource cache = CachedDataSource.getInstance();
+  public Wave getWave(final String station, double t1, double t2) {
+    return waveRequests.get(getRequestKey(station), t1, t2, new RequestCoalescer.Request<Wave>() {
+      public Wave getCached(double start, double end) {
+        if (!useCache) {
+          return null;
+        }
+        return CachedDataSource.getInstance().getWave(station, start, end);
+      }
+
+      public Wave fetch(double start, double end) {
+        return fetchWave(station, start, end);
+      }
+    });
+  }
 
-    Wave sw = null;
+  private Wave fetchWave(String station, double t1, double t2) {
+    ChannelInfo channelInfo = new ChannelGroupInfo(station);
+    final long start = System.nanoTime();
+    final Wave sw = client.getRawData(channelInfo, t1, t2);
+    DataSourceMetrics.getInstance().requestTimed(this, DataType.WAVE, start);
+    transferred(sw);
+    if (sw == null) {
+      return null;
+    }
     if (useCache) {
-      sw = cache.getWave(station, t1, t2);
+      CachedDataSource cache = CachedDataSource.getInstance();
+      cache.cacheWaveAsHelicorder(station, sw);
+      cache.putWave(station, sw);
     }
-    if (sw == null) {
-      ChannelInfo channelInfo = new ChannelGroupInfo(station);
-      sw = client.getRawData(channelInfo, t1, t2);
-      if (sw == null) {
-        return null;
-      }
-      if (useCache) {
-        cache.cacheWaveAsHelicorder(station, sw);
-        cache.putWave(station, sw);
+    return sw;
+  }
+
+  /**
+   * Fetch the span for all the channels not already cached in one bulk
+   * request.
+   * 
+   * @param stations the channels.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   */
+  @Override
+  public void prefetchWaves(List<String> stations, double t1, double t2) {
+    if (!useCache) {
+      return;
+    }
+    final long start = System.nanoTime();
+    cacheWaves(client.getRawData(getUncached(stations, t1, t2), t1, t2));
+    DataSourceMetrics.getInstance().requestTimed(this, DataType.WAVE, start);
+  }
+
+  /**
+   * Fetch a span for channels with no configured source from the default
+   * server, in one bulk request, ahead of the sources created for them.
+   * 
+   * @param stations the channels.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @see #WebServicesSource(String)
+   */
+  public static void prefetchDefaultWaves(List<String> stations, double t1, double t2) {
+    cacheWaves(WebServicesClient.getWaves(DATASELECT_URL, getUncached(stations, t1, t2), t1, t2));
+  }
+
+  private static List<String> getUncached(List<String> stations, double t1, double t2) {
+    final CachedDataSource cache = CachedDataSource.getInstance();
+    final List<String> uncached = new ArrayList<String>();
+    for (String station : stations) {
+      if (!uncached.contains(station) && cache.getWave(station, t1, t2) == null) {
+        uncached.add(station);
       }
     }
-    return sw;
+    return uncached;
+  }
+
+  private static void cacheWaves(Map<String, Wave> waves) {
+    final CachedDataSource cache = CachedDataSource.getInstance();
+    for (Map.Entry<String, Wave> entry : waves.entrySet()) {
+      cache.cacheWaveAsHelicorder(entry.getKey(), entry.getValue());
+      cache.putWave(entry.getKey(), entry.getValue());
+    }
   }
 
   /**
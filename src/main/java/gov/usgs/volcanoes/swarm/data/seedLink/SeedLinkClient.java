@@ -17,10 +17,15 @@ import gov.usgs.volcanoes.swarm.Swarm;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import gov.usgs.volcanoes.swarm.data.seedLink.orfeus.BaseSLClient;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -48,6 +53,9 @@ public class SeedLinkClient extends BaseSLClient
 	// each hour
 	private static final long INFO_REQUEST_INTERVAL = 1000 * 60 * 60;
 
+	/** The interval for saving the stream state in milliseconds. */
+	private static final long STATE_SAVE_INTERVAL = 1000 * 60;
+
 	/** The SeedLink log. */
 	private static final SeedLinkLog sllog = new SeedLinkLog();
 
@@ -165,6 +173,25 @@ public class SeedLinkClient extends BaseSLClient
 	/** The logger. */
 	private final Logger logger;
 
+	/** The multiplexer routing packets or null if streaming one channel. */
+	private SeedLinkMultiplexer multiplexer;
+
+	/** The ingest stage for multiplexed records or null if none. */
+	private SeedLinkIngest ingest;
+
+	/** The calendar for converting record times. */
+	private final Calendar calendar = Calendar.getInstance(TimeZone
+			.getTimeZone("GMT"));
+
+	/** The file the stream state is saved to or null if none. */
+	private String stateFile;
+
+	/** The time the stream state was last saved. */
+	private long lastStateSave;
+
+	/** True if the client was closed. */
+	private volatile boolean closed;
+
 	/** Log prefix text. */
 	private final String logPrefixText;
 
@@ -235,6 +262,8 @@ public class SeedLinkClient extends BaseSLClient
 	public void close()
 	{
 		logger.fine(logPrefixText + "close the SeedLinkConnection");
+		closed = true;
+		saveState();
 		slconn.terminate();
 		kill();
 	}
@@ -275,6 +304,46 @@ public class SeedLinkClient extends BaseSLClient
 				+ DATA_TYPE;
 	}
 
+	/**
+	 * Get the multiple select text for several channels, grouping the
+	 * selectors of each station.
+	 * 
+	 * @param scnls the channels.
+	 * 
+	 * @return the multiple select text.
+	 */
+	private String getMultiSelect(Collection<String> scnls)
+	{
+		final Map<String, StringBuilder> stations = new LinkedHashMap<String, StringBuilder>();
+		for (String s : scnls)
+		{
+			final ChannelInfo channelInfo = new ChannelInfo(s);
+			final String station = channelInfo.getNetwork() + "_"
+					+ channelInfo.getStation();
+			final String selector = channelInfo.getLocation()
+					+ channelInfo.getChannel() + "." + DATA_TYPE;
+			final StringBuilder sb = stations.get(station);
+			if (sb == null)
+			{
+				stations.put(station, new StringBuilder(selector));
+			}
+			else
+			{
+				sb.append(' ').append(selector);
+			}
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, StringBuilder> entry : stations.entrySet())
+		{
+			if (sb.length() != 0)
+			{
+				sb.append(',');
+			}
+			sb.append(entry.getKey()).append(':').append(entry.getValue());
+		}
+		return sb.toString();
+	}
+
 	/**
 	 * Get the start and end time and clears the value for the next call.
 	 * 
@@ -333,6 +402,67 @@ public class SeedLinkClient extends BaseSLClient
 		multiselect = getMultiSelect(channelInfo);
 		begin_time = j2kToSeedLinkDateString(t1);
 		end_time = j2kToSeedLinkDateString(t2);
+		initConnection();
+	}
+
+	/**
+	 * Initialize the client to stream several channels, routing packets
+	 * through a multiplexer.
+	 * 
+	 * Streams are resumed from the sequence numbers in the state file if it
+	 * exists, and from the start time otherwise. The state is saved back to
+	 * the file periodically and when the client stops.
+	 * 
+	 * @param multiplexer the multiplexer.
+	 * @param scnls the channels.
+	 * @param t1 the start time.
+	 * @param stateFile the state file or null if none.
+	 */
+	public void init(SeedLinkMultiplexer multiplexer, Collection<String> scnls,
+			double t1, String stateFile)
+	{
+		this.multiplexer = multiplexer;
+		ingest = multiplexer.getIngest();
+		this.stateFile = stateFile;
+		scnl = null;
+		infolevel = null;
+		multiselect = getMultiSelect(scnls);
+		begin_time = j2kToSeedLinkDateString(t1);
+		end_time = null;
+		if (stateFile != null && new File(stateFile).exists())
+		{
+			statefile = stateFile;
+		}
+		lastStateSave = System.currentTimeMillis();
+		initConnection();
+	}
+
+	/**
+	 * Save the stream state if there is a state file.
+	 */
+	private synchronized void saveState()
+	{
+		if (stateFile == null)
+		{
+			return;
+		}
+		lastStateSave = System.currentTimeMillis();
+		try
+		{
+			slconn.saveState(stateFile);
+		}
+		catch (IOException ex)
+		{
+			logger.log(Level.WARNING, logPrefixText
+					+ "could not save state to " + stateFile, ex);
+		}
+	}
+
+	/**
+	 * Log the request and initialize the connection.
+	 */
+	private void initConnection()
+	{
 		StringBuilder sb = new StringBuilder(slconn.getSLAddress());
 		if (selectors != null)
 		{
@@ -406,13 +536,6 @@ public class SeedLinkClient extends BaseSLClient
 			return true; // close the connection
 		}
 
-		if (count % 10000 == 0)
-		{
-			Runtime.getRuntime().gc();
-			logger.finer(logPrefixText + "Packet count reached limit of "
-					+ 10000 + ", garbage collection performed.");
-		}
-
 		// may not be on AWT-Event Thread, so do not call any GUI methods
 
 		// check if not a complete packet
@@ -469,6 +592,21 @@ public class SeedLinkClient extends BaseSLClient
 		if (waveform != null && blockette.getType() == 999
 				&& Swarm.getApplicationFrame() != null)
 		{
+			String channel = scnl;
+			String key = null;
+			if (multiplexer != null)
+			{
+				key = SeedLinkMultiplexer.getKey(
+						blockette.getFieldVal(7).toString(),
+						blockette.getFieldVal(4).toString(),
+						blockette.getFieldVal(5).toString(),
+						blockette.getFieldVal(6).toString());
+				channel = multiplexer.getChannel(key);
+				if (channel == null)
+				{
+					return false; // no longer subscribed
+				}
+			}
 			// convert waveform to wave (also done in
 			// gov.usgs.swarm.data.FileDataSource)
 			try
@@ -479,12 +617,24 @@ public class SeedLinkClient extends BaseSLClient
 				final double startTime = J2kSec.fromDate(btimeToDate(bTime));
 				final double samplingRate = getSampleRate(factor,
 						multiplier);
+				if (ingest != null)
+				{
+					// batched into the cache, decoded samples are copied
+					ingest.append(key, channel, startTime, samplingRate,
+							waveform.getDecodedIntegers());
+					ingest.flushExpired();
+					if (System.currentTimeMillis() - lastStateSave > STATE_SAVE_INTERVAL)
+					{
+						saveState();
+					}
+					return false; // do not close the connection
+				}
 				final Wave wave = new Wave();
 				wave.setSamplingRate(samplingRate);
 				wave.setStartTime(startTime);
 				wave.buffer = waveform.getDecodedIntegers();
 				wave.register();
-				cacheWave(scnl, wave);
+				cacheWave(channel, wave);
 				if (waveList != null)
 				{
 					waveList.add(wave);
@@ -524,7 +674,7 @@ public class SeedLinkClient extends BaseSLClient
         return sampleRate;
 	}
     private Date btimeToDate(Btime btime) {
-        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        final Calendar cal = calendar;
         cal.set(Calendar.YEAR, btime.getYear());
         cal.set(Calendar.DAY_OF_YEAR, btime.getDayOfYear());
         cal.set(Calendar.HOUR_OF_DAY, btime.getHour());
@@ -540,6 +690,15 @@ public class SeedLinkClient extends BaseSLClient
 	public void run()
 	{
 		super.run();
+		if (multiplexer != null)
+		{
+			ingest.flushAll();
+			if (!closed)
+			{
+				saveState();
+			}
+			multiplexer.clientStopped(this);
+		}
 		if (threadSyncObj != null)
 		{
 			synchronized (threadSyncObj)
@@ -1,17 +1,26 @@
 package gov.usgs.volcanoes.swarm.data.seedLink;
 
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import gov.usgs.volcanoes.swarm.data.Gulper;
 import gov.usgs.volcanoes.swarm.data.GulperList;
 
+import java.util.List;
+
 /**
- * SeedLink Gulper.
+ * SeedLink Gulper. The channel is followed through the source's shared
+ * SeedLink connection for as long as the gulper lives, and the span before
+ * the stream is backfilled on that connection rather than fetched in chunks.
  * 
  * @author Kevin Frechette (ISTI)
  */
 public class SeedLinkGulper extends Gulper
 {
-	/** The SeedLink client. */
-	private final SeedLinkClient client;
+	/** The SeedLink source. */
+	private final SeedLinkSource source;
+
+	/** The subscription to the channel. */
+	private final SeedLinkMultiplexer.Subscription subscription;
 
 	/** The start end time. */
 	private final StartEndTime startEndTime;
@@ -20,61 +29,51 @@ public class SeedLinkGulper extends Gulper
 			String ch, double t1, double t2, int size, int delay)
 	{
 		super(gl, k, source, ch, t1, t2, size, delay);
+		this.source = source;
 		startEndTime = new StartEndTime();
-		// start client with no end time to keep getting updates
-		client = source.createClient();
-		client.init(ch, t1, Double.NaN);
-		client.start();
+		// keep getting updates for as long as the gulper lives
+		subscription = source.subscribe(ch);
 	}
 
 	/**
-	 * Determine if this gulper has been killed.
+	 * Pass on what the stream has brought in.
 	 * 
-	 * @return true if the gulper has been killed or was never started.
+	 * @return true until the gulper is killed
 	 */
-	public boolean isKilled()
+	protected boolean gulp()
 	{
-		return super.isKilled() || client.isKilled();
+		subscription.getStartEndTime(startEndTime);
+		if (!startEndTime.isEmpty())
+		{
+			fireGulped(startEndTime.getStartTime(), startEndTime.getEndTime(),
+					true);
+			startEndTime.clear();
+		}
+		delayNextGulp(getGulpDelay());
+		return !isKilled();
 	}
 
 	/**
-	 * Kill this gulper.
+	 * Stop following the channel once the gulper is done.
 	 */
-	protected void kill()
+	protected void finish()
 	{
-		client.kill();
-		super.kill();
+		source.unsubscribe(subscription);
+		super.finish();
 	}
 
 	/**
-	 * This is the run loop.
+	 * Backfill from the earliest data missing from the span.
 	 */
-	protected void runLoop()
+	public synchronized void update(double t1, double t2)
 	{
-		while (!isKilled())
+		super.update(t1, t2);
+		final List<double[]> missing = CachedDataSource.getInstance()
+				.getMissingHelicorder(getChannel(), t1,
+						Math.min(t2, J2kSec.now()));
+		if (!missing.isEmpty())
 		{
-			client.getStartEndTime(startEndTime);
-			if (!startEndTime.isEmpty())
-			{
-				fireGulped(startEndTime.getStartTime(),
-						startEndTime.getEndTime(), true);
-				startEndTime.clear();
-			}
-			delay();
+			source.backfill(subscription, missing.get(0)[0]);
 		}
 	}
-
-	/**
-	 * Start this gulper.
-	 */
-	public void start()
-	{
-		super.start();
-	}
-
-	public void update(double t1, double t2)
-	{
-		// we do not need to do Gulper update since the SeedLink client will
-		// keep getting updates and fire them to the listeners
-	}
 }
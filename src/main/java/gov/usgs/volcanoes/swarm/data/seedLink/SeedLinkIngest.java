@@ -0,0 +1,241 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.seedLink;
+
+import gov.usgs.plot.data.Wave;
+import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects the records streamed for each channel in an append buffer and
+ * passes them to the cache in batches. Contiguous records are copied into a
+ * buffer reused for the life of the channel, so the cache and the panels see
+ * one wave every few seconds rather than one per record.
+ */
+public class SeedLinkIngest
+{
+	/** Records buffered for a channel before it is flushed. */
+	private static final int FLUSH_RECORDS = 16;
+
+	/** Longest time records are held before they are flushed, in ms. */
+	private static final long FLUSH_INTERVAL = 2000;
+
+	/** Gap or overlap allowed between records appended, in sample periods. */
+	private static final double TOLERANCE = 0.5;
+
+	/** Samples an append buffer is created with. */
+	private static final int INITIAL_CAPACITY = 4096;
+
+	/** The multiplexer told of the data flushed. */
+	private final SeedLinkMultiplexer multiplexer;
+
+	/** The append buffers by channel key. */
+	private final Map<String, Buffer> buffers;
+
+	/** The time the oldest record still buffered was appended or 0 if none. */
+	private long oldest;
+
+	/**
+	 * Create the ingest stage.
+	 *
+	 * @param multiplexer the multiplexer told of the data flushed.
+	 */
+	public SeedLinkIngest(SeedLinkMultiplexer multiplexer)
+	{
+		this.multiplexer = multiplexer;
+		buffers = new HashMap<String, Buffer>();
+	}
+
+	/**
+	 * Append a record.
+	 *
+	 * @param key the channel key.
+	 * @param channel the channel the data is cached under.
+	 * @param startTime the start time of the record.
+	 * @param samplingRate the sampling rate.
+	 * @param samples the samples, which are copied.
+	 */
+	public synchronized void append(String key, String channel,
+			double startTime, double samplingRate, int[] samples)
+	{
+		Buffer buffer = buffers.get(key);
+		if (buffer == null)
+		{
+			buffer = new Buffer();
+			buffers.put(key, buffer);
+		}
+		else if (!buffer.isAppendable(channel, startTime, samplingRate))
+		{
+			flush(key, buffer);
+		}
+		final long now = System.currentTimeMillis();
+		if (buffer.count == 0)
+		{
+			buffer.start(channel, startTime, samplingRate, now);
+			if (oldest == 0 || now < oldest)
+			{
+				oldest = now;
+			}
+		}
+		buffer.append(samples);
+		if (buffer.records >= FLUSH_RECORDS)
+		{
+			flush(key, buffer);
+		}
+	}
+
+	/**
+	 * Flush the channels holding records longer than the flush interval.
+	 */
+	public synchronized void flushExpired()
+	{
+		if (oldest == 0 || System.currentTimeMillis() - oldest < FLUSH_INTERVAL)
+		{
+			return;
+		}
+		flush(System.currentTimeMillis() - FLUSH_INTERVAL);
+	}
+
+	/**
+	 * Flush all channels.
+	 */
+	public synchronized void flushAll()
+	{
+		flush(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Flush the channels whose first record was appended before a time and
+	 * note when the oldest remaining one was. Caller must hold the lock.
+	 *
+	 * @param before the time.
+	 */
+	private void flush(long before)
+	{
+		oldest = 0;
+		for (Map.Entry<String, Buffer> entry : buffers.entrySet())
+		{
+			final Buffer buffer = entry.getValue();
+			if (buffer.count == 0)
+			{
+				continue;
+			}
+			if (buffer.appended < before)
+			{
+				flush(entry.getKey(), buffer);
+			}
+			else if (oldest == 0 || buffer.appended < oldest)
+			{
+				oldest = buffer.appended;
+			}
+		}
+	}
+
+	/**
+	 * Pass a channel's buffered records to the cache. Caller must hold the
+	 * lock.
+	 *
+	 * @param key the channel key.
+	 * @param buffer the buffer.
+	 */
+	private void flush(String key, Buffer buffer)
+	{
+		if (buffer.count == 0)
+		{
+			return;
+		}
+		final Wave wave = new Wave(Arrays.copyOf(buffer.samples, buffer.count),
+				buffer.startTime, buffer.samplingRate);
+		wave.register();
+		CachedDataSource.getInstance().putWave(buffer.channel, wave);
+		CachedDataSource.getInstance().cacheWaveAsHelicorder(buffer.channel,
+				wave);
+		multiplexer.received(key, wave.getStartTime(), wave.getEndTime());
+		buffer.clear();
+	}
+
+	/**
+	 * The records buffered for a channel.
+	 */
+	private static class Buffer
+	{
+		/** The samples, reused from one flush to the next. */
+		private int[] samples = new int[INITIAL_CAPACITY];
+
+		/** The number of samples buffered. */
+		private int count;
+
+		/** The number of records buffered. */
+		private int records;
+
+		/** The channel the data is cached under. */
+		private String channel;
+
+		/** The start time of the first sample. */
+		private double startTime;
+
+		/** The sampling rate. */
+		private double samplingRate;
+
+		/** The time the first record was appended. */
+		private long appended;
+
+		/**
+		 * Determine if a record continues the buffered data.
+		 *
+		 * @param channel the channel.
+		 * @param startTime the start time of the record.
+		 * @param samplingRate the sampling rate.
+		 * @return true if the buffer is empty or the record continues it.
+		 */
+		private boolean isAppendable(String channel, double startTime,
+				double samplingRate)
+		{
+			if (count == 0)
+			{
+				return true;
+			}
+			if (samplingRate != this.samplingRate
+					|| !channel.equals(this.channel))
+			{
+				return false;
+			}
+			final double expected = this.startTime + count / samplingRate;
+			return Math.abs(startTime - expected) * samplingRate <= TOLERANCE;
+		}
+
+		private void start(String channel, double startTime,
+				double samplingRate, long now)
+		{
+			this.channel = channel;
+			this.startTime = startTime;
+			this.samplingRate = samplingRate;
+			appended = now;
+		}
+
+		private void append(int[] s)
+		{
+			if (count + s.length > samples.length)
+			{
+				samples = Arrays.copyOf(samples,
+						Math.max(samples.length * 2, count + s.length));
+			}
+			System.arraycopy(s, 0, samples, count, s.length);
+			count += s.length;
+			records++;
+		}
+
+		private void clear()
+		{
+			count = 0;
+			records = 0;
+		}
+	}
+}
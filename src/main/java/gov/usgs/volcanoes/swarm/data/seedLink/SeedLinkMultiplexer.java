@@ -0,0 +1,463 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.seedLink;
+
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.swarm.ChannelInfo;
+import gov.usgs.volcanoes.swarm.SwarmConfig;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Shares one SeedLink connection among all the channels streamed from a
+ * server. Channels are subscribed as gulpers start and unsubscribed as they
+ * stop. Packets are routed to the subscribed channels, and the connection is
+ * renegotiated shortly after the subscriptions change, resuming from the
+ * latest data received.
+ * <p>
+ * The sequence number of the last packet from each station is kept in a state
+ * file per server, so streams resume where they left off across reconnects
+ * and restarts. Stations without a sequence number resume from the latest
+ * data received.
+ * <p>
+ * Data from before the stream started is backfilled on the same connection:
+ * a subscription asks for an earlier begin time, and the connection is
+ * renegotiated from there.
+ */
+public class SeedLinkMultiplexer implements Runnable
+{
+	/** Time to wait for further changes before reconnecting, in ms. */
+	private static final long RESUBSCRIBE_DELAY = 1000;
+
+	/** Data asked for before the latest received on reconnect, in seconds. */
+	private static final double RESUME_OVERLAP = 10;
+
+	/** Data asked for when nothing has been received yet, in seconds. */
+	private static final double INITIAL_BACKLOG = 60;
+
+	/** Most data asked for on reconnect, in seconds. */
+	private static final double MAX_RESUME = 60 * 60;
+
+	/** The logger. */
+	private static final Logger logger = SeedLinkLog.logger;
+
+	/** The multiplexers by server host and port. */
+	private static final Map<String, SeedLinkMultiplexer> multiplexers = new HashMap<String, SeedLinkMultiplexer>();
+
+	/**
+	 * Get the multiplexer for a server.
+	 *
+	 * @param host the server host.
+	 * @param port the server port.
+	 * @return the multiplexer.
+	 */
+	public static SeedLinkMultiplexer getInstance(String host, int port)
+	{
+		final String key = host + ":" + port;
+		synchronized (multiplexers)
+		{
+			SeedLinkMultiplexer m = multiplexers.get(key);
+			if (m == null)
+			{
+				m = new SeedLinkMultiplexer(host, port);
+				multiplexers.put(key, m);
+			}
+			return m;
+		}
+	}
+
+	/**
+	 * Get the key routing packets of a channel.
+	 *
+	 * @param network the network.
+	 * @param station the station.
+	 * @param location the location, blank or "--" if none.
+	 * @param channel the channel.
+	 * @return the key.
+	 */
+	public static String getKey(String network, String station,
+			String location, String channel)
+	{
+		location = location.trim();
+		if (location.equals("--"))
+		{
+			location = "";
+		}
+		return network.trim() + "_" + station.trim() + "_" + location + "_"
+				+ channel.trim();
+	}
+
+	/** The server host. */
+	private final String host;
+
+	/** The server port. */
+	private final int port;
+
+	/** The subscriptions by channel key. */
+	private final Map<String, List<Subscription>> subscriptions;
+
+	/** The latest data received by channel key. */
+	private final Map<String, Double> latest;
+
+	/** The client streaming the subscribed channels or null if none. */
+	private SeedLinkClient client;
+
+	/** The ingest stage batching the records received. */
+	private final SeedLinkIngest ingest;
+
+	/** The stream state file or null if none. */
+	private final File stateFile;
+
+	/** The thread managing the connection or null if none. */
+	private Thread thread;
+
+	/** True if the subscriptions changed since the client was started. */
+	private boolean changed;
+
+	/** The begin time asked of the current client. */
+	private double clientBegin;
+
+	private SeedLinkMultiplexer(String host, int port)
+	{
+		this.host = host;
+		this.port = port;
+		subscriptions = new LinkedHashMap<String, List<Subscription>>();
+		latest = new HashMap<String, Double>();
+		ingest = new SeedLinkIngest(this);
+		stateFile = getStateFile(host, port);
+	}
+
+	/**
+	 * Get the stream state file for a server.
+	 *
+	 * @param host the server host.
+	 * @param port the server port.
+	 * @return the state file or null if state is not kept.
+	 */
+	private static File getStateFile(String host, int port)
+	{
+		final String path = SwarmConfig.getInstance().seedLinkStatePath;
+		if (path == null || path.length() == 0)
+		{
+			return null;
+		}
+		final File dir = new File(path);
+		if (!dir.isDirectory() && !dir.mkdirs())
+		{
+			logger.warning("could not create SeedLink state directory " + dir);
+			return null;
+		}
+		return new File(dir, host.replaceAll("[^\\w.-]", "_") + "_" + port
+				+ ".state");
+	}
+
+	/**
+	 * Subscribe to a channel.
+	 *
+	 * @param scnl the channel.
+	 * @return the subscription.
+	 */
+	public synchronized Subscription subscribe(String scnl)
+	{
+		final ChannelInfo ci = new ChannelInfo(scnl);
+		final String key = getKey(ci.getNetwork(), ci.getStation(),
+				ci.getLocation(), ci.getChannel());
+		final Subscription subscription = new Subscription(key, scnl, ingest);
+		List<Subscription> list = subscriptions.get(key);
+		if (list == null)
+		{
+			list = new ArrayList<Subscription>();
+			subscriptions.put(key, list);
+			changed();
+		}
+		list.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * Unsubscribe from a channel.
+	 *
+	 * @param subscription the subscription.
+	 */
+	public synchronized void unsubscribe(Subscription subscription)
+	{
+		final List<Subscription> list = subscriptions.get(subscription.key);
+		if (list != null && list.remove(subscription) && list.isEmpty())
+		{
+			subscriptions.remove(subscription.key);
+			latest.remove(subscription.key);
+			changed();
+		}
+	}
+
+	/**
+	 * Ask for a channel's data from an earlier time. The connection is
+	 * renegotiated unless the current stream already began by then.
+	 *
+	 * @param subscription the subscription.
+	 * @param begin the begin time.
+	 */
+	public synchronized void backfill(Subscription subscription, double begin)
+	{
+		if (client != null && begin >= clientBegin)
+		{
+			return;
+		}
+		if (Double.isNaN(subscription.backfill) || begin < subscription.backfill)
+		{
+			subscription.backfill = begin;
+			changed();
+		}
+	}
+
+	/**
+	 * Get the channel that data for a key is cached under.
+	 *
+	 * @param key the channel key.
+	 * @return the channel or null if not subscribed.
+	 */
+	public synchronized String getChannel(String key)
+	{
+		final List<Subscription> list = subscriptions.get(key);
+		return list == null ? null : list.get(0).scnl;
+	}
+
+	/**
+	 * Get the ingest stage records are passed to.
+	 *
+	 * @return the ingest stage.
+	 */
+	public SeedLinkIngest getIngest()
+	{
+		return ingest;
+	}
+
+	/**
+	 * Note data received for a channel.
+	 *
+	 * @param key the channel key.
+	 * @param startTime the start time of the data.
+	 * @param endTime the end time of the data.
+	 */
+	public synchronized void received(String key, double startTime,
+			double endTime)
+	{
+		final List<Subscription> list = subscriptions.get(key);
+		if (list == null)
+		{
+			return;
+		}
+		final Double last = latest.get(key);
+		if (last == null || endTime > last)
+		{
+			latest.put(key, endTime);
+		}
+		for (Subscription subscription : list)
+		{
+			synchronized (subscription.startEndTime)
+			{
+				subscription.startEndTime.update(startTime, endTime);
+			}
+		}
+	}
+
+	/**
+	 * Called by a client when it stops, so a failed connection is started
+	 * again.
+	 *
+	 * @param c the client.
+	 */
+	synchronized void clientStopped(SeedLinkClient c)
+	{
+		if (c == client)
+		{
+			client = null;
+			if (!subscriptions.isEmpty())
+			{
+				changed();
+			}
+		}
+	}
+
+	/**
+	 * Note a change, starting the managing thread if needed. Caller must hold
+	 * the lock.
+	 */
+	private void changed()
+	{
+		changed = true;
+		if (thread == null)
+		{
+			thread = new Thread(this, "SeedLink " + host + ":" + port);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Start a new client for the subscriptions each time they change, until
+	 * there are none.
+	 */
+	public void run()
+	{
+		synchronized (this)
+		{
+			try
+			{
+				while (true)
+				{
+					while (!changed)
+					{
+						wait();
+					}
+					// gather the changes made as a wall of panels opens
+					do
+					{
+						changed = false;
+						wait(RESUBSCRIBE_DELAY);
+					}
+					while (changed);
+
+					if (client != null)
+					{
+						client.close();
+						client = null;
+					}
+					if (subscriptions.isEmpty())
+					{
+						break;
+					}
+					startClient();
+				}
+			}
+			catch (InterruptedException ex)
+			{
+				logger.fine("SeedLink multiplexer interrupted");
+			}
+			thread = null;
+		}
+	}
+
+	/**
+	 * Start a client for all subscribed channels. Caller must hold the lock.
+	 */
+	private void startClient()
+	{
+		final List<String> channels = new ArrayList<String>();
+		for (List<Subscription> list : subscriptions.values())
+		{
+			channels.add(list.get(0).scnl);
+		}
+		// resume from the channel furthest behind
+		double begin = Double.NaN;
+		for (Double last : latest.values())
+		{
+			if (Double.isNaN(begin) || last < begin)
+			{
+				begin = last;
+			}
+		}
+		final double now = J2kSec.now();
+		if (Double.isNaN(begin))
+		{
+			begin = now - INITIAL_BACKLOG;
+		}
+		else
+		{
+			begin = Math.max(begin - RESUME_OVERLAP, now - MAX_RESUME);
+		}
+		// backfills are asked for as far back as the server holds
+		boolean backfill = false;
+		for (List<Subscription> list : subscriptions.values())
+		{
+			for (Subscription subscription : list)
+			{
+				if (subscription.backfill < begin)
+				{
+					begin = subscription.backfill;
+					backfill = true;
+				}
+				subscription.backfill = Double.NaN;
+			}
+		}
+		String state = null;
+		if (stateFile != null)
+		{
+			// a stale state would ask for more than MAX_RESUME, and the
+			// server resumes stations in the state from their sequence
+			// numbers rather than the backfill time
+			if (backfill
+					|| stateFile.lastModified() < System.currentTimeMillis()
+							- (long) (MAX_RESUME * 1000))
+			{
+				stateFile.delete();
+			}
+			state = stateFile.getPath();
+		}
+		clientBegin = begin;
+		client = new SeedLinkClient(host, port);
+		client.init(this, channels, begin, state);
+		client.start();
+	}
+
+	/**
+	 * A channel subscription.
+	 */
+	public static class Subscription
+	{
+		/** The channel key. */
+		private final String key;
+
+		/** The channel. */
+		private final String scnl;
+
+		/** The ingest stage holding records not yet cached. */
+		private final SeedLinkIngest ingest;
+
+		/** The span received since last asked. */
+		private final StartEndTime startEndTime;
+
+		/**
+		 * The begin time of a backfill not yet asked of the server or NaN if
+		 * none. Guarded by the multiplexer.
+		 */
+		private double backfill;
+
+		private Subscription(String key, String scnl, SeedLinkIngest ingest)
+		{
+			this.key = key;
+			this.scnl = scnl;
+			this.ingest = ingest;
+			startEndTime = new StartEndTime();
+			backfill = Double.NaN;
+		}
+
+		/**
+		 * Get the span received and clear it for the next call. Records held
+		 * longer than the flush interval are cached first, so a quiet stream
+		 * isn't left waiting for the next packet.
+		 *
+		 * @param o the start end time to set.
+		 */
+		public void getStartEndTime(StartEndTime o)
+		{
+			ingest.flushExpired();
+			synchronized (startEndTime)
+			{
+				o.set(startEndTime);
+				startEndTime.clear();
+			}
+		}
+	}
+}
@@ -6,10 +6,13 @@ import gov.usgs.plot.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.ChannelUtil;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+import gov.usgs.volcanoes.swarm.data.DataSourceMetrics;
+import gov.usgs.volcanoes.swarm.data.DataSourceMetrics.DataType;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
 import gov.usgs.volcanoes.swarm.data.Gulper;
 import gov.usgs.volcanoes.swarm.data.GulperList;
 import gov.usgs.volcanoes.swarm.data.GulperListener;
+import gov.usgs.volcanoes.swarm.data.RequestCoalescer;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 
 import java.io.File;
@@ -297,21 +300,22 @@ public class SeedLinkSource extends SeismicDataSource
 	 * @param t2 the end time.
 	 * @return the wave or null if none.
 	 */
-	public Wave getWave(String scnl, double t1, double t2)
+	public Wave getWave(final String scnl, double t1, double t2)
 	{
-		// check if data is in the cache
-		Wave wave = CachedDataSource.getInstance().getWave(scnl, t1, t2);
-		if (wave == null)
-		{
-			// remove all data in the future to avoid blocking
-			final double now = J2kSec.now();
-			if (t1 <= now)
-			{
-				final SeedLinkClient client = createClient();
-				wave = client.getWave(scnl, t1, t2);
-				removeClient(client);
-			}
-		}
+		final Wave wave = waveRequests.get(getRequestKey(scnl), t1, t2,
+				new RequestCoalescer.Request<Wave>()
+				{
+					public Wave getCached(double start, double end)
+					{
+						return CachedDataSource.getInstance().getWave(scnl,
+								start, end);
+					}
+
+					public Wave fetch(double start, double end)
+					{
+						return fetchWave(scnl, start, end);
+					}
+				});
 		final Level level = Level.FINE;
 		if (logger.isLoggable(level))
 		{
@@ -325,6 +329,32 @@ public class SeedLinkSource extends SeismicDataSource
 		return wave;
 	}
 
+	/**
+	 * Fetch a wave with a client of its own.
+	 * 
+	 * @param scnl the scnl.
+	 * @param t1 the start time.
+	 * @param t2 the end time.
+	 * @return the wave or null if none.
+	 */
+	private Wave fetchWave(String scnl, double t1, double t2)
+	{
+		// remove all data in the future to avoid blocking
+		final double now = J2kSec.now();
+		if (t1 > now)
+		{
+			return null;
+		}
+		final long start = System.nanoTime();
+		final SeedLinkClient client = createClient();
+		final Wave wave = client.getWave(scnl, t1, t2);
+		removeClient(client);
+		DataSourceMetrics.getInstance().requestTimed(this, DataType.WAVE,
+				start);
+		transferred(wave);
+		return wave;
+	}
+
 	/**
 	 * Is this data source active; that is, is new data being added in real-time
 	 * to this data source?
@@ -366,10 +396,47 @@ public class SeedLinkSource extends SeismicDataSource
 	protected void requestGulper(String scnl, double t1, double t2,
 			GulperListener gl)
 	{
-		GulperList.INSTANCE.requestGulper(getGulperKey(scnl), gl, this,
+		// a copy, so a gulper closing its source leaves the others' clients
+		GulperList.INSTANCE.requestGulper(getGulperKey(scnl), gl, getCopy(),
 				scnl, t1, t2, gulpSize, gulpDelay);
 	}
 
+	/**
+	 * Follow a channel through the connection shared by all channels of the
+	 * server.
+	 * 
+	 * @param scnl the scnl.
+	 * @return the subscription.
+	 */
+	public SeedLinkMultiplexer.Subscription subscribe(String scnl)
+	{
+		return SeedLinkMultiplexer.getInstance(host, port).subscribe(scnl);
+	}
+
+	/**
+	 * Ask for a followed channel's data from an earlier time, on the
+	 * connection shared by all channels of the server.
+	 * 
+	 * @param subscription the subscription.
+	 * @param begin the begin time.
+	 */
+	public void backfill(SeedLinkMultiplexer.Subscription subscription,
+			double begin)
+	{
+		SeedLinkMultiplexer.getInstance(host, port).backfill(subscription,
+				begin);
+	}
+
+	/**
+	 * Stop following a channel.
+	 * 
+	 * @param subscription the subscription.
+	 */
+	public void unsubscribe(SeedLinkMultiplexer.Subscription subscription)
+	{
+		SeedLinkMultiplexer.getInstance(host, port).unsubscribe(subscription);
+	}
+
 	/**
 	 * Get the configuration string.
 	 * 
@@ -20,6 +20,7 @@ import edu.sc.seis.seisFile.mseed.DataHeader;
 import edu.sc.seis.seisFile.mseed.DataRecord;
 import gov.usgs.plot.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.swarm.data.WaveBuffer;
 
 public class SeedUtils {
   public static Date btimeToDate(Btime btime) {
@@ -42,18 +43,49 @@ public class SeedUtils {
   public static Wave createWave(DataRecord dr, Blockette1000 b1000)
       throws UnsupportedCompressionType, CodecException {
     final DataHeader dh = dr.getHeader();
+    final Wave wave = new Wave();
+    wave.setSamplingRate(dh.getSampleRate());
+    wave.setStartTime(SeedUtils.getStartTime(dh));
+    wave.buffer = decode(dr, b1000);
+    wave.register();
+    return wave;
+  }
+
+  /**
+   * Decode the samples of a data record.
+   * 
+   * @param dr the data record.
+   * @param b1000 the record's blockette 1000.
+   * @return the samples.
+   * @throws UnsupportedCompressionType
+   * @throws CodecException
+   */
+  public static int[] decode(DataRecord dr, Blockette1000 b1000)
+      throws UnsupportedCompressionType, CodecException {
     final int type = b1000.getEncodingFormat();
     final byte[] data = dr.getData();
     final boolean swapNeeded = b1000.getWordOrder() == 0;
     final Codec codec = new Codec();
     final DecompressedData decomp =
         codec.decompress(type, data, dr.getHeader().getNumSamples(), swapNeeded);
-    final Wave wave = new Wave();
-    wave.setSamplingRate(dh.getSampleRate());
-    wave.setStartTime(SeedUtils.getStartTime(dh));
-    wave.buffer = decomp.getAsInt();
-    wave.register();
-    return wave;
+    return decomp.getAsInt();
+  }
+
+  /**
+   * Decode a data record straight into a wave buffer.
+   * 
+   * @param buffer the wave buffer.
+   * @param dr the data record.
+   * @param b1000 the record's blockette 1000.
+   * @return false if the buffer dropped the record.
+   * @throws UnsupportedCompressionType
+   * @throws CodecException
+   */
+  public static boolean append(WaveBuffer buffer, DataRecord dr, Blockette1000 b1000)
+      throws UnsupportedCompressionType, CodecException {
+    final DataHeader dh = dr.getHeader();
+    final int[] samples = decode(dr, b1000);
+    return buffer.append(getStartTime(dh), dh.getSampleRate(), samples, samples.length);
   }
 
   public static double getStartTime(DataHeader dh) {
@@ -5,7 +5,8 @@
  * reset the JavaSeed volume count,
  * modified to implement Runnable,
  * all static version constants were removed,
- * output to standard output was replaced with logging.
+ * output to standard output was replaced with logging,
+ * begin and end times also apply to streams without a sequence number in the state file.
  *
  * Copyright (C) 2004 Anthony Lomax <anthony@alomax.net www.alomax.net>
  *
@@ -232,17 +233,16 @@ public class BaseSLClient implements Runnable {
         // Attempt to recover sequence numbers from state file
         if (statefile != null) {
             slconn.setStateFile(statefile);
-        } else {
-            // Set begin time for read start in past
-            // 20050415 AJL added to support continuous data transfer from a time in the past
-            if (begin_time != null) {
-                slconn.setBeginTime(begin_time);
-            }
-            // Set end time for for reading windowed data
-            // 20071204 AJL added
-            if (end_time != null) {
-                slconn.setEndTime(end_time);
-            }
+        }
+        // Set begin time for read start in past, used by streams with no recovered sequence number
+        // 20050415 AJL added to support continuous data transfer from a time in the past
+        if (begin_time != null) {
+            slconn.setBeginTime(begin_time);
+        }
+        // Set end time for for reading windowed data
+        // 20071204 AJL added
+        if (end_time != null) {
+            slconn.setEndTime(end_time);
         }
 
         //slconn.lastpkttime = true;
@@ -226,6 +226,7 @@ public class EventFrame extends SwarmFrame implements EventObserver {
 
     TreeSet<Arrival> arrivals = new TreeSet<Arrival>(Arrival.distanceComparator());
     arrivals.addAll(origin.getArrivals());
+    pickBox.prefetch(arrivals);
     for (Arrival arrival : arrivals) {
       if (closing) {
         break;
@@ -40,6 +40,7 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -224,6 +225,21 @@ public class PickBox extends JPanel implements Scrollable, PickToolBarListener {
     g.setColor(Color.WHITE);
   }
 
+  /**
+   * Fetch the waves for the picks of several arrivals in one request, ahead of adding them.
+   * @param arrivals arrivals
+   */
+  public void prefetch(Collection<Arrival> arrivals) {
+    List<String> channels = new ArrayList<String>();
+    for (Arrival arrival : arrivals) {
+      String channel = arrival.getPick().getChannel();
+      if (!seismicSources.containsKey(channel)) {
+        channels.add(channel);
+      }
+    }
+    WebServicesSource.prefetchDefaultWaves(channels, startJ2k, endJ2k);
+  }
+
   /**
    * Add pick to pick wave panel.
    * @param arrival arrival
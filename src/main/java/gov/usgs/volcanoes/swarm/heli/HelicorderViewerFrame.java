@@ -17,7 +17,9 @@ import gov.usgs.volcanoes.swarm.SwarmUtil;
 import gov.usgs.volcanoes.swarm.SwingWorker;
 import gov.usgs.volcanoes.swarm.Throbber;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
+import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import gov.usgs.volcanoes.swarm.data.GulperListener;
+import gov.usgs.volcanoes.swarm.data.VisibleGulperListener;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSourceListener;
 import gov.usgs.volcanoes.swarm.internalFrame.SwarmInternalFrames;
@@ -506,7 +508,19 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
       }
     });
 
-    gulperListener = new GulperListener() {
+    gulperListener = new VisibleGulperListener() {
+      public double[] getVisibleSpan() {
+        if (isClosed || isIcon() || !isShowing()) {
+          return null;
+        }
+
+        double end = settings.getBottomTime();
+        if (Double.isNaN(end)) {
+          end = J2kSec.now();
+        }
+        return new double[] {end - settings.span * 60, end};
+      }
+
       public void gulperStarted() {
         gulperWorking = true;
         throbber.increment();
@@ -775,8 +789,38 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
           }
 
           if (!HelicorderViewerFrame.this.isClosed) {
-            hd = dataSource.getHelicorder(settings.channel.replace(' ', '$'), before - tc, end + tc,
-                gulperListener);
+            final String channel = settings.channel.replace(' ', '$');
+            final double t1 = before - tc;
+            final double t2 = end + tc;
+
+            // with many seconds per pixel, draw from the coarse summaries
+            double resolution = 0;
+            HelicorderData summary = null;
+            if (helicorderViewPanel != null && helicorderViewPanel.getWidth() > 0) {
+              resolution = (double) tc / helicorderViewPanel.getWidth();
+              summary = dataSource.getHelicorderSummary(channel, t1, t2, resolution);
+            }
+
+            if (summary != null && summary.rows() > 0 && CachedDataSource.getInstance()
+                .getMissingHelicorder(channel, t1, summary.getEndTime()).isEmpty()) {
+              // all fetched up to the last bucket, so one second data is only needed after it
+              final double split = summary.getEndTime();
+              final HelicorderData latest =
+                  dataSource.getHelicorder(channel, split, t2, gulperListener);
+              hd = summary.subset(t1, split - 1);
+              if (latest != null) {
+                hd = hd == null ? latest : hd.combine(latest);
+              }
+            } else {
+              hd = dataSource.getHelicorder(channel, t1, t2, gulperListener);
+
+              // still loading, so use the summaries only where they cover the whole span
+              if (hd != null && summary != null
+                  && summary.getStartTime() <= hd.getStartTime() + resolution
+                  && summary.getEndTime() >= hd.getEndTime() - resolution) {
+                hd = summary;
+              }
+            }
             success = true;
           } else {
             success = false;
@@ -813,8 +857,15 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
     worker.start();
   }
 
+  /**
+   * Get a wave for the inset. It may be shared with the cache and must not be modified.
+   * 
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return wave covering at least t1 to t2, or null
+   */
   public Wave getWave(final double t1, final double t2) {
-    return dataSource.getWave(settings.channel.replace(' ', '$'), t1, t2);
+    return dataSource.getWaveView(settings.channel.replace(' ', '$'), t1, t2);
   }
 
   public SeismicDataSource getDataSource() {
@@ -413,7 +413,7 @@ public class MapMiniPanel extends JComponent
         }
 
         if (cw == null) {
-          cw = activeMetadata.source.getWave(activeMetadata.getChannel(), st, et);
+          cw = activeMetadata.source.getWaveView(activeMetadata.getChannel(), st, et);
         }
 
         wavePanel.setWave(cw, st, et);
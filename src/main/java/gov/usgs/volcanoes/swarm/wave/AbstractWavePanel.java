@@ -324,7 +324,7 @@ public abstract class AbstractWavePanel extends JComponent {
         if (source instanceof CachedDataSource) {
           sw = ((CachedDataSource) source).getBestWave(channel, st, et);
         } else {
-          sw = source.getWave(channel, st, et);
+          sw = source.getWaveView(channel, st, et);
         }
         setWave(sw, st, et);
         return null;
@@ -1090,9 +1090,11 @@ public abstract class AbstractWavePanel extends JComponent {
         String newChannel = c.replaceFirst(".$", direction);
         String newStation = s + " " + newChannel + " " + n + " " + l;
         stations.put(direction,  newStation);
-        Wave w = source.getWave(newStation, startTime, endTime);
+        Wave w = source.getWaveView(newStation, startTime, endTime);
         if (w != null) {
           if (settings.filterOn) {
+            // filtering works in place, leave the cached wave alone
+            w = new Wave(w);
             filter(w);
           }
           SliceWave sw = new SliceWave(w);
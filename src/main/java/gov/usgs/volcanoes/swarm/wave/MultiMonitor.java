@@ -764,13 +764,13 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
             if (sw != null) {
               if (sw.overlaps(start, now)) { // runaway monitor bug fix
                 if (sw.getEndTime() < now) {
-                  final Wave w2 = dataSource.getWave(channel, sw.getEndTime() - 10, now);
+                  final Wave w2 = dataSource.getWaveView(channel, sw.getEndTime() - 10, now);
                   if (w2 != null && (sw.overlaps(w2) || sw.adjacent(w2))) {
                     sw = sw.combine(w2);
                   }
                 }
                 if (sw.getStartTime() > start) {
-                  final Wave w2 = dataSource.getWave(channel, start, sw.getStartTime() + 10);
+                  final Wave w2 = dataSource.getWaveView(channel, start, sw.getStartTime() + 10);
                   if (w2 != null && (sw.overlaps(w2) || sw.adjacent(w2))) {
                     sw = sw.combine(w2);
                   }
@@ -783,7 +783,7 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
 
             // something bad happened above, just get the whole wave
             if (sw == null) {
-              sw = dataSource.getWave(channel, start, now);
+              sw = dataSource.getWaveView(channel, start, now);
             }
             if (sw != null) {
               waveMap.put(channel, sw);
@@ -56,6 +56,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -1393,6 +1394,61 @@ public class WaveClipboardFrame extends SwarmFrame {
     return waves;
   }
     
+  /**
+   * Get the channels of each configured source, asking each source once. A source which can't
+   * list its channels has none.
+   * 
+   * @return channels by source, in the order the sources are configured
+   */
+  private Map<SeismicDataSource, Set<String>> getSourceChannels() {
+    final Map<SeismicDataSource, Set<String>> sourceChannels =
+        new LinkedHashMap<SeismicDataSource, Set<String>>();
+    for (SeismicDataSource source : SwarmConfig.getInstance().getSources().values()) {
+      final List<String> channels = source.getChannels();
+      if (channels == null) {
+        sourceChannels.put(source, Collections.<String>emptySet());
+      } else {
+        sourceChannels.put(source, new HashSet<String>(channels));
+      }
+    }
+    return sourceChannels;
+  }
+
+  /**
+   * Fetch the waves for an event's picks, asking each source for all its channels at once.
+   * Channels no source has are fetched from the default FDSN server.
+   */
+  private void prefetchWaves(final Event event,
+      final Map<SeismicDataSource, Set<String>> sourceChannels, final double t1, final double t2) {
+    final Map<SeismicDataSource, List<String>> bySource =
+        new HashMap<SeismicDataSource, List<String>>();
+    final List<String> unsourced = new ArrayList<String>();
+    for (Pick pick : event.getPicks().values()) {
+      String channel = pick.getChannel().replaceAll("\\$", " ").trim();
+      SeismicDataSource found = null;
+      for (Map.Entry<SeismicDataSource, Set<String>> entry : sourceChannels.entrySet()) {
+        if (entry.getValue().contains(channel)) {
+          found = entry.getKey();
+          break;
+        }
+      }
+      if (found == null) {
+        unsourced.add(channel);
+      } else {
+        List<String> channels = bySource.get(found);
+        if (channels == null) {
+          channels = new ArrayList<String>();
+          bySource.put(found, channels);
+        }
+        channels.add(channel);
+      }
+    }
+    for (Map.Entry<SeismicDataSource, List<String>> entry : bySource.entrySet()) {
+      entry.getKey().prefetchWaves(entry.getValue(), t1, t2);
+    }
+    WebServicesSource.prefetchDefaultWaves(unsourced, t1, t2);
+  }
+
   /**
    * Import event into clipboard. Event must be set first.
    */
@@ -1421,6 +1477,8 @@ public class WaveClipboardFrame extends SwarmFrame {
         }
         double waveStart = J2kSec.fromEpoch(firstPick) - 2;
         double waveEnd = J2kSec.fromEpoch(lastPick) + 2;
+        final Map<SeismicDataSource, Set<String>> sourceChannels = getSourceChannels();
+        prefetchWaves(event, sourceChannels, waveStart, waveEnd);
 
         // create wave view panels 
         HashMap<String, WaveViewPanel> panels = new HashMap<String, WaveViewPanel>();
@@ -1432,22 +1490,16 @@ public class WaveClipboardFrame extends SwarmFrame {
             wvp.setChannel(channel);
             wvp.setStartTime(waveStart);
             wvp.setEndTime(waveEnd);
-            boolean foundSource = false;
-            for (SeismicDataSource source : SwarmConfig.getInstance().getSources().values()) {
-              for (String ch : source.getChannels()) {
-                if (ch.equals(channel)) {
-                  wvp.setDataSource(source);
-                  Wave wave = source.getWave(channel, waveStart, waveEnd);
-                  if (wave != null) {
-                    wvp.setWave(wave, waveStart, waveEnd);
-                    foundSource = true;
-                    break;
-                  }
+            for (Map.Entry<SeismicDataSource, Set<String>> entry : sourceChannels.entrySet()) {
+              if (entry.getValue().contains(channel)) {
+                SeismicDataSource source = entry.getKey();
+                wvp.setDataSource(source);
+                Wave wave = source.getWave(channel, waveStart, waveEnd);
+                if (wave != null) {
+                  wvp.setWave(wave, waveStart, waveEnd);
+                  break;
                 }
               }
-              if (foundSource) {
-                break;
-              }
             }
             // If no data source already available go to IRIS
             if (wvp.getDataSource() == null) {
@@ -420,7 +420,7 @@ public class WaveViewPanel extends JComponent {
         if (source instanceof CachedDataSource) {
           sw = ((CachedDataSource) source).getBestWave(channel, st, et);
         } else {
-          sw = source.getWave(channel, st, et);
+          sw = source.getWaveView(channel, st, et);
         }
         setWave(sw, st, et);
         return null;
@@ -1355,9 +1355,11 @@ public class WaveViewPanel extends JComponent {
           newStation += " " + l;
         }
         stations.put(direction,  newStation);
-        Wave w = source.getWave(newStation, startTime, endTime);
+        Wave w = source.getWaveView(newStation, startTime, endTime);
         if (w != null) {
           if (settings.filterOn) {
+            // filtering works in place, leave the cached wave alone
+            w = new Wave(w);
             filter(w);
           }
           SliceWave sw = new SliceWave(w);
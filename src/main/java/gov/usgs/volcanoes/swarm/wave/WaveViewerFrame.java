@@ -163,7 +163,7 @@ public class WaveViewerFrame extends JInternalFrame implements Runnable {
   public void getWave() {
     throbber.increment();
     final double now = J2kSec.now();
-    final Wave sw = dataSource.getWave(channel, now - SPANS[spanIndex], now);
+    final Wave sw = dataSource.getWaveView(channel, now - SPANS[spanIndex], now);
     // System.out.println(sw);
     waveViewPanel.setWorking(true);
     waveViewPanel.setWave(sw, now - SPANS[spanIndex], now);
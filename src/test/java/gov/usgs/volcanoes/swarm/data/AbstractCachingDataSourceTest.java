@@ -0,0 +1,130 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.plot.data.Wave;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests of the size accounting of the cache when many threads use it at once.
+ */
+public class AbstractCachingDataSourceTest {
+  private static final int THREADS = 8;
+  private static final int WAVES = 500;
+
+  @Test
+  public void sizeMatchesEntriesAfterConcurrentPuts() throws InterruptedException {
+    final AbstractCachingDataSource cache = new TestCache();
+    runWriters(cache, false);
+
+    assertEquals(sumChannelSizes(cache), cache.getSize());
+  }
+
+  @Test
+  public void sizeMatchesEntriesWhileEvicting() throws InterruptedException {
+    final AbstractCachingDataSource cache = new TestCache();
+    cache.maxSize = 200 * 1000;
+    runWriters(cache, false);
+
+    assertEquals(sumChannelSizes(cache), cache.getSize());
+    // nothing is writing now, so the next write leaves the cache within its limit
+    cache.putWave("LAST EHZ AV", createWave(0));
+    assertTrue(cache.getSize() <= cache.maxSize);
+  }
+
+  @Test
+  public void sizeMatchesEntriesAfterConcurrentFlushes() throws InterruptedException {
+    final AbstractCachingDataSource cache = new TestCache();
+    runWriters(cache, true);
+
+    assertEquals(sumChannelSizes(cache), cache.getSize());
+    cache.flush();
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void leastRecentlyReadIsEvicted() throws InterruptedException {
+    final AbstractCachingDataSource cache = new TestCache();
+    cache.putWave("A EHZ AV", createWave(0));
+    Thread.sleep(5);
+    cache.putWave("B EHZ AV", createWave(0));
+    Thread.sleep(5);
+    cache.putWave("C EHZ AV", createWave(0));
+    Thread.sleep(5);
+    cache.maxSize = cache.getSize();
+
+    assertNotNull(cache.getWave("A EHZ AV", 0, 1));
+    Thread.sleep(5);
+    cache.putWave("D EHZ AV", createWave(0));
+
+    assertNotNull(cache.getWave("A EHZ AV", 0, 1));
+    assertNull(cache.getWave("B EHZ AV", 0, 1));
+    assertNotNull(cache.getWave("C EHZ AV", 0, 1));
+    assertNotNull(cache.getWave("D EHZ AV", 0, 1));
+  }
+
+  /**
+   * Run threads putting and reading waves, half of them on a channel of their own and half on a
+   * channel they share.
+   */
+  private static void runWriters(final AbstractCachingDataSource cache, final boolean flush)
+      throws InterruptedException {
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < THREADS; i++) {
+      final String channel = i % 2 == 0 ? "OWN" + i + " EHZ AV" : "SHARED EHZ AV";
+      final int offset = i;
+      threads.add(new Thread() {
+        public void run() {
+          for (int j = 0; j < WAVES; j++) {
+            // one second waves with gaps between them, so none are joined
+            final double t1 = (j * THREADS + offset) * 2;
+            cache.putWave(channel, createWave(t1));
+            cache.getWave(channel, t1, t1 + 1);
+            if (flush && offset == 0 && j % 250 == 249)
+              cache.flush();
+          }
+        }
+      });
+    }
+    for (final Thread t : threads)
+      t.start();
+    for (final Thread t : threads)
+      t.join();
+  }
+
+  private static long sumChannelSizes(final AbstractCachingDataSource cache) {
+    long size = 0;
+    for (final long channelSize : cache.getChannelSizes().values())
+      size += channelSize;
+    return size;
+  }
+
+  private static Wave createWave(final double t1) {
+    final int[] buffer = new int[100];
+    Arrays.fill(buffer, 1);
+    return new Wave(buffer, t1, 100);
+  }
+
+  /**
+   * A cache of its own rather than the shared one.
+   */
+  private static class TestCache extends AbstractCachingDataSource {
+    public String toConfigString() {
+      return "cache:";
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.plot.data.Wave;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how cache throughput scales with threads, with each thread on a channel of its own and
+ * with all threads on one channel. Locks are per channel, so the first should scale with cores
+ * while the second can't. Run by hand on a machine with several cores; the numbers mean little on
+ * one.
+ *
+ * <p>Usage: CacheContentionBenchmark [seconds per run]
+ */
+public class CacheContentionBenchmark {
+  private static final int SAMPLES = 100;
+
+  public static void main(final String[] args) throws InterruptedException {
+    final long millis = (long) (1000 * (args.length > 0 ? Double.parseDouble(args[0]) : 2));
+    final int cores = Runtime.getRuntime().availableProcessors();
+    System.out.printf("%d cores, %d ms per run%n", cores, millis);
+    System.out.printf("%8s %16s %16s%n", "threads", "own channel/s", "one channel/s");
+
+    // a warm up run so the first row isn't spent compiling
+    run(cores, true, millis);
+    for (int threads = 1; threads <= cores * 2; threads *= 2) {
+      final long own = run(threads, true, millis);
+      final long shared = run(threads, false, millis);
+      System.out.printf("%8d %16d %16d%n", threads, own * 1000 / millis, shared * 1000 / millis);
+    }
+  }
+
+  /**
+   * Put and read waves from several threads at once, with the cache small enough that eviction
+   * runs throughout.
+   *
+   * @return operations completed
+   */
+  private static long run(final int threads, final boolean ownChannel, final long millis)
+      throws InterruptedException {
+    final AbstractCachingDataSource cache = new TestCache();
+    cache.maxSize = 16 * 1000 * 1000;
+
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicLong operations = new AtomicLong();
+    final List<Thread> workers = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      final String channel = ownChannel ? "STA" + i + " EHZ AV" : "STA EHZ AV";
+      final int offset = i;
+      workers.add(new Thread() {
+        public void run() {
+          final int[] buffer = new int[SAMPLES];
+          Arrays.fill(buffer, 1);
+          long count = 0;
+          while (running.get()) {
+            // one second waves with gaps between them, so none are joined
+            final double t1 = (count * threads + offset) * 2;
+            cache.putWave(channel, new Wave(buffer.clone(), t1, SAMPLES));
+            cache.getWave(channel, t1, t1 + 1);
+            count++;
+          }
+          operations.addAndGet(count * 2);
+        }
+      });
+    }
+    for (final Thread t : workers)
+      t.start();
+    Thread.sleep(millis);
+    running.set(false);
+    for (final Thread t : workers)
+      t.join();
+    return operations.get();
+  }
+
+  /**
+   * A cache of its own rather than the shared one.
+   */
+  private static class TestCache extends AbstractCachingDataSource {
+    public String toConfigString() {
+      return "cache:";
+    }
+  }
+}
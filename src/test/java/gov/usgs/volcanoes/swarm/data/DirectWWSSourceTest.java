@@ -0,0 +1,267 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.plot.data.Wave;
+import gov.usgs.volcanoes.core.util.UtilException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the pooled connections of a Winston database source, using connections which answer
+ * queries themselves rather than a database.
+ */
+public class DirectWWSSourceTest {
+  private static final double T1 = 1000;
+  private static final double T2 = 1010;
+
+  private static int databases;
+
+  private String params;
+  private FakeDatabase database;
+  private FakePool pool;
+  private List<DirectWWSSource> sources;
+
+  @Before
+  public void setUp() {
+    // a database of its own for each test, so nothing is shared through the pools or the cache
+    params = "fake|test" + databases++ + "|W";
+    database = new FakeDatabase();
+    pool = new FakePool(database);
+    DirectWWSSource.putPool(params, pool);
+    sources = new ArrayList<DirectWWSSource>();
+  }
+
+  @After
+  public void tearDown() {
+    for (final DirectWWSSource source : sources)
+      source.close();
+    CachedDataSource.getInstance().flush();
+  }
+
+  @Test
+  public void concurrentQueriesShareLimitedConnections() throws InterruptedException {
+    pool.setLimits(2, ConnectionPool.DEFAULT_IDLE_TIMEOUT);
+    database.delay = 50;
+    final DirectWWSSource source = createSource();
+
+    final Wave[] waves = new Wave[8];
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < waves.length; i++) {
+      final int index = i;
+      threads.add(new Thread() {
+        public void run() {
+          waves[index] = source.getWave("STA" + index + " EHZ AV", T1, T2);
+        }
+      });
+    }
+    for (final Thread t : threads)
+      t.start();
+    for (final Thread t : threads)
+      t.join();
+
+    for (final Wave wave : waves)
+      assertNotNull(wave);
+    assertEquals(waves.length, database.queries.get());
+    assertTrue(database.maxRunning.get() <= 2);
+    assertTrue(database.connections.size() <= 2);
+    assertTrue(pool.getOpen() <= 2);
+  }
+
+  @Test
+  public void connectionIsReused() {
+    final DirectWWSSource source = createSource();
+
+    assertNotNull(source.getWave("REUSE1 EHZ AV", T1, T2));
+    assertNotNull(source.getWave("REUSE2 EHZ AV", T1, T2));
+
+    assertEquals(1, database.connections.size());
+    assertEquals(1, pool.getOpen());
+  }
+
+  @Test
+  public void failedConnectionIsClosed() {
+    final DirectWWSSource source = createSource();
+
+    database.failing = true;
+    SeismicDataSource.takeFailed();
+    assertNull(source.getWave("FAIL EHZ AV", T1, T2));
+    // reported as a failure rather than as a chunk with no data
+    assertTrue(SeismicDataSource.takeFailed());
+    assertEquals(1, database.connections.size());
+    assertTrue(database.connections.get(0).closed);
+    assertEquals(0, pool.getOpen());
+
+    database.failing = false;
+    assertNotNull(source.getWave("FAIL EHZ AV", T1, T2));
+    assertFalse(SeismicDataSource.takeFailed());
+    assertEquals(2, database.connections.size());
+    assertFalse(database.connections.get(1).closed);
+  }
+
+  @Test
+  public void concurrentIdenticalRequestsAreCoalesced() throws InterruptedException {
+    database.gate = new CountDownLatch(1);
+    final DirectWWSSource source = createSource();
+
+    final Wave[] waves = new Wave[2];
+    final Thread first = new Thread() {
+      public void run() {
+        waves[0] = source.getWave("SAME EHZ AV", T1, T2);
+      }
+    };
+    final Thread second = new Thread() {
+      public void run() {
+        waves[1] = source.getWave("SAME EHZ AV", T1, T2);
+      }
+    };
+
+    first.start();
+    while (database.running.get() == 0)
+      Thread.sleep(1);
+    second.start();
+    // the second request waits for the first to land rather than querying
+    while (second.getState() != Thread.State.WAITING)
+      Thread.sleep(1);
+    database.gate.countDown();
+    first.join();
+    second.join();
+
+    assertEquals(1, database.queries.get());
+    assertNotNull(waves[0]);
+    assertNotNull(waves[1]);
+    assertEquals(waves[0].numSamples(), waves[1].numSamples());
+  }
+
+  @Test
+  public void poolIsClosedWithLastSource() {
+    final DirectWWSSource first = createSource();
+    final DirectWWSSource second = createSource();
+
+    assertNotNull(first.getWave("CLOSE1 EHZ AV", T1, T2));
+    assertNotNull(second.getWave("CLOSE2 EHZ AV", T1, T2));
+    assertEquals(1, database.connections.size());
+
+    first.close();
+    assertFalse(database.connections.get(0).closed);
+    assertEquals(1, pool.getOpen());
+
+    second.close();
+    assertTrue(database.connections.get(0).closed);
+    assertEquals(0, pool.getOpen());
+  }
+
+  private DirectWWSSource createSource() {
+    final DirectWWSSource source = new DirectWWSSource();
+    source.setName("test");
+    source.parse(params);
+    sources.add(source);
+    return source;
+  }
+
+  /**
+   * What the connections to a database have been asked and how to answer.
+   */
+  private static class FakeDatabase {
+    private final List<FakeConnection> connections = new ArrayList<FakeConnection>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private volatile long delay;
+    private volatile boolean failing;
+    private volatile CountDownLatch gate;
+
+    private synchronized FakeConnection connect() {
+      final FakeConnection connection = new FakeConnection(this);
+      connections.add(connection);
+      return connection;
+    }
+  }
+
+  /**
+   * A connection answering every wave query with a 100 Hz wave of ones.
+   */
+  private static class FakeConnection extends DirectWWSSource.Connection {
+    private final FakeDatabase database;
+    private volatile boolean closed;
+
+    private FakeConnection(final FakeDatabase database) {
+      this.database = database;
+    }
+
+    Wave getWave(final String station, final double t1, final double t2) throws UtilException {
+      database.queries.incrementAndGet();
+      final int now = database.running.incrementAndGet();
+      try {
+        int max;
+        while (now > (max = database.maxRunning.get()))
+          database.maxRunning.compareAndSet(max, now);
+
+        if (database.gate != null)
+          database.gate.await();
+        if (database.delay > 0)
+          Thread.sleep(database.delay);
+        if (database.failing)
+          throw new UtilException("connection lost");
+
+        final int[] buffer = new int[(int) Math.round((t2 - t1) * 100)];
+        Arrays.fill(buffer, 1);
+        return new Wave(buffer, t1, 100);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      } finally {
+        database.running.decrementAndGet();
+      }
+    }
+
+    boolean isConnected() {
+      return !closed && !database.failing;
+    }
+
+    void close() {
+      closed = true;
+    }
+  }
+
+  /**
+   * A pool of connections to a fake database.
+   */
+  private static class FakePool extends ConnectionPool<DirectWWSSource.Connection> {
+    private final FakeDatabase database;
+
+    private FakePool(final FakeDatabase database) {
+      this.database = database;
+    }
+
+    protected DirectWWSSource.Connection create() {
+      return database.connect();
+    }
+
+    protected boolean isHealthy(final DirectWWSSource.Connection connection) {
+      return connection.isConnected();
+    }
+
+    protected void destroy(final DirectWWSSource.Connection connection) {
+      connection.close();
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.plot.data.HelicorderData;
+import gov.usgs.plot.data.Wave;
+import gov.usgs.plot.data.file.SeismicDataFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of loading files into the file source.
+ */
+public class FileDataSourceTest {
+  private static final Runnable NOTHING = new Runnable() {
+    public void run() {}
+  };
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final FileDataSource source = FileDataSource.getInstance();
+
+  @After
+  public void tearDown() {
+    source.flush();
+  }
+
+  @Test
+  public void shortFileIsCachedAndListed() throws IOException {
+    final File file = folder.newFile("short.sac");
+    TestFiles.writeSac(file, "SHRT", "EHZ", "AV", new int[] {2020, 100, 12, 0, 0}, 100,
+        TestFiles.ramp(1000));
+    final SeismicDataFile sdf = SeismicDataFile.getFile(file.getPath());
+    assertNotNull(sdf);
+
+    final List<String> failed = source.load(Collections.<Object>singletonList(sdf), NOTHING);
+
+    assertTrue(failed.isEmpty());
+    // the channel list comes from the helicorder cache, which a ten second file must reach
+    final String channel = findChannel(source.getChannels(), "SHRT EHZ AV");
+    assertNotNull(channel);
+
+    // the samples are held in the wave cache
+    final double t1 = TestFiles.toJ2k(2020, 100, 12, 0, 0);
+    assertTrue(source.getSize() >= 1000 * 4);
+    final Wave wave = source.getWave(channel, t1, t1 + 10);
+    assertNotNull(wave);
+    assertEquals(t1, wave.getStartTime(), 1E-6);
+    assertEquals(1000, wave.numSamples());
+    assertEquals(999, wave.buffer[999]);
+
+    final HelicorderData hd = source.getHelicorder(channel, t1, t1 + 10, null);
+    assertNotNull(hd);
+    assertEquals(10, hd.rows());
+  }
+
+  @Test
+  public void shortMappedFileIsListedWithItsHelicorder() throws IOException {
+    final File file = folder.newFile("short.sac");
+    TestFiles.writeSac(file, "SHRT", "EHZ", "AV", new int[] {2020, 100, 12, 0, 0}, 100,
+        TestFiles.ramp(1000));
+
+    final List<String> failed = source.load(Collections.<Object>singletonList(file), NOTHING);
+
+    assertTrue(failed.isEmpty());
+    assertTrue(source.getChannels().contains("SHRT EHZ AV"));
+
+    // ten seconds, not held back for a batch that never fills
+    final double t1 = TestFiles.toJ2k(2020, 100, 12, 0, 0);
+    final HelicorderData hd = source.getHelicorder("SHRT EHZ AV", t1, t1 + 10, null);
+    assertNotNull(hd);
+    assertEquals(10, hd.rows());
+    assertEquals(t1, hd.getStartTime(), 1E-6);
+
+    // the samples are read from the file rather than held in the wave cache
+    final Wave wave = source.getWave("SHRT EHZ AV", t1 + 2, t1 + 3);
+    assertNotNull(wave);
+    assertEquals(t1 + 2, wave.getStartTime(), 1E-6);
+    assertEquals(200, wave.buffer[0]);
+  }
+
+  @Test
+  public void unreadableFileIsReported() throws IOException {
+    final File file = folder.newFile("junk.sac");
+    TestFiles.write(file, new byte[100]);
+
+    final List<String> failed = source.load(Collections.<Object>singletonList(file), NOTHING);
+
+    assertEquals(Collections.singletonList(file.getPath()), failed);
+    assertTrue(source.isEmpty());
+  }
+
+  /**
+   * Find a channel by its station, channel and network, whatever its location.
+   */
+  private static String findChannel(final List<String> channels, final String scn) {
+    if (channels == null)
+      return null;
+
+    for (final String channel : channels) {
+      if (channel.equals(scn) || channel.startsWith(scn + " "))
+        return channel;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,187 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.plot.data.Wave;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of indexing and decoding files read in place.
+ */
+public class MappedDataFileTest {
+  private static final int RATE = 100;
+  private static final String EHZ = "STA$EHZ$AV";
+  private static final String EHN = "STA$EHN$AV";
+
+  /** start of the first record. */
+  private static final double T0 = TestFiles.toJ2k(2020, 100, 12, 0, 0);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void indexIsBuiltPerChannel() throws IOException {
+    // channels interleaved, as multiplexed files are
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < 3; i++) {
+      out.write(record(i, "EHZ", i));
+      out.write(record(i, "EHN", i));
+    }
+    final MappedDataFile mdf = open(out.toByteArray());
+
+    assertEquals(new HashSet<String>(Arrays.asList(EHZ, EHN)), mdf.getChannels());
+    for (final String channel : mdf.getChannels()) {
+      final double[] times = mdf.getTimes(channel);
+      assertEquals(T0, times[0], 1E-6);
+      assertEquals(T0 + 3, times[1], 1E-6);
+    }
+    assertNull(mdf.getTimes("NONE$EHZ$AV"));
+    assertNull(mdf.getWave("NONE$EHZ$AV", T0, T0 + 3));
+  }
+
+  @Test
+  public void waveIsDecodedAcrossRecords() throws IOException {
+    final MappedDataFile mdf = open(records(0, 1, 2));
+
+    final Wave wave = mdf.getWave(EHZ, T0, T0 + 3);
+    assertNotNull(wave);
+    assertEquals(T0, wave.getStartTime(), 1E-6);
+    assertEquals(3 * RATE, wave.numSamples());
+    for (int i = 0; i < wave.numSamples(); i++)
+      assertEquals(i, wave.buffer[i]);
+
+    // only the records overlapping a span are decoded, and the wave is trimmed to it
+    final Wave part = mdf.getWave(EHZ, T0 + 1.5, T0 + 2.5);
+    assertNotNull(part);
+    assertEquals(T0 + 1.5, part.getStartTime(), 1.0 / RATE);
+    assertEquals(Math.round((part.getStartTime() - T0) * RATE), part.buffer[0]);
+    assertTrue(part.numSamples() <= RATE + 1);
+
+    assertNull(mdf.getWave(EHZ, T0 + 10, T0 + 20));
+  }
+
+  @Test
+  public void recordsOutOfOrderAreSorted() throws IOException {
+    final MappedDataFile mdf = open(records(2, 0, 1));
+
+    final double[] times = mdf.getTimes(EHZ);
+    assertEquals(T0, times[0], 1E-6);
+    assertEquals(T0 + 3, times[1], 1E-6);
+
+    final Wave wave = mdf.getWave(EHZ, T0, T0 + 3);
+    assertEquals(3 * RATE, wave.numSamples());
+    for (int i = 0; i < wave.numSamples(); i++)
+      assertEquals(i, wave.buffer[i]);
+  }
+
+  @Test
+  public void truncatedRecordIsLeftOut() throws IOException {
+    final byte[] data = records(0, 1, 2);
+    final MappedDataFile mdf = open(Arrays.copyOf(data, data.length - 100));
+
+    assertEquals(T0 + 2, mdf.getTimes(EHZ)[1], 1E-6);
+    final Wave wave = mdf.getWave(EHZ, T0, T0 + 3);
+    assertEquals(2 * RATE, wave.numSamples());
+    assertEquals(2 * RATE - 1, wave.buffer[2 * RATE - 1]);
+  }
+
+  @Test
+  public void corruptRecordIsSkipped() throws IOException {
+    final byte[] data = records(0, 1, 2);
+    // no longer a data record quality code
+    data[TestFiles.SEED_RECORD + 6] = 'X';
+    final MappedDataFile mdf = open(data);
+
+    final double[] times = mdf.getTimes(EHZ);
+    assertEquals(T0, times[0], 1E-6);
+    assertEquals(T0 + 3, times[1], 1E-6);
+
+    // the records either side are still read, with a gap where the corrupt one was
+    final Wave wave = mdf.getWave(EHZ, T0, T0 + 3);
+    assertEquals(3 * RATE, wave.numSamples());
+    assertEquals(RATE - 1, wave.buffer[RATE - 1]);
+    assertEquals(Wave.NO_DATA, wave.buffer[RATE + RATE / 2]);
+    assertEquals(2 * RATE, wave.buffer[2 * RATE]);
+  }
+
+  @Test
+  public void unknownFileIsNotMapped() throws IOException {
+    final byte[] data = new byte[1000];
+    Arrays.fill(data, (byte) 'x');
+    final File file = folder.newFile("junk");
+    TestFiles.write(file, data);
+
+    assertFalse(MappedDataFile.isSupported(file));
+    assertNull(MappedDataFile.open(file));
+  }
+
+  @Test
+  public void sacFileIsMapped() throws IOException {
+    final File file = folder.newFile("test.sac");
+    TestFiles.writeSac(file, "SHRT", "EHZ", "AV", new int[] {2020, 100, 12, 0, 0}, RATE,
+        TestFiles.ramp(10 * RATE));
+
+    assertTrue(MappedDataFile.isSupported(file));
+    final MappedDataFile mdf = MappedDataFile.open(file);
+    assertNotNull(mdf);
+    assertEquals(new HashSet<String>(Arrays.asList("SHRT$EHZ$AV")), mdf.getChannels());
+
+    final double[] times = mdf.getTimes("SHRT$EHZ$AV");
+    assertEquals(T0, times[0], 1E-6);
+    assertEquals(T0 + 10, times[1], 1E-6);
+
+    final Wave wave = mdf.getWave("SHRT$EHZ$AV", T0 + 2, T0 + 3);
+    assertEquals(T0 + 2, wave.getStartTime(), 1E-6);
+    assertEquals(RATE, wave.numSamples());
+    assertEquals(2 * RATE, wave.buffer[0]);
+  }
+
+  /**
+   * Get one second of a channel, counting up from the number of samples before it.
+   */
+  private static byte[] record(final int sequence, final String channel, final int second) {
+    final int[] samples = new int[RATE];
+    for (int i = 0; i < RATE; i++)
+      samples[i] = second * RATE + i;
+    return TestFiles.seedRecord(sequence + 1, "STA", channel, "AV",
+        new int[] {2020, 100, 12, 0, second}, RATE, samples);
+  }
+
+  /**
+   * Get the records of seconds of EHZ, in the order given.
+   */
+  private static byte[] records(final int... seconds) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < seconds.length; i++)
+      out.write(record(i, "EHZ", seconds[i]));
+    return out.toByteArray();
+  }
+
+  private MappedDataFile open(final byte[] data) throws IOException {
+    final File file = folder.newFile();
+    TestFiles.write(file, data);
+    assertTrue(MappedDataFile.isSupported(file));
+    final MappedDataFile mdf = MappedDataFile.open(file);
+    assertNotNull(mdf);
+    return mdf;
+  }
+}
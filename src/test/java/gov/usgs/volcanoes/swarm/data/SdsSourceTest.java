@@ -0,0 +1,152 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.plot.data.HelicorderData;
+import gov.usgs.plot.data.Wave;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of finding the day files of a span in an SDS archive, and of what is cached once a day
+ * has been read.
+ */
+public class SdsSourceTest {
+  private static final double DAY = 24 * 60 * 60;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File root;
+  private SdsSource source;
+
+  @Before
+  public void setUp() throws IOException {
+    root = folder.newFolder("sds");
+    source = new SdsSource();
+    source.parse(root.getPath());
+  }
+
+  @After
+  public void tearDown() {
+    source.close();
+    CachedDataSource.getInstance().flush();
+  }
+
+  @Test
+  public void waveIsJoinedAcrossNewYear() throws IOException {
+    // 2020 is a leap year, so its last day is 366
+    writeDayFile("LEAP", 2020, 366, record(1, "LEAP", new int[] {2020, 366, 23, 59, 59}, 0));
+    writeDayFile("LEAP", 2021, 1, record(1, "LEAP", new int[] {2021, 1, 0, 0, 0}, 100));
+
+    final double t1 = TestFiles.toJ2k(2020, 366, 23, 59, 59);
+    final Wave wave = source.getWave("LEAP EHZ AV", t1, t1 + 2);
+
+    assertNotNull(wave);
+    assertEquals(t1, wave.getStartTime(), 1E-6);
+    // both days, with no gap at midnight
+    assertTrue(wave.numSamples() >= 200);
+    for (int i = 0; i < 200; i++)
+      assertEquals(i, wave.buffer[i]);
+  }
+
+  @Test
+  public void recordRunningIntoNextDayIsFound() throws IOException {
+    // a record of the last day of the year running 40 seconds into the next, which has no file
+    final int[] samples = TestFiles.ramp(70);
+    writeDayFile("LATE", 2020, 366, TestFiles.seedRecord(1, "LATE", "EHZ", "AV",
+        new int[] {2020, 366, 23, 59, 30}, 1, samples));
+
+    final double midnight = TestFiles.toJ2k(2021, 1, 0, 0, 0);
+    final Wave wave = source.getWave("LATE EHZ AV", midnight + 10, midnight + 20);
+
+    assertNotNull(wave);
+    assertEquals(midnight + 10, wave.getStartTime(), 1);
+    assertEquals(Math.round(wave.getStartTime() - midnight + 30), wave.buffer[0]);
+  }
+
+  @Test
+  public void gapsAreMarkedEmptyAfterRead() throws IOException {
+    // ten minutes at noon of a day long past
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < 6; i++) {
+      out.write(TestFiles.seedRecord(i + 1, "GAP", "EHZ", "AV",
+          new int[] {2020, 100, 12, i * 100 / 60, i * 100 % 60}, 1, TestFiles.ramp(100)));
+    }
+    writeDayFile("GAP", 2020, 100, out.toByteArray());
+
+    final double dayStart = TestFiles.toJ2k(2020, 100, 0, 0, 0);
+    final double noon = dayStart + DAY / 2;
+    final HelicorderData hd = source.getHelicorder("GAP EHZ AV", dayStart, dayStart + DAY, null);
+
+    assertNotNull(hd);
+    assertEquals(noon, hd.getStartTime(), 1);
+    assertEquals(noon + 600, hd.getEndTime(), 1);
+    // the rest of the day is known to be empty, so it isn't read again
+    assertTrue(CachedDataSource.getInstance()
+        .getMissingHelicorder("GAP EHZ AV", dayStart, dayStart + DAY).isEmpty());
+  }
+
+  @Test
+  public void dayWithoutFileIsMarkedEmpty() {
+    final double dayStart = TestFiles.toJ2k(2020, 101, 0, 0, 0);
+
+    assertNull(source.getHelicorder("NONE EHZ AV", dayStart, dayStart + DAY, null));
+    assertTrue(CachedDataSource.getInstance()
+        .getMissingHelicorder("NONE EHZ AV", dayStart, dayStart + DAY).isEmpty());
+  }
+
+  @Test
+  public void unreadableDayIsNotMarked() throws IOException {
+    writeDayFile("JUNK", 2020, 102, new byte[1000]);
+    final double dayStart = TestFiles.toJ2k(2020, 102, 0, 0, 0);
+
+    assertNull(source.getHelicorder("JUNK EHZ AV", dayStart, dayStart + DAY, null));
+    // left missing, so it is read again once the file is fixed
+    final List<double[]> missing = CachedDataSource.getInstance()
+        .getMissingHelicorder("JUNK EHZ AV", dayStart, dayStart + DAY);
+    assertFalse(missing.isEmpty());
+    assertEquals(dayStart, missing.get(0)[0], 1E-6);
+  }
+
+  /**
+   * Get one second of 100 Hz samples counting up from a value.
+   */
+  private static byte[] record(final int sequence, final String station, final int[] start,
+      final int first) {
+    final int[] samples = new int[100];
+    for (int i = 0; i < samples.length; i++)
+      samples[i] = first + i;
+    return TestFiles.seedRecord(sequence, station, "EHZ", "AV", start, 100, samples);
+  }
+
+  /**
+   * Write the EHZ day file of a station where the archive layout puts it.
+   */
+  private void writeDayFile(final String station, final int year, final int day,
+      final byte[] data) throws IOException {
+    final File dir = new File(root, year + "/AV/" + station + "/EHZ.D");
+    assertTrue(dir.isDirectory() || dir.mkdirs());
+    TestFiles.write(new File(dir,
+        String.format("AV.%s..EHZ.D.%d.%03d", station, year, day)), data);
+  }
+}
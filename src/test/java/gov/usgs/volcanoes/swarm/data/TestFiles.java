@@ -0,0 +1,168 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Writes small data files for tests.
+ */
+final class TestFiles {
+  private static final int SAC_HEADER = 632;
+  private static final int SAC_UNDEFINED = -12345;
+
+  /** length of the miniSEED records written, as a power of two. */
+  private static final int SEED_RECORD_POWER = 9;
+  static final int SEED_RECORD = 1 << SEED_RECORD_POWER;
+
+  /** where samples start in a record, after the fixed header and blockette 1000. */
+  private static final int SEED_DATA = 64;
+
+  /** most samples a record holds. */
+  static final int SEED_SAMPLES = (SEED_RECORD - SEED_DATA) / 4;
+
+  private TestFiles() {}
+
+  /**
+   * Get a time in j2k.
+   */
+  static double toJ2k(final int year, final int day, final int hour, final int min,
+      final int sec) {
+    final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+    calendar.clear();
+    calendar.set(Calendar.YEAR, year);
+    calendar.set(Calendar.DAY_OF_YEAR, day);
+    calendar.set(Calendar.HOUR_OF_DAY, hour);
+    calendar.set(Calendar.MINUTE, min);
+    calendar.set(Calendar.SECOND, sec);
+    return J2kSec.fromDate(calendar.getTime());
+  }
+
+  /**
+   * Get samples counting up from zero.
+   */
+  static int[] ramp(final int n) {
+    final int[] samples = new int[n];
+    for (int i = 0; i < n; i++)
+      samples[i] = i;
+    return samples;
+  }
+
+  /**
+   * Write an evenly sampled big endian SAC file starting on a whole second.
+   *
+   * @param file file to write
+   * @param station station
+   * @param channel channel
+   * @param network network
+   * @param start year, day of year, hour, minute and second of the first sample
+   * @param rate samples per second
+   * @param samples samples
+   * @throws IOException if the file can't be written
+   */
+  static void writeSac(final File file, final String station, final String channel,
+      final String network, final int[] start, final double rate, final int[] samples)
+      throws IOException {
+    final ByteBuffer b = ByteBuffer.allocate(SAC_HEADER + 4 * samples.length);
+    b.order(ByteOrder.BIG_ENDIAN);
+    for (int i = 0; i < 70; i++)
+      b.putFloat(i * 4, SAC_UNDEFINED);
+    for (int i = 0; i < 40; i++)
+      b.putInt(280 + i * 4, SAC_UNDEFINED);
+    for (int i = 0; i < 24; i++)
+      putString(b, 440 + i * 8, "-12345", 8);
+
+    b.putFloat(0, (float) (1 / rate));
+    b.putFloat(20, 0);
+    b.putFloat(24, (float) (samples.length / rate));
+    for (int i = 0; i < 5; i++)
+      b.putInt(280 + i * 4, start[i]);
+    b.putInt(300, 0);
+    b.putInt(304, 6);
+    b.putInt(316, samples.length);
+    b.putInt(340, 1);
+    b.putInt(420, 1);
+    putString(b, 440, station, 8);
+    putString(b, 600, channel, 8);
+    putString(b, 608, network, 8);
+
+    for (int i = 0; i < samples.length; i++)
+      b.putFloat(SAC_HEADER + i * 4, samples[i]);
+    write(file, b.array());
+  }
+
+  /**
+   * Get a big endian miniSEED data record of uncompressed 32 bit samples.
+   *
+   * @param sequence record sequence number
+   * @param station station
+   * @param channel channel
+   * @param network network
+   * @param start year, day of year, hour, minute and second of the first sample
+   * @param rate whole samples per second
+   * @param samples samples, at most {@link #SEED_SAMPLES}
+   * @return the record
+   */
+  static byte[] seedRecord(final int sequence, final String station, final String channel,
+      final String network, final int[] start, final int rate, final int[] samples) {
+    final ByteBuffer b = ByteBuffer.allocate(SEED_RECORD);
+    b.order(ByteOrder.BIG_ENDIAN);
+    putString(b, 0, String.format("%06d", sequence), 6);
+    b.put(6, (byte) 'D');
+    putString(b, 7, "", 1);
+    putString(b, 8, station, 5);
+    putString(b, 13, "", 2);
+    putString(b, 15, channel, 3);
+    putString(b, 18, network, 2);
+
+    b.putShort(20, (short) start[0]);
+    b.putShort(22, (short) start[1]);
+    b.put(24, (byte) start[2]);
+    b.put(25, (byte) start[3]);
+    b.put(26, (byte) start[4]);
+    b.putShort(30, (short) samples.length);
+    b.putShort(32, (short) rate);
+    b.putShort(34, (short) 1);
+    b.put(39, (byte) 1);
+    b.putShort(44, (short) SEED_DATA);
+    b.putShort(46, (short) 48);
+
+    // blockette 1000: INT32, big endian
+    b.putShort(48, (short) 1000);
+    b.putShort(50, (short) 0);
+    b.put(52, (byte) 3);
+    b.put(53, (byte) 1);
+    b.put(54, (byte) SEED_RECORD_POWER);
+
+    for (int i = 0; i < samples.length; i++)
+      b.putInt(SEED_DATA + i * 4, samples[i]);
+    return b.array();
+  }
+
+  static void write(final File file, final byte[] data) throws IOException {
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void putString(final ByteBuffer b, final int offset, final String s,
+      final int length) {
+    for (int i = 0; i < length; i++)
+      b.put(offset + i, (byte) (i < s.length() ? s.charAt(i) : ' '));
+  }
+}